@@ -0,0 +1,78 @@
+package com.tivo.demo.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tivo.demo.tvshow.loaders.IndexDirectoryType;
+import com.tivo.demo.tvshow.loaders.ShowLoaderConfig;
+
+/**
+ * Time to index a whole synthetic schedule with loadShowsIntoIndex, into a fresh in-memory index
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class IngestBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	public int episodes;
+
+	@Param({ "0", "4" })
+	public int indexingThreads;
+
+	private JSONArray schedule;
+	private SyntheticShowLoader loader;
+
+	private ByteBuffersDirectory index;
+	private IndexWriter indexWriter;
+
+	@Setup(Level.Trial)
+	public void generateSchedule() throws IOException {
+		schedule = SyntheticSchedule.generate(episodes, 42);
+
+		ShowLoaderConfig config = new ShowLoaderConfig();
+		config.setDirectoryType(IndexDirectoryType.MEMORY);
+		config.setIndexingThreads(indexingThreads);
+		loader = new SyntheticShowLoader(config, schedule);
+	}
+
+	@Setup(Level.Invocation)
+	public void openIndex() throws IOException {
+		index = new ByteBuffersDirectory();
+		indexWriter = new IndexWriter(index, new IndexWriterConfig(loader.getIndexAnalyzer()));
+	}
+
+	@TearDown(Level.Invocation)
+	public void closeIndex() throws IOException {
+		indexWriter.close();
+		index.close();
+	}
+
+	@Benchmark
+	public int loadShowsIntoIndex() throws IOException {
+		loader.loadShowsIntoIndex(schedule, indexWriter);
+		indexWriter.commit();
+		return indexWriter.getDocStats().numDocs;
+	}
+}
@@ -0,0 +1,51 @@
+package com.tivo.demo.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tivo.demo.tvshow.loaders.oauth.OAuthSignatureGenerator;
+import com.tivo.demo.tvshow.loaders.oauth.OAuthSigner;
+
+/**
+ * Cost of signing one TiVo request: with a new OAuthSignatureGenerator per request, as TivoShowLoader used to, and with
+ * the one OAuthSigner it now shares across its fetching threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class OAuthSigningBenchmark {
+
+	private static final String URL = "https://developers.tivo.com/api/v1/resolve/3/data_service_channels/screen?id=4068858495&offset=0&count=100";
+	private static final String CONSUMER_KEY = "key", CONSUMER_SECRET = "secret";
+
+	private final OAuthSigner signer = new OAuthSigner();
+
+	@Benchmark
+	public String signRequest() throws UnsupportedEncodingException, NoSuchAlgorithmException, InvalidKeyException {
+		OAuthSignatureGenerator oauth = new OAuthSignatureGenerator();
+		String signature = oauth.generateSignature("GET", URL, CONSUMER_KEY, CONSUMER_SECRET);
+		return oauth.buildAuthorizationHeader(CONSUMER_KEY, signature);
+	}
+
+	@Benchmark
+	public String signRequestWithSharedSigner() throws InvalidKeyException {
+		return signer.sign("GET", URL, CONSUMER_KEY, CONSUMER_SECRET);
+	}
+}
@@ -0,0 +1,49 @@
+package com.tivo.demo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tivo.demo.tvsearch.TVShowAnalyzers;
+import com.tivo.demo.tvsearch.TVShowSearcher;
+
+/**
+ * Cost of parsing each query shape searched by TVShowSearcher: a term, a field, a negation and a sloppy phrase
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryParserBenchmark {
+
+	@Param({ "Jeopardy", "name:Rachel", "name:Rachel -summary:Ray", "\"kids cartoon\"~15" })
+	public String query;
+
+	private Analyzer analyzer;
+
+	@Setup
+	public void createAnalyzer() {
+		analyzer = TVShowAnalyzers.newQueryAnalyzer();
+	}
+
+	@Benchmark
+	public Query parse() throws QueryNodeException {
+		return new StandardQueryParser(analyzer).parse(query, TVShowSearcher.showNameFieldName);
+	}
+}
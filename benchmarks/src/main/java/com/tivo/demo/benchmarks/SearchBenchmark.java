@@ -0,0 +1,94 @@
+package com.tivo.demo.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tivo.demo.tvsearch.TVShowSearchResult;
+import com.tivo.demo.tvsearch.TVShowSearcher;
+import com.tivo.demo.tvsearch.TVShowSearcherConfig;
+import com.tivo.demo.tvsearch.TVShowSortOrder;
+import com.tivo.demo.tvshow.loaders.IndexDirectoryType;
+import com.tivo.demo.tvshow.loaders.ShowLoaderConfig;
+
+/**
+ * End-to-end latency of TVShowSearcher.search, for each of its sample query shapes, over a synthetic index.
+ * The query and result caches are disabled, so every call parses and searches.
+ * Searches for the next episodes to air are measured with and without the index sorted by airtime, and every search
+ * over one index and over shards searched concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class SearchBenchmark {
+
+	@Param({ "100000" })
+	public int episodes;
+
+	@Param({ "Jeopardy", "name:Rachel", "name:Rachel -summary:Ray", "\"kids cartoon\"~15" })
+	public String query;
+
+	@Param({ "false", "true" })
+	public boolean sortedByAirtime;
+
+	@Param({ "1", "4" })
+	public int shards;
+
+	private SyntheticShowLoader loader;
+	private TVShowSearcher searcher;
+
+	@Setup
+	public void loadIndex() throws IOException {
+		ShowLoaderConfig loaderConfig = new ShowLoaderConfig();
+		loaderConfig.setDirectoryType(IndexDirectoryType.MEMORY);
+		loaderConfig.setIndexingThreads(Runtime.getRuntime().availableProcessors());
+		loaderConfig.setSortedByAirtime(sortedByAirtime);
+		loaderConfig.setShardCount(shards);
+		loader = new SyntheticShowLoader(loaderConfig, SyntheticSchedule.generate(episodes, 42));
+		loader.load();
+
+		TVShowSearcherConfig searcherConfig = new TVShowSearcherConfig();
+		searcherConfig.setRefreshIntervalMillis(0);
+		searcherConfig.setQueryCacheSize(0);
+		searcherConfig.setResultCacheSize(0);
+		searcher = new TVShowSearcher(loader.getShards(), loader.getAnalyzer(), searcherConfig);
+	}
+
+	@TearDown
+	public void close() throws IOException {
+		searcher.close();
+		loader.close();
+	}
+
+	@Benchmark
+	public List<TVShowSearchResult> searchSummaries() throws QueryNodeException, IOException {
+		return searcher.search(query, 10, TVShowSearchResult.SUMMARY_FIELDS);
+	}
+
+	@Benchmark
+	public List<TVShowSearchResult> searchUpcoming() throws QueryNodeException, IOException {
+		return searcher.search(query, 10, TVShowSearchResult.SUMMARY_FIELDS, null, TVShowSortOrder.AIRTIME);
+	}
+
+	@Benchmark
+	public List<TVShowSearchResult> searchAllFields() throws QueryNodeException, IOException {
+		return searcher.search(query, 10);
+	}
+}
@@ -0,0 +1,61 @@
+package com.tivo.demo.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tivo.demo.tvshow.loaders.IndexDirectoryType;
+import com.tivo.demo.tvshow.loaders.ShowLoaderConfig;
+
+/**
+ * Latency of typeahead suggestions, for short and longer prefixes, over the names of a synthetic index
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class SuggestBenchmark {
+
+	@Param({ "100000" })
+	public int episodes;
+
+	@Param({ "j", "jeo", "wheel of f", "kids car" })
+	public String prefix;
+
+	private SyntheticShowLoader loader;
+
+	@Setup
+	public void loadIndex() throws IOException {
+		ShowLoaderConfig loaderConfig = new ShowLoaderConfig();
+		loaderConfig.setDirectoryType(IndexDirectoryType.MEMORY);
+		loaderConfig.setIndexingThreads(Runtime.getRuntime().availableProcessors());
+		loaderConfig.setTypeahead(true);
+		loader = new SyntheticShowLoader(loaderConfig, SyntheticSchedule.generate(episodes, 42));
+		loader.load();
+	}
+
+	@TearDown
+	public void close() throws IOException {
+		loader.close();
+	}
+
+	@Benchmark
+	public List<String> suggest() throws IOException {
+		return loader.getSuggester().suggest(prefix, 10);
+	}
+}
@@ -0,0 +1,108 @@
+package com.tivo.demo.benchmarks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Generates TVMaze-shaped schedules offline, so that benchmarks never touch the network.
+ *
+ * The same seed always generates the same schedule.  Show names, types and summaries are drawn from small vocabularies,
+ * which include the terms searched by TVShowSearcher's sample queries, so every query shape finds some matches.
+ */
+public final class SyntheticSchedule {
+
+	private static final String[] NAME_WORDS = {
+			"Jeopardy", "Rachel", "Ray", "Wheel", "Fortune", "Kitchen", "Tonight", "Late", "Show", "News", "Morning", "Family",
+			"Kids", "Cartoon", "Street", "Island", "Doctor", "Love", "House", "Hunters", "Court", "Judge", "World", "Chef"
+	};
+
+	private static final String[] TYPES = {
+			"Scripted", "Reality", "Talk Show", "Game Show", "News", "Animation", "Documentary", "Sports", "Variety"
+	};
+
+	private static final String[] SUMMARY_WORDS = {
+			"the", "a", "kids", "cartoon", "family", "host", "guests", "contestants", "compete", "prizes", "cooking", "recipes",
+			"news", "weather", "sports", "interviews", "celebrity", "mystery", "drama", "comedy", "adventure", "friends",
+			"school", "city", "town", "season", "finale", "premiere", "special", "live", "studio", "audience", "Ray", "Rachel"
+	};
+
+	private static final String[] NETWORKS = {
+			"ABC", "CBS", "NBC", "FOX", "PBS", "HBO", "Netflix", "BBC One"
+	};
+
+	//Airings are spread evenly over a week from this start, without drawing from the random sequence
+	private static final Instant FIRST_AIRING = Instant.parse("2019-06-10T00:00:00Z");
+	private static final long WEEK_MINUTES = 7 * 24 * 60;
+
+	//Shows air this many episodes each, on average, like a daily show in a multi-day schedule
+	private static final int EPISODES_PER_SHOW = 10;
+
+	private SyntheticSchedule() {
+	}
+
+
+	/**
+	 * @param episodes Number of episodes in the schedule
+	 * @param seed
+	 * @return A TVMaze /schedule style array of episodes, each with its show embedded
+	 */
+	public static JSONArray generate(int episodes, long seed) {
+		Random random = new Random(seed);
+		int shows = Math.max(1, episodes / EPISODES_PER_SHOW);
+
+		//Generate each show once, and share it between its episodes, as the parsed API response would
+		JSONObject[] showJson = new JSONObject[shows];
+		for (int i = 0; i < shows; i++) {
+			showJson[i] = show(i + 1, random);
+		}
+
+		JSONArray schedule = new JSONArray();
+		for (int i = 0; i < episodes; i++) {
+			JSONObject episode = new JSONObject();
+			episode.put("id", i + 1);
+			episode.put("name", words(NAME_WORDS, 1 + random.nextInt(3), random));
+			episode.put("number", 1 + random.nextInt(200));
+			episode.put("summary", "<p>" + words(SUMMARY_WORDS, 10 + random.nextInt(30), random) + "</p>");
+			episode.put("show", showJson[random.nextInt(shows)]);
+
+			Instant airstamp = FIRST_AIRING.plus(Duration.ofMinutes(i * WEEK_MINUTES / episodes));
+			episode.put("airstamp", airstamp.toString());
+			episode.put("airdate", airstamp.atOffset(ZoneOffset.UTC).toLocalDate().toString());
+			episode.put("runtime", 30 + 30 * (i % 2));
+			schedule.put(episode);
+		}
+		return schedule;
+	}
+
+
+	private static JSONObject show(int id, Random random) {
+		JSONObject image = new JSONObject();
+		image.put("original", "http://static.tvmaze.com/uploads/images/original_untouched/" + id + ".jpg");
+
+		JSONObject show = new JSONObject();
+		show.put("id", id);
+		show.put("name", words(NAME_WORDS, 1 + random.nextInt(3), random));
+		show.put("type", TYPES[random.nextInt(TYPES.length)]);
+		show.put("summary", "<p>" + words(SUMMARY_WORDS, 20 + random.nextInt(60), random) + "</p>");
+		show.put("image", image);
+		show.put("network", new JSONObject().put("name", NETWORKS[id % NETWORKS.length]));
+		return show;
+	}
+
+
+	private static String words(String[] vocabulary, int count, Random random) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				text.append(' ');
+			}
+			text.append(vocabulary[random.nextInt(vocabulary.length)]);
+		}
+		return text.toString();
+	}
+}
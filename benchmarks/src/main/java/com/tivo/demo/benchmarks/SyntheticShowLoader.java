@@ -0,0 +1,26 @@
+package com.tivo.demo.benchmarks;
+
+import java.io.IOException;
+
+import org.json.JSONArray;
+
+import com.tivo.demo.tvshow.loaders.ShowLoaderConfig;
+import com.tivo.demo.tvshow.loaders.TVMazeShowLoader;
+
+/**
+ * Loads a pre-generated schedule through the TVMaze document-building path, instead of querying api.tvmaze.com
+ */
+public class SyntheticShowLoader extends TVMazeShowLoader {
+
+	private final JSONArray schedule;
+
+	public SyntheticShowLoader(ShowLoaderConfig config, JSONArray schedule) throws IOException {
+		super(config, false);
+		this.schedule = schedule;
+	}
+
+	@Override
+	public JSONArray getShowListing() {
+		return schedule;
+	}
+}
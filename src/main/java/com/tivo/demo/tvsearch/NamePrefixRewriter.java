@@ -0,0 +1,82 @@
+package com.tivo.demo.tvsearch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Rewrites a parsed query's prefix searches of the show and episode names, such as name:jeop*, into a single term
+ * lookup in the name's prefix field, where the loader indexed the leading characters of each word.
+ * Otherwise, a PrefixQuery visits every term of the name field starting with the prefix.
+ * Prefixes longer than the prefix field holds, and queries against an index with any segment indexed without the prefix
+ * field, are left as they are.
+ */
+final class NamePrefixRewriter {
+
+	private static final Map<String, String> PREFIX_FIELDS = new HashMap<>();
+	static {
+		PREFIX_FIELDS.put(TVShowSearcher.showNameFieldName, TVShowSearcher.showNamePrefixFieldName);
+		PREFIX_FIELDS.put(TVShowSearcher.episodeNameFieldName, TVShowSearcher.episodeNamePrefixFieldName);
+	}
+
+	private NamePrefixRewriter() {
+	}
+
+
+	/**
+	 * @param query
+	 * @param reader The reader the rewritten query will run on
+	 * @return
+	 */
+	static Query rewrite(Query query, IndexReader reader) {
+		if (query instanceof BooleanQuery) {
+			BooleanQuery booleanQuery = (BooleanQuery) query;
+			BooleanQuery.Builder rewritten = new BooleanQuery.Builder().setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+			for (BooleanClause clause : booleanQuery.clauses()) {
+				rewritten.add(rewrite(clause.getQuery(), reader), clause.getOccur());
+			}
+			return rewritten.build();
+		}
+		else if (query instanceof BoostQuery) {
+			BoostQuery boostQuery = (BoostQuery) query;
+			return new BoostQuery(rewrite(boostQuery.getQuery(), reader), boostQuery.getBoost());
+		}
+		else if (!(query instanceof PrefixQuery)) {
+			return query;
+		}
+
+		Term prefix = ((PrefixQuery) query).getPrefix();
+		String prefixField = PREFIX_FIELDS.get(prefix.field());
+		int length = prefix.text().codePointCount(0, prefix.text().length());
+		if (prefixField == null || length == 0 || length > TVShowAnalyzers.MAX_PREFIX_LENGTH || !hasPrefixField(reader, prefix.field(), prefixField)) {
+			return query;
+		}
+		return new TermQuery(new Term(prefixField, prefix.text()));
+	}
+
+
+	/**
+	 * @return Whether every segment with the name field has its prefix field too
+	 */
+	private static boolean hasPrefixField(IndexReader reader, String field, String prefixField) {
+		boolean found = false;
+		for (LeafReaderContext leaf : reader.leaves()) {
+			if (leaf.reader().getFieldInfos().fieldInfo(prefixField) != null) {
+				found = true;
+			}
+			else if (leaf.reader().getFieldInfos().fieldInfo(field) != null) {
+				return false;
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,209 @@
+package com.tivo.demo.tvsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * Reads only the requested fields of each search hit.
+ *
+ * Short display fields are read from their doc values, which only touches those fields' column of the index.
+ * Fields without doc values, such as the episode description, are read from the stored fields, but only if requested,
+ * since that decompresses a whole block of Documents.
+ */
+final class ResultProjector {
+
+	private ResultProjector() {
+	}
+
+
+	/**
+	 * @param searcher
+	 * @param hits
+	 * @param fields Names of the fields to read.  The others are left null in the results.
+	 * @return A result per hit, in the same order as the hits
+	 * @throws IOException
+	 */
+	static List<TVShowSearchResult> project(IndexSearcher searcher, ScoreDoc[] hits, Set<String> fields) throws IOException {
+		List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+
+		//Doc values iterators only move forward, so visit the hits in index order
+		Integer[] inDocOrder = new Integer[hits.length];
+		for (int i = 0; i < hits.length; i++) {
+			inDocOrder[i] = i;
+		}
+		Arrays.sort(inDocOrder, (a, b) -> Integer.compare(hits[a].doc, hits[b].doc));
+
+		TVShowSearchResult[] projected = new TVShowSearchResult[hits.length];
+		LeafValues leafValues = null;
+
+		//Show Documents already read for earlier hits, by show id
+		Map<String, Document> shows = new HashMap<>();
+
+		for (int hitIndex : inDocOrder) {
+			ScoreDoc hit = hits[hitIndex];
+			LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(hit.doc, leaves));
+			if (leafValues == null || leafValues.leaf != leaf) {
+				leafValues = new LeafValues(leaf, fields);
+			}
+
+			int doc = hit.doc - leaf.docBase;
+			Document stored = leafValues.storedFields.isEmpty() ? null : leaf.reader().document(doc, leafValues.storedFields);
+
+			String showName = leafValues.string(leafValues.showName, doc, stored, TVShowSearcher.showNameFieldName);
+			String showType = leafValues.string(leafValues.showType, doc, stored, TVShowSearcher.showTypeFieldName);
+			String imageURL = leafValues.imageURL(doc, stored);
+
+			//An episode in a normalized index has none of its show's fields, so read them from the show Document instead
+			String showId = leafValues.string(leafValues.showId, doc, null, null);
+			if (showId != null && showName == null && showType == null && imageURL == null) {
+				if (!shows.containsKey(showId)) {
+					shows.put(showId, findShow(searcher, showId, fields));
+				}
+				Document show = shows.get(showId);
+				if (show != null) {
+					showName = show.get(TVShowSearcher.showNameFieldName);
+					showType = show.get(TVShowSearcher.showTypeFieldName);
+					imageURL = show.get(TVShowSearcher.imageURLFieldName);
+				}
+			}
+
+			projected[hitIndex] = new TVShowSearchResult(
+					showName,
+					showType,
+					leafValues.string(leafValues.episodeName, doc, stored, TVShowSearcher.episodeNameFieldName),
+					leafValues.episodeNumber(doc, stored),
+					stored == null ? null : stored.get(TVShowSearcher.episodeDescriptionFieldName),
+					imageURL,
+					leafValues.airtime(doc),
+					leafValues.network(doc),
+					hit.score);
+		}
+
+		return Arrays.asList(projected);
+	}
+
+
+	/**
+	 * Read the requested show fields from the show Document of a normalized index
+	 * @return The show Document, or null if there is none
+	 */
+	private static Document findShow(IndexSearcher searcher, String showId, Set<String> fields) throws IOException {
+		TopDocs show = searcher.search(new TermQuery(new Term(TVShowSearcher.episodeIdFieldName, TVShowSearcher.SHOW_KEY_PREFIX + showId)), 1);
+		return show.scoreDocs.length == 0 ? null : searcher.doc(show.scoreDocs[0].doc, fields);
+	}
+
+
+	/**
+	 * The doc values iterators of one segment, for the requested fields.
+	 * Requested fields which the segment has no doc values for (such as segments written before doc values were added)
+	 * are read from the stored fields instead.
+	 */
+	private static final class LeafValues {
+		final LeafReaderContext leaf;
+		final Set<String> storedFields = new HashSet<>();
+
+		SortedDocValues showName, showType, episodeName, showId;
+		NumericDocValues episodeNumber, airtime;
+		BinaryDocValues imageURL;
+		SortedSetDocValues network;
+
+		LeafValues(LeafReaderContext leaf, Set<String> fields) throws IOException {
+			this.leaf = leaf;
+			LeafReader reader = leaf.reader();
+
+			if (fields.contains(TVShowSearcher.showNameFieldName))
+				showName = sorted(reader, TVShowSearcher.showNameFieldName);
+			if (fields.contains(TVShowSearcher.showTypeFieldName))
+				showType = sorted(reader, TVShowSearcher.showTypeFieldName);
+			if (fields.contains(TVShowSearcher.episodeNameFieldName))
+				episodeName = sorted(reader, TVShowSearcher.episodeNameFieldName);
+			if (fields.contains(TVShowSearcher.episodeNumberFieldName) && hasDocValues(reader, TVShowSearcher.episodeNumberFieldName, DocValuesType.NUMERIC))
+				episodeNumber = reader.getNumericDocValues(TVShowSearcher.episodeNumberFieldName);
+			else if (fields.contains(TVShowSearcher.episodeNumberFieldName))
+				storedFields.add(TVShowSearcher.episodeNumberFieldName);
+			if (fields.contains(TVShowSearcher.imageURLFieldName) && hasDocValues(reader, TVShowSearcher.imageURLFieldName, DocValuesType.BINARY))
+				imageURL = reader.getBinaryDocValues(TVShowSearcher.imageURLFieldName);
+			else if (fields.contains(TVShowSearcher.imageURLFieldName))
+				storedFields.add(TVShowSearcher.imageURLFieldName);
+
+			//Only indexed as doc values, so segments written before they were added have none
+			if (fields.contains(TVShowSearcher.airtimeFieldName) && hasDocValues(reader, TVShowSearcher.airtimeFieldName, DocValuesType.NUMERIC))
+				airtime = reader.getNumericDocValues(TVShowSearcher.airtimeFieldName);
+			if (fields.contains(TVShowSearcher.networkFieldName) && hasDocValues(reader, TVShowSearcher.networkFieldName, DocValuesType.SORTED_SET))
+				network = reader.getSortedSetDocValues(TVShowSearcher.networkFieldName);
+
+			if ((fields.contains(TVShowSearcher.showNameFieldName) || fields.contains(TVShowSearcher.showTypeFieldName) || fields.contains(TVShowSearcher.imageURLFieldName))
+					&& hasDocValues(reader, TVShowSearcher.showIdFieldName, DocValuesType.SORTED))
+				showId = reader.getSortedDocValues(TVShowSearcher.showIdFieldName);
+
+			//Never has doc values, since it is too long to be worth keeping in a column
+			if (fields.contains(TVShowSearcher.episodeDescriptionFieldName))
+				storedFields.add(TVShowSearcher.episodeDescriptionFieldName);
+		}
+
+		private SortedDocValues sorted(LeafReader reader, String field) throws IOException {
+			if (hasDocValues(reader, field, DocValuesType.SORTED)) {
+				return reader.getSortedDocValues(field);
+			}
+			storedFields.add(field);
+			return null;
+		}
+
+		private static boolean hasDocValues(LeafReader reader, String field, DocValuesType type) {
+			FieldInfo info = reader.getFieldInfos().fieldInfo(field);
+			return info != null && info.getDocValuesType() == type;
+		}
+
+		String string(SortedDocValues values, int doc, Document stored, String field) throws IOException {
+			if (values != null) {
+				return values.advanceExact(doc) ? values.binaryValue().utf8ToString() : null;
+			}
+			return stored == null ? null : stored.get(field);
+		}
+
+		Integer episodeNumber(int doc, Document stored) throws IOException {
+			if (episodeNumber != null) {
+				return episodeNumber.advanceExact(doc) ? (int) episodeNumber.longValue() : null;
+			}
+			IndexableField field = stored == null ? null : stored.getField(TVShowSearcher.episodeNumberFieldName);
+			return field == null || field.numericValue() == null ? null : field.numericValue().intValue();
+		}
+
+		Long airtime(int doc) throws IOException {
+			return airtime != null && airtime.advanceExact(doc) ? airtime.longValue() : null;
+		}
+
+		String network(int doc) throws IOException {
+			return network != null && network.advanceExact(doc) ? network.lookupOrd(network.nextOrd()).utf8ToString() : null;
+		}
+
+		String imageURL(int doc, Document stored) throws IOException {
+			if (imageURL != null) {
+				return imageURL.advanceExact(doc) ? imageURL.binaryValue().utf8ToString() : null;
+			}
+			return stored == null ? null : stored.get(TVShowSearcher.imageURLFieldName);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.tivo.demo.tvsearch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+
+/**
+ * Searches every shard of a sharded index concurrently, and merges each shard's top hits with {@link TopDocs#merge}.
+ *
+ * The shards are also readable as one index, through a MultiReader, so hits are returned with doc ids of the whole
+ * index, and everything else a query does, such as joins, facet counts and reading the fields of its hits, works on all
+ * of the shards at once.  Each shard is scored with the term and collection statistics of the whole index, so a hit
+ * scores the same as it would in an unsharded index, whichever shard it is in.
+ */
+final class ShardedIndexSearcher extends IndexSearcher {
+
+	private final DirectoryReader[] shardReaders;
+	private final int[] docStarts;
+	private final ExecutorService shardExecutor;
+
+
+	/**
+	 * @param shardReaders The reader of each shard, which the searcher holds a reference to until its reader is closed
+	 * @param shardExecutor Searches every shard but the first, which is searched on the querying thread
+	 * @throws IOException
+	 */
+	ShardedIndexSearcher(DirectoryReader[] shardReaders, ExecutorService shardExecutor) throws IOException {
+		super(new MultiReader(shardReaders, false));
+		this.shardReaders = shardReaders;
+		this.shardExecutor = shardExecutor;
+
+		docStarts = new int[shardReaders.length];
+		for (int i = 1; i < shardReaders.length; i++) {
+			docStarts[i] = docStarts[i - 1] + shardReaders[i - 1].maxDoc();
+		}
+	}
+
+
+	DirectoryReader[] getShardReaders() {
+		return shardReaders;
+	}
+
+
+	/**
+	 * @return The sum of the versions of the shards, which grows whenever any shard changes
+	 */
+	long getVersion() {
+		long version = 0;
+		for (DirectoryReader reader : shardReaders) {
+			version += reader.getVersion();
+		}
+		return version;
+	}
+
+
+	@Override
+	public TopDocs search(Query query, int n) throws IOException {
+		TopDocs[] shardHits = searchShards(shard -> shard.search(query, n), new TopDocs[shardReaders.length]);
+		return toIndexDocs(TopDocs.merge(n, shardHits));
+	}
+
+
+	@Override
+	public TopFieldDocs search(Query query, int n, Sort sort) throws IOException {
+		TopFieldDocs[] shardHits = searchShards(shard -> shard.search(query, n, sort), new TopFieldDocs[shardReaders.length]);
+		return toIndexDocs(TopDocs.merge(sort, n, shardHits));
+	}
+
+
+	/**
+	 * Search one shard
+	 */
+	private interface ShardSearch<T extends TopDocs> {
+		T search(IndexSearcher shard) throws IOException;
+	}
+
+
+	/**
+	 * Run a search on every shard at once, with the statistics of the whole index
+	 * @param search
+	 * @param shardHits An array for the hits of each shard
+	 * @return The hits of each shard, with shard doc ids
+	 * @throws IOException
+	 */
+	private <T extends TopDocs> T[] searchShards(ShardSearch<T> search, T[] shardHits) throws IOException {
+		//Each term's statistics are only gathered from the whole index once per query, rather than once per shard
+		Map<Term, TermStatistics> termStatistics = new ConcurrentHashMap<>();
+		Map<String, CollectionStatistics> collectionStatistics = new ConcurrentHashMap<>();
+
+		//Every shard but the first, which is searched on the calling thread
+		List<CompletableFuture<T>> futures = new ArrayList<>(shardReaders.length - 1);
+		for (int i = 1; i < shardReaders.length; i++) {
+			IndexSearcher shard = new ShardSearcher(shardReaders[i], termStatistics, collectionStatistics);
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return search.search(shard);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, shardExecutor));
+		}
+
+		shardHits[0] = search.search(new ShardSearcher(shardReaders[0], termStatistics, collectionStatistics));
+
+		for (int i = 1; i < shardReaders.length; i++) {
+			try {
+				shardHits[i] = futures.get(i - 1).join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) e.getCause()).getCause();
+				}
+				throw new IOException("Shard search failed", e.getCause());
+			}
+		}
+		return shardHits;
+	}
+
+
+	/**
+	 * Convert the doc ids of merged hits, each of which is from the shard at its shard index, to doc ids of the whole index
+	 */
+	private <T extends TopDocs> T toIndexDocs(T merged) {
+		for (ScoreDoc hit : merged.scoreDocs) {
+			hit.doc += docStarts[hit.shardIndex];
+		}
+		return merged;
+	}
+
+
+	/**
+	 * Searches one shard, scoring it with the statistics of the whole index
+	 */
+	private final class ShardSearcher extends IndexSearcher {
+
+		private final Map<Term, TermStatistics> termStatistics;
+		private final Map<String, CollectionStatistics> collectionStatistics;
+
+		ShardSearcher(IndexReader shardReader, Map<Term, TermStatistics> termStatistics, Map<String, CollectionStatistics> collectionStatistics) {
+			super(shardReader);
+			this.termStatistics = termStatistics;
+			this.collectionStatistics = collectionStatistics;
+			setSimilarity(ShardedIndexSearcher.this.getSimilarity());
+		}
+
+		@Override
+		public TermStatistics termStatistics(Term term, TermStates context) throws IOException {
+			TermStatistics statistics = termStatistics.get(term);
+			if (statistics == null) {
+				IndexSearcher index = ShardedIndexSearcher.this;
+				//Null if no shard has the term at all, in which case nothing matches it anyway
+				statistics = index.termStatistics(term, TermStates.build(index.getTopReaderContext(), term, true));
+				if (statistics != null) {
+					termStatistics.put(term, statistics);
+				}
+			}
+			return statistics;
+		}
+
+		@Override
+		public CollectionStatistics collectionStatistics(String field) throws IOException {
+			CollectionStatistics statistics = collectionStatistics.get(field);
+			if (statistics == null) {
+				statistics = ShardedIndexSearcher.this.collectionStatistics(field);
+				if (statistics != null) {
+					collectionStatistics.put(field, statistics);
+				}
+			}
+			return statistics;
+		}
+	}
+}
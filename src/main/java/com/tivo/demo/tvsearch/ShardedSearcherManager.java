@@ -0,0 +1,131 @@
+package com.tivo.demo.tvsearch;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Manages the {@link ShardedIndexSearcher} over the current readers of every shard, the way a SearcherManager manages
+ * the searcher of one index.  A refresh reopens only the shards which changed, and shares the others' readers with the
+ * previous searcher.
+ */
+final class ShardedSearcherManager extends ReferenceManager<IndexSearcher> {
+
+	private final ExecutorService shardExecutor;
+
+
+	/**
+	 * Open a searcher which sees each new commit to the shards
+	 * @param shards
+	 * @param shardExecutor
+	 * @throws IOException
+	 */
+	ShardedSearcherManager(Directory[] shards, ExecutorService shardExecutor) throws IOException {
+		this.shardExecutor = shardExecutor;
+
+		DirectoryReader[] readers = new DirectoryReader[shards.length];
+		try {
+			for (int i = 0; i < shards.length; i++) {
+				readers[i] = DirectoryReader.open(shards[i]);
+			}
+			current = newSearcher(readers, null);
+		} catch (IOException | RuntimeException e) {
+			IOUtils.closeWhileHandlingException(readers);
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Open a searcher which reopens near-real-time from the shards' IndexWriters
+	 * @param shardWriters
+	 * @param shardExecutor
+	 * @throws IOException
+	 */
+	ShardedSearcherManager(IndexWriter[] shardWriters, ExecutorService shardExecutor) throws IOException {
+		this.shardExecutor = shardExecutor;
+
+		DirectoryReader[] readers = new DirectoryReader[shardWriters.length];
+		try {
+			for (int i = 0; i < shardWriters.length; i++) {
+				readers[i] = DirectoryReader.open(shardWriters[i]);
+			}
+			current = newSearcher(readers, null);
+		} catch (IOException | RuntimeException e) {
+			IOUtils.closeWhileHandlingException(readers);
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Build a searcher over the readers, which takes its own reference to each of them.  The references to the readers
+	 * which aren't the previous searcher's are released, so the new searcher holds the only ones.
+	 * @param readers
+	 * @param previous The previous searcher's readers, or null
+	 * @return
+	 * @throws IOException
+	 */
+	private ShardedIndexSearcher newSearcher(DirectoryReader[] readers, DirectoryReader[] previous) throws IOException {
+		try {
+			return new ShardedIndexSearcher(readers, shardExecutor);
+		} finally {
+			for (int i = 0; i < readers.length; i++) {
+				if (previous == null || readers[i] != previous[i]) {
+					readers[i].decRef();
+				}
+			}
+		}
+	}
+
+
+	@Override
+	protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+		DirectoryReader[] previous = ((ShardedIndexSearcher) referenceToRefresh).getShardReaders();
+		DirectoryReader[] readers = previous.clone();
+
+		boolean changed = false;
+		try {
+			for (int i = 0; i < readers.length; i++) {
+				DirectoryReader reader = DirectoryReader.openIfChanged(previous[i]);
+				if (reader != null) {
+					readers[i] = reader;
+					changed = true;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			for (int i = 0; i < readers.length; i++) {
+				if (readers[i] != previous[i]) {
+					readers[i].decRef();
+				}
+			}
+			throw e;
+		}
+
+		return changed ? newSearcher(readers, previous) : null;
+	}
+
+
+	@Override
+	protected void decRef(IndexSearcher reference) throws IOException {
+		reference.getIndexReader().decRef();
+	}
+
+
+	@Override
+	protected boolean tryIncRef(IndexSearcher reference) {
+		return reference.getIndexReader().tryIncRef();
+	}
+
+
+	@Override
+	protected int getRefCount(IndexSearcher reference) {
+		return reference.getIndexReader().getRefCount();
+	}
+}
@@ -0,0 +1,104 @@
+package com.tivo.demo.tvsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.join.JoinUtil;
+import org.apache.lucene.search.join.ScoreMode;
+
+/**
+ * Rewrites a parsed query for a normalized index, where each show's fields are indexed once, in a show Document, and
+ * episode Documents only refer to their show by its id.
+ *
+ * Each clause which only searches show fields is joined from the matching show Documents to their episodes, so that
+ * a query such as summary:cartoon still finds episodes.  Show Documents themselves are excluded from the results.
+ * Queries against an index without show Documents are left as they are.
+ */
+final class ShowJoinRewriter {
+
+	private static final Set<String> SHOW_FIELDS = new HashSet<>(Arrays.asList(
+			TVShowSearcher.showNameFieldName, TVShowSearcher.showNamePrefixFieldName, TVShowSearcher.showTypeFieldName,
+			TVShowSearcher.showDescriptionFieldName));
+
+	private static final Term SHOW_DOC_TYPE_TERM = new Term(TVShowSearcher.docTypeFieldName, TVShowSearcher.SHOW_DOC_TYPE);
+
+	private ShowJoinRewriter() {
+	}
+
+
+	/**
+	 * @param query
+	 * @param searcher The searcher the rewritten query will run on, which the joins collect show ids from
+	 * @return A query for episodes only
+	 * @throws IOException
+	 */
+	static Query rewrite(Query query, IndexSearcher searcher) throws IOException {
+		if (searcher.getIndexReader().docFreq(SHOW_DOC_TYPE_TERM) == 0) {
+			return query;
+		}
+
+		return new BooleanQuery.Builder()
+				.add(joinShowClauses(query, searcher), BooleanClause.Occur.MUST)
+				.add(new TermQuery(SHOW_DOC_TYPE_TERM), BooleanClause.Occur.MUST_NOT)
+				.build();
+	}
+
+
+	private static Query joinShowClauses(Query query, IndexSearcher searcher) throws IOException {
+		if (query instanceof BooleanQuery) {
+			BooleanQuery booleanQuery = (BooleanQuery) query;
+			BooleanQuery.Builder rewritten = new BooleanQuery.Builder().setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+			for (BooleanClause clause : booleanQuery.clauses()) {
+				rewritten.add(joinShowClauses(clause.getQuery(), searcher), clause.getOccur());
+			}
+			return rewritten.build();
+		}
+		else if (query instanceof BoostQuery) {
+			BoostQuery boostQuery = (BoostQuery) query;
+			return new BoostQuery(joinShowClauses(boostQuery.getQuery(), searcher), boostQuery.getBoost());
+		}
+
+		Set<String> fields = fieldsOf(query);
+		if (fields.isEmpty() || !SHOW_FIELDS.containsAll(fields)) {
+			return query;
+		}
+
+		//Still match the query directly too, for any episodes indexed with their show's fields copied in
+		Query episodesOfMatchingShows = JoinUtil.createJoinQuery(TVShowSearcher.showIdFieldName, false, TVShowSearcher.showIdFieldName, query, searcher, ScoreMode.Max);
+		return new BooleanQuery.Builder()
+				.add(query, BooleanClause.Occur.SHOULD)
+				.add(episodesOfMatchingShows, BooleanClause.Occur.SHOULD)
+				.build();
+	}
+
+
+	/**
+	 * @return Every field searched by a (non-boolean) query
+	 */
+	private static Set<String> fieldsOf(Query query) {
+		Set<String> fields = new HashSet<>();
+		query.visit(new QueryVisitor() {
+			@Override
+			public boolean acceptField(String field) {
+				fields.add(field);
+				return false;
+			}
+
+			@Override
+			public QueryVisitor getSubVisitor(BooleanClause.Occur occur, Query parent) {
+				return this;
+			}
+		});
+		return fields;
+	}
+}
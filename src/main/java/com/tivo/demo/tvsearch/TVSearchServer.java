@@ -0,0 +1,374 @@
+package com.tivo.demo.tvsearch;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.json.JSONWriter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tivo.demo.util.Metrics;
+import com.tivo.demo.util.ThreadPools;
+import com.tivo.demo.util.ThrottledLogger;
+
+/**
+ * A long-running HTTP/JSON endpoint in front of a warm {@link TVShowSearcher}, so that each query only pays for the search itself.
+ * <ul>
+ * <li>GET /search?q=...: the matching episodes.  Optional parameters: n (number of results), fields (summary or all),
+ * sort (relevance or airtime), from and until (airtime window, in epoch milliseconds), airdate, network (repeatable),
+ * and facets (number of values to count per facet, along with the total hits)</li>
+ * <li>GET /suggest?q=...: typeahead suggestions for a prefix, with an optional n</li>
+ * <li>GET /health: 200 while the server is accepting requests</li>
+ * <li>GET /metrics: the load and search metrics, as Prometheus text</li>
+ * </ul>
+ *
+ * Each request is handled on its own virtual thread, on JVMs which have them.  Responses are written straight to the
+ * connection, field by field, without building the JSON as a string first.  Connections are kept alive between
+ * requests, as HTTP/1.1 clients expect, and {@link #close()} lets the requests in progress finish.
+ */
+public class TVSearchServer implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(TVSearchServer.class.getName());
+
+	//A broken index would fail every request the same way
+	private static final ThrottledLogger ERROR_LOG = new ThrottledLogger(LOG, 30, TimeUnit.SECONDS);
+
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+	private static final int RESPONSE_BUFFER_SIZE = 8 * 1024;
+	private static final int DEFAULT_COUNT = 10;
+
+	private final TVShowSearcher searcher;
+	private final TVShowSuggester suggester;
+	private final TVSearchServerConfig config;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+
+	/**
+	 * Start serving requests.  The searcher and suggester are still the caller's to close, after the server.
+	 * @param searcher
+	 * @param suggester The typeahead suggester, or null if there isn't one, in which case /suggest is not found
+	 * @param config
+	 * @throws IOException If the port cannot be listened on
+	 */
+	public TVSearchServer(TVShowSearcher searcher, TVShowSuggester suggester, TVSearchServerConfig config) throws IOException {
+		this.searcher = searcher;
+		this.suggester = suggester;
+		this.config = config;
+
+		server = HttpServer.create(new InetSocketAddress(config.getPort()), 0);
+		executor = ThreadPools.newTaskExecutor("tvsearch-http", config.getHandlerThreads());
+		server.setExecutor(executor);
+
+		server.createContext("/search", exchange -> handle(exchange, this::search));
+		server.createContext("/suggest", exchange -> handle(exchange, this::suggest));
+		server.createContext("/health", exchange -> handle(exchange, this::health));
+		server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+		server.start();
+
+		LOG.info("Serving searches on port " + getPort());
+	}
+
+
+	/**
+	 * @return The port the server is listening on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+
+	/**
+	 * Answers one request to an endpoint
+	 */
+	private interface Endpoint {
+		/**
+		 * @param exchange
+		 * @param params The decoded query parameters, each with every value it was given
+		 * @throws QueryNodeException If the query cannot be parsed
+		 * @throws IllegalArgumentException If any other parameter is invalid
+		 * @throws IOException
+		 */
+		void handle(HttpExchange exchange, Map<String, List<String>> params) throws QueryNodeException, IOException;
+	}
+
+
+	/**
+	 * Answer a request, or answer it with an error, and time it
+	 */
+	private void handle(HttpExchange exchange, Endpoint endpoint) {
+		long start = System.nanoTime();
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "GET");
+				sendError(exchange, 405, "Only GET is supported");
+				return;
+			}
+			endpoint.handle(exchange, parseParams(exchange.getRequestURI().getRawQuery()));
+
+		} catch (QueryNodeException | IllegalArgumentException e) {
+			sendError(exchange, 400, String.valueOf(e.getMessage()));
+		} catch (IOException | RuntimeException e) {
+			ERROR_LOG.log(Level.WARNING, () -> "Exception caught handling " + exchange.getRequestURI() + ": " + e);
+			sendError(exchange, 500, "Internal error");
+		} finally {
+			exchange.close();
+			Metrics.HTTP_REQUEST.recordSince(start);
+		}
+	}
+
+
+	private void search(HttpExchange exchange, Map<String, List<String>> params) throws QueryNodeException, IOException {
+		String q = param(params, "q");
+		int n = count(params);
+		Set<String> fields = parseFields(param(params, "fields"));
+		TVShowFilter filter = parseFilter(params);
+		String sort = param(params, "sort");
+		TVShowSortOrder order = sort == null ? TVShowSortOrder.RELEVANCE : TVShowSortOrder.valueOf(sort.toUpperCase(Locale.ROOT));
+		String facets = param(params, "facets");
+		int facetTopN = facets == null ? 0 : Integer.parseInt(facets);
+
+		//Search before sending anything, so that a bad query still gets an error response
+		List<TVShowSearchResult> results;
+		TVShowFacetedResults faceted = null;
+		if (facetTopN > 0) {
+			faceted = searcher.searchWithFacets(q, n, fields, filter, order, facetTopN);
+			results = faceted.getResults();
+		}
+		else {
+			results = searcher.search(q, n, fields, filter, order);
+		}
+
+		try (Writer out = openJson(exchange, 200)) {
+			JSONWriter json = new JSONWriter(out).object();
+			json.key("results").array();
+			for (TVShowSearchResult result : results) {
+				writeResult(json, result);
+			}
+			json.endArray();
+
+			if (faceted != null) {
+				json.key("totalHits").value(faceted.getTotalHits());
+				json.key("facets").object();
+				for (Map.Entry<String, Map<String, Integer>> dim : faceted.getFacetCounts().entrySet()) {
+					json.key(dim.getKey()).object();
+					for (Map.Entry<String, Integer> count : dim.getValue().entrySet()) {
+						json.key(count.getKey()).value(count.getValue().longValue());
+					}
+					json.endObject();
+				}
+				json.endObject();
+			}
+			json.endObject();
+		}
+	}
+
+
+	private void suggest(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+		if (suggester == null) {
+			sendError(exchange, 404, "Typeahead suggestions are not enabled");
+			return;
+		}
+		String q = param(params, "q");
+		if (q == null) {
+			throw new IllegalArgumentException("Missing q parameter");
+		}
+
+		List<String> suggestions = suggester.suggest(q, count(params));
+
+		try (Writer out = openJson(exchange, 200)) {
+			JSONWriter json = new JSONWriter(out).object();
+			json.key("suggestions").array();
+			for (String suggestion : suggestions) {
+				json.value(suggestion);
+			}
+			json.endArray().endObject();
+		}
+	}
+
+
+	private void health(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+		try (Writer out = openJson(exchange, 200)) {
+			new JSONWriter(out).object().key("status").value("UP").endObject();
+		}
+	}
+
+
+	private void metrics(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, 0);
+		try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+			out.write(Metrics.REGISTRY.toPrometheusText());
+		}
+	}
+
+
+	/**
+	 * Write the fields of a result which were filled in, skipping the score if the results weren't scored
+	 */
+	private static void writeResult(JSONWriter json, TVShowSearchResult result) {
+		json.object();
+		writeField(json, "showName", result.getShowName());
+		writeField(json, "showType", result.getShowType());
+		writeField(json, "episodeName", result.getEpisodeName());
+		writeField(json, "episodeNumber", result.getEpisodeNumber());
+		writeField(json, "episodeDescription", result.getEpisodeDescription());
+		writeField(json, "imageURL", result.getImageURL());
+		writeField(json, "airtime", result.getAirtime());
+		writeField(json, "network", result.getNetwork());
+		if (!Float.isNaN(result.getScore())) {
+			json.key("score").value(result.getScore());
+		}
+		json.endObject();
+	}
+
+
+	private static void writeField(JSONWriter json, String key, Object value) {
+		if (value != null) {
+			json.key(key).value(value);
+		}
+	}
+
+
+	/**
+	 * Send the response headers, and open the body for streaming JSON into, with chunked encoding
+	 */
+	private static Writer openJson(HttpExchange exchange, int status) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+		exchange.sendResponseHeaders(status, 0);
+		return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), RESPONSE_BUFFER_SIZE);
+	}
+
+
+	/**
+	 * Answer with an error, unless the response has already started, in which case the client sees it cut short
+	 */
+	private static void sendError(HttpExchange exchange, int status, String message) {
+		if (exchange.getResponseCode() != -1) {
+			return;
+		}
+		try (Writer out = openJson(exchange, status)) {
+			new JSONWriter(out).object().key("error").value(message).endObject();
+		} catch (IOException e) {
+			LOG.fine(() -> "Exception caught sending an error response: " + e);
+		}
+	}
+
+
+	private static Map<String, List<String>> parseParams(String rawQuery) {
+		if (rawQuery == null || rawQuery.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		Map<String, List<String>> params = new HashMap<>();
+		for (String pair : rawQuery.split("&")) {
+			int equals = pair.indexOf('=');
+			String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+			String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+			params.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+		}
+		return params;
+	}
+
+
+	/**
+	 * @return The first value of the parameter, or null if it wasn't given
+	 */
+	private static String param(Map<String, List<String>> params, String name) {
+		List<String> values = params.get(name);
+		return values == null ? null : values.get(0);
+	}
+
+
+	/**
+	 * @return The number of results the request asks for, up to the configured maximum
+	 */
+	private int count(Map<String, List<String>> params) {
+		String n = param(params, "n");
+		int count = n == null ? DEFAULT_COUNT : Integer.parseInt(n);
+		if (count < 1) {
+			throw new IllegalArgumentException("n must be at least 1");
+		}
+		return Math.min(count, config.getMaxResults());
+	}
+
+
+	private static Set<String> parseFields(String fields) {
+		if (fields == null || fields.equals("summary")) {
+			return TVShowSearchResult.SUMMARY_FIELDS;
+		}
+		if (fields.equals("all")) {
+			return TVShowSearchResult.ALL_FIELDS;
+		}
+		throw new IllegalArgumentException("fields must be summary or all");
+	}
+
+
+	/**
+	 * @return The filter the request's parameters ask for, or null if they don't ask for one
+	 */
+	private static TVShowFilter parseFilter(Map<String, List<String>> params) {
+		TVShowFilter.Builder builder = new TVShowFilter.Builder();
+		boolean filtered = false;
+
+		String from = param(params, "from"), until = param(params, "until");
+		if (until != null) {
+			builder.airingBetween(from == null ? Long.MIN_VALUE : Long.parseLong(from), Long.parseLong(until));
+			filtered = true;
+		}
+		else if (from != null) {
+			builder.airingAfter(Long.parseLong(from));
+			filtered = true;
+		}
+
+		String airdate = param(params, "airdate");
+		if (airdate != null) {
+			builder.airingOn(airdate);
+			filtered = true;
+		}
+
+		for (String network : params.getOrDefault("network", Collections.emptyList())) {
+			builder.onNetwork(network);
+			filtered = true;
+		}
+
+		return filtered ? builder.build() : null;
+	}
+
+
+	/**
+	 * Stop accepting requests, and wait up to the configured grace period for the requests in progress to finish
+	 */
+	@Override
+	public void close() {
+		server.stop(config.getShutdownGraceSeconds());
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(config.getShutdownGraceSeconds(), TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.tivo.demo.tvsearch;
+
+/**
+ * Options controlling how the TV Search Server listens for and answers requests
+ */
+public class TVSearchServerConfig {
+
+	private int port = 8080;
+	private int handlerThreads = 4 * Runtime.getRuntime().availableProcessors();
+
+	private int maxResults = 100;
+	private int shutdownGraceSeconds = 10;
+
+	/**
+	 * @see #setPort(int)
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * The port to listen on.  0 listens on any free port, which {@link TVSearchServer#getPort()} tells.
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * @see #setHandlerThreads(int)
+	 */
+	public int getHandlerThreads() {
+		return handlerThreads;
+	}
+
+	/**
+	 * Number of threads handling requests on JVMs without virtual threads.  With virtual threads, every request gets
+	 * its own, and this is not used.
+	 */
+	public void setHandlerThreads(int handlerThreads) {
+		this.handlerThreads = handlerThreads;
+	}
+
+	/**
+	 * @see #setMaxResults(int)
+	 */
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	/**
+	 * The most results or suggestions a request can ask for, however many its n parameter asks for
+	 */
+	public void setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+	}
+
+	/**
+	 * @see #setShutdownGraceSeconds(int)
+	 */
+	public int getShutdownGraceSeconds() {
+		return shutdownGraceSeconds;
+	}
+
+	/**
+	 * How long {@link TVSearchServer#close()} waits for the requests in progress to finish, once it stops accepting new ones
+	 */
+	public void setShutdownGraceSeconds(int shutdownGraceSeconds) {
+		this.shutdownGraceSeconds = shutdownGraceSeconds;
+	}
+}
@@ -0,0 +1,161 @@
+package com.tivo.demo.tvsearch;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.charfilter.HTMLStripCharFilter;
+import org.apache.lucene.analysis.core.FlattenGraphFilter;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.synonym.SolrSynonymParser;
+import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+
+/**
+ * The analysis of each field of the search index, at index time and at query time.
+ *
+ * Every field is tokenized and lowercased the way StandardAnalyzer does, except that:
+ * - The TVMaze summaries have their HTML markup stripped before tokenizing, so that tags never become terms.
+ * - The show and episode names are also indexed into prefix fields, holding the first 1 to {@link #MAX_PREFIX_LENGTH}
+ *   characters of each word, so that a prefix search is a single term lookup instead of a scan of the term dictionary.
+ * - Given a synonym map, the names, type and summaries are indexed with each word's synonyms too, so that queries never
+ *   need expanding.
+ * Those expansions only happen at index time: the query analyzer analyzes each field the same way without them.
+ */
+public final class TVShowAnalyzers {
+
+	//Prefixes longer than this are searched with a PrefixQuery on the name field instead
+	public static final int MAX_PREFIX_LENGTH = 15;
+
+	private TVShowAnalyzers() {
+	}
+
+
+	/**
+	 * @param synonyms Synonyms to index along with each word of the text fields, or null for none
+	 * @return The analyzer to index documents with
+	 */
+	public static Analyzer newIndexAnalyzer(SynonymMap synonyms) {
+		Analyzer names = new TextAnalyzer(false, synonyms);
+		Analyzer summaries = new TextAnalyzer(true, synonyms);
+		Analyzer prefixes = new PrefixAnalyzer(true);
+
+		Map<String, Analyzer> fieldAnalyzers = new HashMap<>();
+		fieldAnalyzers.put(TVShowSearcher.showNameFieldName, names);
+		fieldAnalyzers.put(TVShowSearcher.episodeNameFieldName, names);
+		fieldAnalyzers.put(TVShowSearcher.showTypeFieldName, names);
+		fieldAnalyzers.put(TVShowSearcher.showDescriptionFieldName, summaries);
+		fieldAnalyzers.put(TVShowSearcher.episodeDescriptionFieldName, summaries);
+		fieldAnalyzers.put(TVShowSearcher.showNamePrefixFieldName, prefixes);
+		fieldAnalyzers.put(TVShowSearcher.episodeNamePrefixFieldName, prefixes);
+		return new PerFieldAnalyzerWrapper(new StandardAnalyzer(), fieldAnalyzers);
+	}
+
+
+	/**
+	 * @return The analyzer to parse queries with, for an index analyzed by {@link #newIndexAnalyzer(SynonymMap)}
+	 */
+	public static Analyzer newQueryAnalyzer() {
+		Analyzer summaries = new TextAnalyzer(true, null);
+		Analyzer prefixes = new PrefixAnalyzer(false);
+
+		Map<String, Analyzer> fieldAnalyzers = new HashMap<>();
+		fieldAnalyzers.put(TVShowSearcher.showDescriptionFieldName, summaries);
+		fieldAnalyzers.put(TVShowSearcher.episodeDescriptionFieldName, summaries);
+		fieldAnalyzers.put(TVShowSearcher.showNamePrefixFieldName, prefixes);
+		fieldAnalyzers.put(TVShowSearcher.episodeNamePrefixFieldName, prefixes);
+		return new PerFieldAnalyzerWrapper(new StandardAnalyzer(), fieldAnalyzers);
+	}
+
+
+	/**
+	 * Read synonyms in the Solr format: a line of comma-separated words are all synonyms of each other, and a line
+	 * such as "tv => television" only maps the words on the left to those on the right
+	 * @param path
+	 * @return
+	 * @throws IOException If the file cannot be read or parsed
+	 */
+	public static SynonymMap loadSynonyms(Path path) throws IOException {
+		SolrSynonymParser parser = new SolrSynonymParser(true, true, new StandardAnalyzer());
+		try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			parser.parse(reader);
+			return parser.build();
+		} catch (ParseException e) {
+			throw new IOException("Cannot parse the synonyms in " + path + ": " + e.getMessage(), e);
+		}
+	}
+
+
+	/**
+	 * StandardAnalyzer's analysis, optionally stripping HTML first and adding synonyms after
+	 */
+	private static final class TextAnalyzer extends Analyzer {
+		private final boolean stripHTML;
+		private final SynonymMap synonyms;
+
+		TextAnalyzer(boolean stripHTML, SynonymMap synonyms) {
+			this.stripHTML = stripHTML;
+			this.synonyms = synonyms;
+		}
+
+		@Override
+		protected Reader initReader(String fieldName, Reader reader) {
+			return stripHTML ? new HTMLStripCharFilter(reader) : reader;
+		}
+
+		@Override
+		protected TokenStreamComponents createComponents(String fieldName) {
+			Tokenizer source = new StandardTokenizer();
+			TokenStream result = new LowerCaseFilter(source);
+			if (synonyms != null) {
+				//The IndexWriter can't index a graph, so multi-word synonyms are flattened onto the positions they span
+				result = new FlattenGraphFilter(new SynonymGraphFilter(result, synonyms, true));
+			}
+			return new TokenStreamComponents(source, result);
+		}
+
+		@Override
+		protected TokenStream normalize(String fieldName, TokenStream in) {
+			return new LowerCaseFilter(in);
+		}
+	}
+
+
+	/**
+	 * StandardAnalyzer's analysis, which at index time also breaks each word into its leading n-grams
+	 */
+	private static final class PrefixAnalyzer extends Analyzer {
+		private final boolean edgeNGrams;
+
+		PrefixAnalyzer(boolean edgeNGrams) {
+			this.edgeNGrams = edgeNGrams;
+		}
+
+		@Override
+		protected TokenStreamComponents createComponents(String fieldName) {
+			Tokenizer source = new StandardTokenizer();
+			TokenStream result = new LowerCaseFilter(source);
+			if (edgeNGrams) {
+				result = new EdgeNGramTokenFilter(result, 1, MAX_PREFIX_LENGTH, false);
+			}
+			return new TokenStreamComponents(source, result);
+		}
+
+		@Override
+		protected TokenStream normalize(String fieldName, TokenStream in) {
+			return new LowerCaseFilter(in);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.tivo.demo.tvsearch;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The top results of a search, together with how many of all its matching episodes have each value of each facet,
+ * such as how many are Reality shows
+ */
+public class TVShowFacetedResults {
+
+	private final List<TVShowSearchResult> results;
+	private final long totalHits;
+	private final Map<String, Map<String, Integer>> facetCounts;
+
+
+	public TVShowFacetedResults(List<TVShowSearchResult> results, long totalHits, Map<String, Map<String, Integer>> facetCounts) {
+		this.results = results;
+		this.totalHits = totalHits;
+		this.facetCounts = facetCounts;
+	}
+
+
+	public List<TVShowSearchResult> getResults() {
+		return results;
+	}
+
+	/**
+	 * @return The number of matching episodes, which the facet counts are taken over
+	 */
+	public long getTotalHits() {
+		return totalHits;
+	}
+
+	/**
+	 * @return For each facet dimension, the counts of its values, most common first
+	 */
+	public Map<String, Map<String, Integer>> getFacetCounts() {
+		return facetCounts;
+	}
+
+	/**
+	 * @param dim One of the facet dimensions, such as {@link TVShowSearcher#typeFacetName}
+	 * @return The counts of the dimension's values, most common first, or none if no matching episode has the dimension
+	 */
+	public Map<String, Integer> getFacetCounts(String dim) {
+		Map<String, Integer> counts = facetCounts.get(dim);
+		return counts == null ? Map.of() : counts;
+	}
+
+
+	@Override
+	public String toString() {
+		return totalHits + " hits, facets: " + facetCounts;
+	}
+}
@@ -0,0 +1,174 @@
+package com.tivo.demo.tvsearch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexOrDocValuesQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Restricts a search to the episodes airing in a time window, on a date, on some networks, or with a runtime.
+ *
+ * Each restriction is added to the query as a non-scoring FILTER clause, so it never changes the order of the results,
+ * and Lucene's query cache can reuse its matching documents across searches, such as every search of the same time slot.
+ * Ranges use the points index when they select few episodes, and the doc values when the rest of the query does.
+ * Immutable, so that it can be part of the result cache key.
+ */
+public final class TVShowFilter {
+
+	private final Long airingFrom, airingUntil;
+	private final String airdate;
+	private final Set<String> networks;
+	private final Integer minRuntime, maxRuntime;
+
+
+	private TVShowFilter(Builder builder) {
+		airingFrom = builder.airingFrom;
+		airingUntil = builder.airingUntil;
+		airdate = builder.airdate;
+		networks = builder.networks.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(new TreeSet<>(builder.networks));
+		minRuntime = builder.minRuntime;
+		maxRuntime = builder.maxRuntime;
+	}
+
+
+	/**
+	 * @param query
+	 * @return The query, restricted by the filter's FILTER clauses
+	 */
+	Query apply(Query query) {
+		List<Query> filters = new ArrayList<>();
+
+		if (airingFrom != null || airingUntil != null) {
+			//The window's end is exclusive, so that back-to-back time slots never share an episode
+			long from = airingFrom == null ? Long.MIN_VALUE : airingFrom;
+			long to = airingUntil == null ? Long.MAX_VALUE : airingUntil - 1;
+			filters.add(new IndexOrDocValuesQuery(
+					LongPoint.newRangeQuery(TVShowSearcher.airtimeFieldName, from, to),
+					NumericDocValuesField.newSlowRangeQuery(TVShowSearcher.airtimeFieldName, from, to)));
+		}
+		if (airdate != null) {
+			filters.add(new TermQuery(new Term(TVShowSearcher.airdateFieldName, airdate)));
+		}
+		if (!networks.isEmpty()) {
+			List<BytesRef> terms = new ArrayList<>(networks.size());
+			for (String network : networks) {
+				terms.add(new BytesRef(network));
+			}
+			filters.add(new TermInSetQuery(TVShowSearcher.networkFieldName, terms));
+		}
+		if (minRuntime != null || maxRuntime != null) {
+			int min = minRuntime == null ? Integer.MIN_VALUE : minRuntime;
+			int max = maxRuntime == null ? Integer.MAX_VALUE : maxRuntime;
+			filters.add(new IndexOrDocValuesQuery(
+					IntPoint.newRangeQuery(TVShowSearcher.runtimeFieldName, min, max),
+					NumericDocValuesField.newSlowRangeQuery(TVShowSearcher.runtimeFieldName, min, max)));
+		}
+
+		if (filters.isEmpty()) {
+			return query;
+		}
+		BooleanQuery.Builder filtered = new BooleanQuery.Builder().add(query, BooleanClause.Occur.MUST);
+		for (Query filter : filters) {
+			filtered.add(filter, BooleanClause.Occur.FILTER);
+		}
+		return filtered.build();
+	}
+
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof TVShowFilter)) {
+			return false;
+		}
+		TVShowFilter other = (TVShowFilter) o;
+		return Objects.equals(airingFrom, other.airingFrom) && Objects.equals(airingUntil, other.airingUntil)
+				&& Objects.equals(airdate, other.airdate) && networks.equals(other.networks)
+				&& Objects.equals(minRuntime, other.minRuntime) && Objects.equals(maxRuntime, other.maxRuntime);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(airingFrom, airingUntil, airdate, networks, minRuntime, maxRuntime);
+	}
+
+	@Override
+	public String toString() {
+		return "airing: [" + airingFrom + ", " + airingUntil + "), airdate: " + airdate + ", networks: " + networks
+				+ ", runtime: [" + minRuntime + ", " + maxRuntime + "]";
+	}
+
+
+	/**
+	 * Builds a filter.  Restrictions which are never set don't filter anything.
+	 */
+	public static final class Builder {
+		private Long airingFrom, airingUntil;
+		private String airdate;
+		private final Set<String> networks = new TreeSet<>();
+		private Integer minRuntime, maxRuntime;
+
+		/**
+		 * Only episodes starting in the time window
+		 * @param from Epoch milliseconds, inclusive
+		 * @param until Epoch milliseconds, exclusive
+		 */
+		public Builder airingBetween(long from, long until) {
+			airingFrom = from;
+			airingUntil = until;
+			return this;
+		}
+
+		/**
+		 * Only episodes starting from a time onwards, such as now, for the episodes still to air
+		 * @param from Epoch milliseconds, inclusive
+		 */
+		public Builder airingAfter(long from) {
+			airingFrom = from;
+			airingUntil = null;
+			return this;
+		}
+
+		/**
+		 * Only episodes airing on the date, in the TVMaze airdate format, such as 2019-06-10
+		 */
+		public Builder airingOn(String airdate) {
+			this.airdate = airdate;
+			return this;
+		}
+
+		/**
+		 * Only episodes airing on the network, or on any of the networks if this is called more than once
+		 */
+		public Builder onNetwork(String network) {
+			networks.add(network);
+			return this;
+		}
+
+		/**
+		 * Only episodes lasting from min to max minutes, inclusive
+		 */
+		public Builder runtimeBetween(int min, int max) {
+			minRuntime = min;
+			maxRuntime = max;
+			return this;
+		}
+
+		public TVShowFilter build() {
+			return new TVShowFilter(this);
+		}
+	}
+}
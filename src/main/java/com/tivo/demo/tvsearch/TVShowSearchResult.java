@@ -0,0 +1,96 @@
+package com.tivo.demo.tvsearch;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One TV show episode matching a search query.  Fields which weren't requested from the search are null.
+ */
+public class TVShowSearchResult {
+
+	/**
+	 * The fields which can be read from doc values, without loading any stored fields
+	 */
+	public static final Set<String> SUMMARY_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			TVShowSearcher.showNameFieldName, TVShowSearcher.showTypeFieldName, TVShowSearcher.episodeNameFieldName,
+			TVShowSearcher.episodeNumberFieldName, TVShowSearcher.imageURLFieldName, TVShowSearcher.airtimeFieldName,
+			TVShowSearcher.networkFieldName)));
+
+	/**
+	 * Every field of the result, including the episode description, which has to be loaded from the stored fields
+	 */
+	public static final Set<String> ALL_FIELDS;
+	static {
+		Set<String> all = new HashSet<>(SUMMARY_FIELDS);
+		all.add(TVShowSearcher.episodeDescriptionFieldName);
+		ALL_FIELDS = Collections.unmodifiableSet(all);
+	}
+
+	private final String showName, showType, episodeName, episodeDescription, imageURL;
+	private final Integer episodeNumber;
+	private final Long airtime;
+	private final String network;
+	private final float score;
+
+
+	public TVShowSearchResult(String showName, String showType, String episodeName, Integer episodeNumber, String episodeDescription, String imageURL,
+			Long airtime, String network, float score) {
+		this.showName = showName;
+		this.showType = showType;
+		this.episodeName = episodeName;
+		this.episodeNumber = episodeNumber;
+		this.episodeDescription = episodeDescription;
+		this.imageURL = imageURL;
+		this.airtime = airtime;
+		this.network = network;
+		this.score = score;
+	}
+
+
+	public String getShowName() {
+		return showName;
+	}
+
+	public String getShowType() {
+		return showType;
+	}
+
+	public String getEpisodeName() {
+		return episodeName;
+	}
+
+	public Integer getEpisodeNumber() {
+		return episodeNumber;
+	}
+
+	public String getEpisodeDescription() {
+		return episodeDescription;
+	}
+
+	public String getImageURL() {
+		return imageURL;
+	}
+
+	/**
+	 * @return When the episode airs, in epoch milliseconds
+	 */
+	public Long getAirtime() {
+		return airtime;
+	}
+
+	public String getNetwork() {
+		return network;
+	}
+
+	public float getScore() {
+		return score;
+	}
+
+
+	@Override
+	public String toString() {
+		return "Show Name: " + showName + ", Show Type: " + showType + ", Episode Name: " + episodeName + " (" + episodeNumber + "), Episode Description: " + episodeDescription;
+	}
+}
@@ -1,31 +1,91 @@
 package com.tivo.demo.tvsearch;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.ConcurrentSortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 
 import com.tivo.demo.tvshow.loaders.AbstractShowLoader;
 import com.tivo.demo.tvshow.loaders.TivoShowLoader;
+import com.tivo.demo.util.LruCache;
+import com.tivo.demo.util.Metrics;
+import com.tivo.demo.util.ThreadPools;
+import com.tivo.demo.util.ThrottledLogger;
 
 /**
  * TV Search application
  * 
  * It loads a Lucene search index based on a query from the listing of all upcoming TV shows from api.tvmaze.com.
- * Then it performs certain queries against that search index, using the Lucene syntax.
+ * Then it serves queries against that search index, in the Lucene syntax, over HTTP through a {@link TVSearchServer}.
+ * 
+ * The searcher is long-lived: it keeps its index reader open between queries, and reopens it in the background
+ * whenever the index changes, so queries never pay the cost of opening the index.
+ * It is safe to call {@link #search(String, int)} from many threads at once.
+ * 
+ * A sharded index is searched one shard per thread, and the top hits of the shards merged, with the same scores an
+ * unsharded index would give them.
+ * 
+ * The searcher can also be moved onto a different index altogether, such as one the loader rebuilt blue/green,
+ * without any query seeing an empty or partly built index.
  *
  */
-public class TVShowSearcher {
+public class TVShowSearcher implements Closeable {
+	
+	private static final Logger LOG = Logger.getLogger(TVShowSearcher.class.getName());
+	
+	//The refresher retries every interval, so a broken index would otherwise log the same failure several times a second
+	private static final ThrottledLogger REFRESH_LOG = new ThrottledLogger(LOG, 30, TimeUnit.SECONDS);
+	
+	//How often swapping onto a new index warns, while it waits for the queries in progress on the old one to finish
+	private static final long SWAP_DRAIN_WARNING_MILLIS = 30_000;
 	
 	//Field Names in the Lucene Search Index
 	//episode level
@@ -34,6 +94,26 @@ public class TVShowSearcher {
 	public static final String showNameFieldName = "name", showTypeFieldName = "type", showDescriptionFieldName = "summary";
 	//image level
 	public static final String imageURLFieldName = "image"; 
+	//the leading characters of each word of the names, for prefix searches, and not stored
+	public static final String showNamePrefixFieldName = "namePrefix", episodeNamePrefixFieldName = "episodeNamePrefix";
+	//identity, to update each episode in place during incremental loads
+	public static final String episodeIdFieldName = "id", contentHashFieldName = "contentHash";
+	//normalized indexes only: show Documents are marked with a doc type, and episodes refer to their show by its id
+	public static final String docTypeFieldName = "docType", showIdFieldName = "showId";
+	public static final String SHOW_DOC_TYPE = "show", SHOW_KEY_PREFIX = "show:";
+	//airing: when (in epoch milliseconds), on what date, on which network and for how many minutes each episode airs
+	public static final String airtimeFieldName = "airtime", airdateFieldName = "airdate", networkFieldName = "network", runtimeFieldName = "runtime";
+	
+	//facet dimensions, counted by searchWithFacets
+	public static final String typeFacetName = "type", networkFacetName = "network", genreFacetName = "genre";
+	
+	//Soonest airing first, with Documents which don't air, such as show Documents, last.  Also the loader's index sort, if enabled.
+	public static final Sort AIRTIME_SORT;
+	static {
+		SortField airtime = new SortField(airtimeFieldName, SortField.Type.LONG);
+		airtime.setMissingValue(Long.MAX_VALUE);
+		AIRTIME_SORT = new Sort(airtime);
+	}
 
 	
 	private final String [] QUERIES = {
@@ -45,64 +125,708 @@ public class TVShowSearcher {
 	
 	private final int hitsPerPage = 10;
 	
-	private Directory index;
-	private StandardAnalyzer analyzer;
+	private static final String[] FACET_DIMS = { typeFacetName, networkFacetName, genreFacetName };
+	
+	private Analyzer analyzer;
+	private TVShowSearcherConfig config;
+	
+	//Replaced whenever the searcher is swapped onto another index.  Swaps take their own lock, never the searcher's
+	//monitor, since they wait for queries which may need the monitor to finish.
+	private volatile ManagedIndex managedIndex;
+	private final Object swapLock = new Object();
+	private ScheduledExecutorService refresher;
+	
+	//Searches segments in parallel within a query, if enabled
+	private ExecutorService segmentExecutor;
+	//Searches every shard but one in parallel within a query, if the index is sharded
+	private ExecutorService shardExecutor;
+	//Runs batches of queries, at most queryThreads at a time
+	private ExecutorService queryExecutor;
+	private Semaphore queryPermits;
+	
+	//Popular queries are parsed, and their results found, only once per searcher generation
+	private LruCache<String, Query> queryCache;
+	private LruCache<ResultCacheKey, List<TVShowSearchResult>> resultCache;
+	
+	//The facet ordinals of the last searcher counted, which are expensive enough to only build once per searcher generation
+	private IndexReader facetStateReader;
+	private SortedSetDocValuesReaderState facetState;
+	
+	private final ReferenceManager.RefreshListener clearResultsOnRefresh = new ReferenceManager.RefreshListener() {
+		@Override
+		public void beforeRefresh() {
+		}
+		
+		@Override
+		public void afterRefresh(boolean didRefresh) {
+			//Results are keyed by reader version, so the old ones can never be hit again
+			if (didRefresh) {
+				resultCache.clear();
+			}
+		}
+	};
 
 	
 	/**
-	 * Construct the TV Show Searcher with the index and analyzer used by the TV Show Loader
+	 * Construct the TV Show Searcher with the index and query analyzer of the TV Show Loader
+	 * @throws IOException If the index cannot be opened
+	 * @see TVShowAnalyzers#newQueryAnalyzer()
+	 */
+	public TVShowSearcher(Directory index, Analyzer analyzer) throws IOException {
+		this(index, analyzer, new TVShowSearcherConfig());
+	}
+	
+	/**
+	 * Construct the TV Show Searcher with the index and query analyzer of the TV Show Loader, and the given options.
+	 * The searcher sees each new commit to the index.
+	 * @throws IOException If the index cannot be opened
+	 */
+	public TVShowSearcher(Directory index, Analyzer analyzer, TVShowSearcherConfig config) throws IOException {
+		this.analyzer = analyzer;
+		this.config = config;
+		
+		initialize(new SearcherManager(index, newSearcherFactory()));
+	}
+	
+	/**
+	 * Construct the TV Show Searcher with the open IndexWriter and query analyzer of the TV Show Loader, and the given options.
+	 * The searcher reopens near-real-time from the writer, so it sees indexed shows even before they are committed.
+	 * @throws IOException If the index cannot be opened
+	 */
+	public TVShowSearcher(IndexWriter indexWriter, Analyzer analyzer, TVShowSearcherConfig config) throws IOException {
+		this.analyzer = analyzer;
+		this.config = config;
+		
+		initialize(new SearcherManager(indexWriter, newSearcherFactory()));
+	}
+	
+	/**
+	 * Construct the TV Show Searcher with every shard of the TV Show Loader's index, its query analyzer, and the given options.
+	 * The searcher sees each new commit to any of the shards.
+	 * @throws IOException If the index cannot be opened
+	 * @see AbstractShowLoader#getShards()
+	 */
+	public TVShowSearcher(Directory[] shards, Analyzer analyzer, TVShowSearcherConfig config) throws IOException {
+		this.analyzer = analyzer;
+		this.config = config;
+		
+		initialize(newSearcherManager(shards));
+	}
+	
+	/**
+	 * Construct the TV Show Searcher with the open IndexWriter of every shard of the TV Show Loader's index, its query
+	 * analyzer, and the given options.  The searcher reopens near-real-time from the writers.
+	 * @throws IOException If the index cannot be opened
+	 * @see AbstractShowLoader#getShardWriters()
 	 */
-	public TVShowSearcher(Directory index, StandardAnalyzer analyzer) {
-		this.index = index;
+	public TVShowSearcher(IndexWriter[] shardWriters, Analyzer analyzer, TVShowSearcherConfig config) throws IOException {
 		this.analyzer = analyzer;
+		this.config = config;
+		
+		initialize(newSearcherManager(shardWriters));
+	}
+	
+	
+	/**
+	 * Set up the caches, and start serving queries from the searcher manager
+	 * @param manager
+	 */
+	private void initialize(ReferenceManager<IndexSearcher> manager) {
+		queryCache = new LruCache<>(config.getQueryCacheSize());
+		resultCache = new LruCache<>(config.getResultCacheSize());
+		
+		manager.addListener(clearResultsOnRefresh);
+		managedIndex = new ManagedIndex(manager);
+		
+		startRefresher();
+	}
+	
+	
+	private ReferenceManager<IndexSearcher> newSearcherManager(Directory[] shards) throws IOException {
+		if (shards.length == 1) {
+			return new SearcherManager(shards[0], newSearcherFactory());
+		}
+		return new ShardedSearcherManager(shards, newShardExecutor(shards.length));
+	}
+	
+	
+	private ReferenceManager<IndexSearcher> newSearcherManager(IndexWriter[] shardWriters) throws IOException {
+		if (shardWriters.length == 1) {
+			return new SearcherManager(shardWriters[0], newSearcherFactory());
+		}
+		return new ShardedSearcherManager(shardWriters, newShardExecutor(shardWriters.length));
+	}
+	
+	
+	/**
+	 * @return A factory for IndexSearchers which search segments in parallel, if the config enables it
+	 */
+	private SearcherFactory newSearcherFactory() {
+		if (config.getSegmentSearchThreads() <= 0) {
+			return new SearcherFactory();
+		}
+		
+		if (segmentExecutor == null) {
+			segmentExecutor = ThreadPools.newFixedDaemonPool("tvshow-searcher-segment", config.getSegmentSearchThreads());
+		}
+		return new SearcherFactory() {
+			@Override
+			public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+				return new IndexSearcher(reader, segmentExecutor);
+			}
+		};
+	}
+	
+	
+	/**
+	 * @return A pool to search every shard but one, since each query searches one of the shards on its own thread
+	 */
+	private ExecutorService newShardExecutor(int shardCount) {
+		if (shardExecutor == null) {
+			shardExecutor = ThreadPools.newFixedDaemonPool("tvshow-searcher-shard", shardCount - 1);
+		}
+		return shardExecutor;
+	}
+	
+	
+	/**
+	 * Move the searcher onto a different index with as many shards, such as one the loader has rebuilt.
+	 * Queries already in progress finish on the old index, and only once every searcher acquired from it has been
+	 * released is it closed and this returns, however long that takes, so the old index can be deleted straight afterwards.
+	 * @param shards
+	 * @throws IOException If the new index cannot be opened, in which case the searcher stays on the old one
+	 * @see AbstractShowLoader#addRebuildListener(AbstractShowLoader.RebuildListener)
+	 */
+	public void swapIndex(Directory[] shards) throws IOException {
+		swap(newSearcherManager(shards));
+	}
+	
+	/**
+	 * Move the searcher onto the open IndexWriters of a different index with as many shards, to reopen near-real-time from them
+	 * @param shardWriters
+	 * @throws IOException If the new index cannot be opened, in which case the searcher stays on the old one
+	 * @see #swapIndex(Directory[])
+	 */
+	public void swapIndex(IndexWriter[] shardWriters) throws IOException {
+		swap(newSearcherManager(shardWriters));
+	}
+	
+	
+	/**
+	 * Make a new searcher manager the current one, and then close the old one once every searcher acquired from it,
+	 * whichever of its readers that was, has been released
+	 * @param manager
+	 * @throws IOException
+	 */
+	private void swap(ReferenceManager<IndexSearcher> manager) throws IOException {
+		manager.addListener(clearResultsOnRefresh);
+		
+		synchronized (swapLock) {
+			ManagedIndex old = managedIndex;
+			managedIndex = new ManagedIndex(manager);
+			//Reader versions are only unique within one index, so the old index's results could pass for the new one's
+			resultCache.clear();
+			try {
+				old.retire();
+			} finally {
+				//Including any which queries in progress cached on their way out
+				resultCache.clear();
+				old.manager.close();
+			}
+		}
+		Metrics.SEARCHER_SWAPS.increment();
+	}
+	
+	
+	/**
+	 * Start the background thread which periodically reopens the searcher, if the config enables it
+	 */
+	private void startRefresher() {
+		long interval = config.getRefreshIntervalMillis();
+		if (interval <= 0) {
+			return;
+		}
+		
+		refresher = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemonThreadFactory("tvshow-searcher-refresh"));
+		refresher.scheduleWithFixedDelay(() -> {
+			try {
+				maybeRefresh();
+			} catch (IOException e) {
+				REFRESH_LOG.log(Level.WARNING, () -> "Exception caught refreshing the searcher: " + e);
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	
+	/**
+	 * Reopen the searcher if the index has changed since it was last opened.
+	 * Queries already in progress keep using the searcher they acquired.
+	 * @throws IOException
+	 */
+	public void maybeRefresh() throws IOException {
+		while (true) {
+			ManagedIndex index = managedIndex;
+			try {
+				index.manager.maybeRefresh();
+				return;
+			} catch (AlreadyClosedException e) {
+				//Swapped onto another index in the meantime, which is the one to refresh
+				if (index == managedIndex) {
+					throw e;
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Acquire the current searcher for one query.  Every call must be paired with closing the lease, which releases the
+	 * searcher to the index it was acquired from, even if the searcher has been swapped onto another index since.
+	 * @return
+	 * @throws IOException
+	 */
+	protected SearcherLease acquireSearcher() throws IOException {
+		while (true) {
+			ManagedIndex index = managedIndex;
+			//A retired index takes no more queries once its last one has finished, by when the new index is current
+			if (index.inUse.register() < 0) {
+				continue;
+			}
+			try {
+				return new SearcherLease(index, index.manager.acquire());
+			} catch (IOException | RuntimeException e) {
+				index.inUse.arriveAndDeregister();
+				throw e;
+			}
+		}
 	}
 
 	
 	/**
-	 * Perform several search queries
-	 * @throws IOException If DirectoryReader.open fails to open the Index
+	 * Search for the TV show episodes best matching a query, in the Lucene syntax
+	 * @param q The query.  Terms without a field name search the show name.
+	 * @param topN Maximum number of results
+	 * @return The results, best match first
+	 * @throws QueryNodeException If the query cannot be parsed
+	 * @throws IOException
 	 */
-	public void performQueries() throws IOException {
+	public List<TVShowSearchResult> search(String q, int topN) throws QueryNodeException, IOException {
+		return search(q, topN, TVShowSearchResult.ALL_FIELDS);
+	}
+	
+	
+	/**
+	 * Search for the TV show episodes best matching a query, reading only the given fields of each result.
+	 * Fields in {@link TVShowSearchResult#SUMMARY_FIELDS} are read from doc values; the episode description is only
+	 * loaded from the stored fields if it is asked for.
+	 * @param q The query.  Terms without a field name search the show name.
+	 * @param topN Maximum number of results
+	 * @param fields Names of the fields to fill in each result
+	 * @return The results, best match first
+	 * @throws QueryNodeException If the query cannot be parsed
+	 * @throws IOException
+	 */
+	public List<TVShowSearchResult> search(String q, int topN, Set<String> fields) throws QueryNodeException, IOException {
+		return search(q, topN, fields, null);
+	}
+	
+	
+	/**
+	 * Search for the TV show episodes best matching a query, among those passing a filter, such as a time slot on a network.
+	 * The filter only restricts which episodes match; it doesn't change their scores.
+	 * @param q The query.  Terms without a field name search the show name.  Null or blank to browse every episode passing the filter.
+	 * @param topN Maximum number of results
+	 * @param fields Names of the fields to fill in each result
+	 * @param filter Restrictions on when and where the episodes air, or null for none
+	 * @return The results, best match first
+	 * @throws QueryNodeException If the query cannot be parsed
+	 * @throws IOException
+	 */
+	public List<TVShowSearchResult> search(String q, int topN, Set<String> fields, TVShowFilter filter) throws QueryNodeException, IOException {
+		return search(q, topN, fields, filter, TVShowSortOrder.RELEVANCE);
+	}
+	
+	
+	/**
+	 * Search for the TV show episodes matching a query, among those passing a filter, in the given order.
+	 * Searching for the soonest airing episodes is fastest when the loader sorts the index by airtime too.
+	 * @param q The query.  Terms without a field name search the show name.  Null or blank to browse every episode passing the filter.
+	 * @param topN Maximum number of results
+	 * @param fields Names of the fields to fill in each result
+	 * @param filter Restrictions on when and where the episodes air, or null for none
+	 * @param order
+	 * @return The first results in the order
+	 * @throws QueryNodeException If the query cannot be parsed
+	 * @throws IOException
+	 */
+	public List<TVShowSearchResult> search(String q, int topN, Set<String> fields, TVShowFilter filter, TVShowSortOrder order) throws QueryNodeException, IOException {
+		Query query = parseQuery(q);
+		
+		long start = System.nanoTime();
+		try (SearcherLease lease = acquireSearcher()) {
+			IndexSearcher searcher = lease.getSearcher();
+			ResultCacheKey cacheKey = new ResultCacheKey(q, topN, fields, filter, order, searcher);
+			List<TVShowSearchResult> results = resultCache.get(cacheKey);
+			if (results != null) {
+				Metrics.SEARCH.recordSince(start);
+				return results;
+			}
+			
+			query = prepareQuery(query, filter, searcher);
+			
+			//Sorting the same way as the index sort lets the collector terminate each segment early
+			TopDocs docs = order.getSort() == null ? searcher.search(query, topN) : searcher.search(query, topN, order.getSort());
+			Metrics.SEARCH.recordSince(start);
+			
+			results = project(searcher, docs, fields);
+			
+			resultCache.put(cacheKey, results);
+			return results;
+		}
+	}
+	
+	
+	/**
+	 * Search for the TV show episodes matching a query, and count the values of each facet (show type, network and genre)
+	 * over every matching episode, in the same pass over the matches.
+	 * The results are not cached.
+	 * @param q The query.  Terms without a field name search the show name.  Null or blank to browse every episode passing the filter.
+	 * @param topN Maximum number of results
+	 * @param fields Names of the fields to fill in each result
+	 * @param filter Restrictions on when and where the episodes air, or null for none
+	 * @param order
+	 * @param facetTopN Maximum number of values counted per facet
+	 * @return The first results in the order, and the facet counts
+	 * @throws QueryNodeException If the query cannot be parsed
+	 * @throws IOException
+	 */
+	public TVShowFacetedResults searchWithFacets(String q, int topN, Set<String> fields, TVShowFilter filter, TVShowSortOrder order, int facetTopN)
+			throws QueryNodeException, IOException {
+		Query query = parseQuery(q);
+		
+		long start = System.nanoTime();
+		try (SearcherLease lease = acquireSearcher()) {
+			IndexSearcher searcher = lease.getSearcher();
+			query = prepareQuery(query, filter, searcher);
+			
+			FacetsCollector facetsCollector = new FacetsCollector();
+			TopDocs docs = order.getSort() == null
+					? FacetsCollector.search(searcher, query, topN, facetsCollector)
+					: FacetsCollector.search(searcher, query, topN, order.getSort(), facetsCollector);
+			
+			Map<String, Map<String, Integer>> facetCounts = new LinkedHashMap<>();
+			SortedSetDocValuesReaderState state = getFacetState(searcher.getIndexReader());
+			if (state != null) {
+				//Count the segments in parallel too, if they are searched in parallel
+				Facets facets = segmentExecutor == null
+						? new SortedSetDocValuesFacetCounts(state, facetsCollector)
+						: new ConcurrentSortedSetDocValuesFacetCounts(state, facetsCollector, segmentExecutor);
+				for (String dim : FACET_DIMS) {
+					FacetResult facet = state.getOrdRange(dim) == null ? null : facets.getTopChildren(facetTopN, dim);
+					if (facet != null) {
+						Map<String, Integer> counts = new LinkedHashMap<>();
+						for (LabelAndValue value : facet.labelValues) {
+							counts.put(value.label, value.value.intValue());
+						}
+						facetCounts.put(dim, Collections.unmodifiableMap(counts));
+					}
+				}
+			}
+			
+			Metrics.SEARCH.recordSince(start);
+			
+			List<TVShowSearchResult> results = project(searcher, docs, fields);
+			return new TVShowFacetedResults(results, docs.totalHits.value, Collections.unmodifiableMap(facetCounts));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted counting facets");
+		}
+	}
+	
+	
+	private static List<TVShowSearchResult> project(IndexSearcher searcher, TopDocs docs, Set<String> fields) throws IOException {
+		long start = System.nanoTime();
+		List<TVShowSearchResult> results = Collections.unmodifiableList(ResultProjector.project(searcher, docs.scoreDocs, fields));
+		Metrics.STORED_FIELDS.recordSince(start);
+		return results;
+	}
+	
+	
+	/**
+	 * @param reader
+	 * @return The facet ordinals of the reader, or null if it has no facets
+	 * @throws IOException
+	 */
+	private synchronized SortedSetDocValuesReaderState getFacetState(IndexReader reader) throws IOException {
+		if (facetStateReader != reader) {
+			facetState = null;
+			for (LeafReaderContext leaf : reader.leaves()) {
+				FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+				if (info != null && info.getDocValuesType() == DocValuesType.SORTED_SET) {
+					facetState = new DefaultSortedSetDocValuesReaderState(reader);
+					break;
+				}
+			}
+			facetStateReader = reader;
+		}
+		return facetState;
+	}
+	
+	
+	/**
+	 * Look up name prefixes in the prefix fields, join clauses on show fields in a normalized index, and apply the filter
+	 * @param query
+	 * @param filter
+	 * @param searcher
+	 * @return
+	 * @throws IOException
+	 */
+	private static Query prepareQuery(Query query, TVShowFilter filter, IndexSearcher searcher) throws IOException {
+		query = NamePrefixRewriter.rewrite(query, searcher.getIndexReader());
 		
-		IndexReader reader = DirectoryReader.open(index);
-		IndexSearcher searcher = new IndexSearcher(reader);
+		//In a normalized index, clauses on show fields have to be joined from the show Documents to their episodes
+		query = ShowJoinRewriter.rewrite(query, searcher);
+		if (filter != null) {
+			query = filter.apply(query);
+		}
+		return query;
+	}
+	
+	
+	/**
+	 * Parse a query in the Lucene syntax, or reuse the Query parsed the last time the same string was searched.
+	 * A null or blank query matches every Document.
+	 * @param q
+	 * @return
+	 * @throws QueryNodeException
+	 */
+	private Query parseQuery(String q) throws QueryNodeException {
+		if (q == null || q.trim().isEmpty()) {
+			return new MatchAllDocsQuery();
+		}
+		Query query = queryCache.get(q);
+		if (query == null) {
+			//The parser isn't thread-safe, so each parse gets its own
+			long start = System.nanoTime();
+			query = new StandardQueryParser(analyzer).parse(q, showNameFieldName);
+			Metrics.QUERY_PARSE.recordSince(start);
+			queryCache.put(q, query);
+		}
+		return query;
+	}
+	
+	
+	/**
+	 * @return The cache of parsed queries, with its hit and miss counts
+	 */
+	public LruCache<String, Query> getQueryCache() {
+		return queryCache;
+	}
+	
+	/**
+	 * @return The cache of search results, with its hit and miss counts
+	 */
+	public LruCache<?, List<TVShowSearchResult>> getResultCache() {
+		return resultCache;
+	}
+	
+	
+	/**
+	 * Run a batch of queries concurrently, on virtual threads if the JVM has them
+	 * @param queries
+	 * @param topN Maximum number of results per query
+	 * @return A future for each query's results, in the same order as the queries
+	 */
+	public List<CompletableFuture<List<TVShowSearchResult>>> searchAll(List<String> queries, int topN) {
+		ExecutorService executor = getQueryExecutor();
+		
+		List<CompletableFuture<List<TVShowSearchResult>>> futures = new ArrayList<>(queries.size());
+		for (String q : queries) {
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				queryPermits.acquireUninterruptibly();
+				try {
+					return search(q, topN);
+				} catch (QueryNodeException | IOException e) {
+					throw new CompletionException(e);
+				} finally {
+					queryPermits.release();
+				}
+			}, executor));
+		}
+		return futures;
+	}
+	
+	
+	private synchronized ExecutorService getQueryExecutor() {
+		if (queryExecutor == null) {
+			int queryThreads = Math.max(1, config.getQueryThreads());
+			queryPermits = new Semaphore(queryThreads);
+			queryExecutor = ThreadPools.newTaskExecutor("tvshow-searcher-query", queryThreads);
+		}
+		return queryExecutor;
+	}
+
+	
+	/**
+	 * Perform several search queries, logging their results at FINE
+	 * @throws IOException If the searcher fails to read the Index
+	 */
+	public void performQueries() throws IOException {
 		
 		for (String q : QUERIES) {
 			try {
-				performQuery(q, searcher);
+				performQuery(q);
 			} catch (QueryNodeException e) {
-				System.err.println("Exception caught performing query '" + q + "': " + e);
-				e.printStackTrace();
+				LOG.log(Level.WARNING, "Exception caught performing query '" + q + "'", e);
 			}
 		}
-		
-		reader.close();
 	}
 	
 	/**
-	 * 
+	 * Perform one search query, logging its results at FINE
 	 * @param q
-	 * @param searcher
 	 * @throws QueryNodeException
 	 * @throws IOException 
 	 */
-	private void performQuery(String q, IndexSearcher searcher) throws QueryNodeException, IOException {
-		System.out.println("Performing Lucene Query: " + q);
-        System.out.println();
-        
-        Query query = new StandardQueryParser(analyzer).parse(q, showNameFieldName);
-        
-        TopDocs docs = searcher.search(query, hitsPerPage);
-        ScoreDoc[] hits = docs.scoreDocs;
-        
-        for (ScoreDoc scoredDoc : hits) {
-        	int docId = scoredDoc.doc;
-        	Document doc = searcher.doc(docId);
-
-            System.out.println("Lucene Query Result: ");
-            System.out.println("Show Name: " + doc.get(showNameFieldName) + ", Show Type: " + doc.get(showTypeFieldName) + ", Episode Name: " + doc.get(episodeNameFieldName) + " (" + doc.get(episodeNumberFieldName) + "), Episode Description: " + doc.get(episodeDescriptionFieldName));
-            System.out.println();
-        }
+	private void performQuery(String q) throws QueryNodeException, IOException {
+		LOG.fine(() -> "Performing Lucene Query: " + q);
+		
+		List<TVShowSearchResult> results = search(q, hitsPerPage);
+		if (LOG.isLoggable(Level.FINE)) {
+			for (TVShowSearchResult result : results) {
+				LOG.fine("Lucene Query Result: " + result);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Stop refreshing, and close the searcher once any queries in progress have released it
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (refresher != null) {
+			refresher.shutdownNow();
+		}
+		synchronized (this) {
+			if (queryExecutor != null) {
+				queryExecutor.shutdown();
+			}
+		}
+		managedIndex.manager.close();
+		if (segmentExecutor != null) {
+			segmentExecutor.shutdown();
+		}
+		if (shardExecutor != null) {
+			shardExecutor.shutdown();
+		}
+	}
+	
+	
+	/**
+	 * A searcher manager, and the count of searchers acquired from it which are still in use, by any of its readers
+	 */
+	private static final class ManagedIndex {
+		private final ReferenceManager<IndexSearcher> manager;
+		//One party for each searcher in use, and one more for the index itself until it is retired
+		private final Phaser inUse = new Phaser(1);
+		
+		ManagedIndex(ReferenceManager<IndexSearcher> manager) {
+			this.manager = manager;
+		}
+		
+		/**
+		 * Stop counting the index itself as in use, and wait until every searcher acquired from it has been released
+		 * @throws IOException
+		 */
+		void retire() throws IOException {
+			int phase = inUse.arriveAndDeregister();
+			long started = System.nanoTime();
+			while (true) {
+				try {
+					inUse.awaitAdvanceInterruptibly(phase, SWAP_DRAIN_WARNING_MILLIS, TimeUnit.MILLISECONDS);
+					return;
+				} catch (TimeoutException e) {
+					LOG.warning("Queries still in progress on the previous index after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+							+ " ms.  Waiting for them to finish before closing it...");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for queries on the previous index to finish");
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * A searcher acquired for one query.  Closing the lease releases the searcher.
+	 */
+	protected static final class SearcherLease implements Closeable {
+		private final ManagedIndex index;
+		private final IndexSearcher searcher;
+		
+		private SearcherLease(ManagedIndex index, IndexSearcher searcher) {
+			this.index = index;
+			this.searcher = searcher;
+		}
+		
+		public IndexSearcher getSearcher() {
+			return searcher;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			try {
+				index.manager.release(searcher);
+			} finally {
+				index.inUse.arriveAndDeregister();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Identifies the results of one query, on one version of the index
+	 */
+	private static final class ResultCacheKey {
+		private final String query;
+		private final int topN;
+		private final Set<String> fields;
+		private final TVShowFilter filter;
+		private final TVShowSortOrder order;
+		private final long readerVersion;
+		
+		ResultCacheKey(String query, int topN, Set<String> fields, TVShowFilter filter, TVShowSortOrder order, IndexSearcher searcher) {
+			this.query = query;
+			this.topN = topN;
+			this.fields = fields;
+			this.filter = filter;
+			this.order = order;
+			//Every refresh which changes the index opens a reader with a new version
+			IndexReader reader = searcher.getIndexReader();
+			if (searcher instanceof ShardedIndexSearcher) {
+				this.readerVersion = ((ShardedIndexSearcher) searcher).getVersion();
+			}
+			else {
+				this.readerVersion = reader instanceof DirectoryReader ? ((DirectoryReader) reader).getVersion() : -1;
+			}
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ResultCacheKey)) {
+				return false;
+			}
+			ResultCacheKey other = (ResultCacheKey) o;
+			return topN == other.topN && readerVersion == other.readerVersion && Objects.equals(query, other.query) && fields.equals(other.fields)
+					&& Objects.equals(filter, other.filter) && order == other.order;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(query, topN, fields, filter, order, readerVersion);
+		}
 	}
 	
 	
@@ -115,8 +839,25 @@ public class TVShowSearcher {
         //Construct the Lucene search index, query the show listing from an API, and load shows into index
         AbstractShowLoader loader = new TivoShowLoader();
 
-        //Construct the Searcher and perform Lucene queries against the index
-        TVShowSearcher searcher = new TVShowSearcher(loader.getIndex(), loader.getAnalyzer());
-		searcher.performQueries();			
+        //Construct the Searcher over the index, or every shard of it, and serve queries against it until the JVM is stopped
+        TVShowSearcher searcher = new TVShowSearcher(loader.getShards(), loader.getAnalyzer(), new TVShowSearcherConfig());
+        loader.addRebuildListener((shards, shardWriters) -> searcher.swapIndex(shards));
+        TVSearchServerConfig serverConfig = new TVSearchServerConfig();
+        if (args.length > 0) {
+        	serverConfig.setPort(Integer.parseInt(args[0]));
+        }
+        TVSearchServer server = new TVSearchServer(searcher, loader.getSuggester(), serverConfig);
+        System.out.println("Serving searches on port " + server.getPort() + ".  Try /search?q=Jeopardy");
+        
+        //Finish the requests in progress before closing the index under them
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        	server.close();
+        	try {
+        		searcher.close();
+        		loader.close();
+        	} catch (IOException e) {
+        		LOG.log(Level.WARNING, "Exception caught closing the searcher", e);
+        	}
+        }, "tvsearch-shutdown"));
     }
 }
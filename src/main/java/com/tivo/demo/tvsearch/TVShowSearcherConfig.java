@@ -0,0 +1,90 @@
+package com.tivo.demo.tvsearch;
+
+/**
+ * Options controlling how the TV Show Searcher serves queries
+ */
+public class TVShowSearcherConfig {
+
+	private long refreshIntervalMillis = 1000;
+	
+	private int segmentSearchThreads = 0;
+	private int queryThreads = Runtime.getRuntime().availableProcessors();
+	
+	private int queryCacheSize = 1024;
+	private int resultCacheSize = 1024;
+
+	/**
+	 * @see #setRefreshIntervalMillis(long)
+	 */
+	public long getRefreshIntervalMillis() {
+		return refreshIntervalMillis;
+	}
+
+	/**
+	 * How often a background thread checks for index changes, and reopens the searcher if there are any.
+	 * 0 or less disables background refreshing, leaving it to explicit calls to {@link TVShowSearcher#maybeRefresh()}.
+	 */
+	public void setRefreshIntervalMillis(long refreshIntervalMillis) {
+		this.refreshIntervalMillis = refreshIntervalMillis;
+	}
+
+	/**
+	 * @see #setSegmentSearchThreads(int)
+	 */
+	public int getSegmentSearchThreads() {
+		return segmentSearchThreads;
+	}
+
+	/**
+	 * Number of threads searching the segments of a large index in parallel, within each query.
+	 * 0 (the default) searches every segment on the querying thread.  Not used for a sharded index, whose shards are
+	 * searched in parallel instead.
+	 */
+	public void setSegmentSearchThreads(int segmentSearchThreads) {
+		this.segmentSearchThreads = segmentSearchThreads;
+	}
+
+	/**
+	 * @see #setQueryThreads(int)
+	 */
+	public int getQueryThreads() {
+		return queryThreads;
+	}
+
+	/**
+	 * Maximum number of queries from {@link TVShowSearcher#searchAll(java.util.List, int)} running at once.
+	 * Bounding this keeps a large batch from starving other queries of CPU, which controls tail latency.
+	 */
+	public void setQueryThreads(int queryThreads) {
+		this.queryThreads = queryThreads;
+	}
+
+	/**
+	 * @see #setQueryCacheSize(int)
+	 */
+	public int getQueryCacheSize() {
+		return queryCacheSize;
+	}
+
+	/**
+	 * Number of most recently used query strings whose parsed Query is cached.  0 disables the cache.
+	 */
+	public void setQueryCacheSize(int queryCacheSize) {
+		this.queryCacheSize = queryCacheSize;
+	}
+
+	/**
+	 * @see #setResultCacheSize(int)
+	 */
+	public int getResultCacheSize() {
+		return resultCacheSize;
+	}
+
+	/**
+	 * Number of most recently used (query, topN) results cached for the current searcher.  The cache is emptied
+	 * whenever the searcher is refreshed onto a changed index.  0 disables the cache.
+	 */
+	public void setResultCacheSize(int resultCacheSize) {
+		this.resultCacheSize = resultCacheSize;
+	}
+}
@@ -0,0 +1,33 @@
+package com.tivo.demo.tvsearch;
+
+import org.apache.lucene.search.Sort;
+
+/**
+ * The order of search results
+ */
+public enum TVShowSortOrder {
+
+	/**
+	 * Best match first
+	 */
+	RELEVANCE(null),
+
+	/**
+	 * Soonest airing first, for "upcoming next" searches.  Episodes aren't scored, so their scores are NaN.
+	 * When the index is sorted the same way, each segment stops being collected once it has enough matches.
+	 */
+	AIRTIME(TVShowSearcher.AIRTIME_SORT);
+
+	private final Sort sort;
+
+	private TVShowSortOrder(Sort sort) {
+		this.sort = sort;
+	}
+
+	/**
+	 * @return The sort to search with, or null to sort by score
+	 */
+	Sort getSort() {
+		return sort;
+	}
+}
@@ -0,0 +1,255 @@
+package com.tivo.demo.tvsearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Typeahead suggestions of show and episode names, for a prefix of any of their words.
+ *
+ * Backed by an AnalyzingInfixSuggester in its own in-memory index, which is built from the search index the first time
+ * it is updated, and after that only has the names whose weight changed added, updated or deleted.
+ * Each name is weighted by how many episodes air under it, so the most aired shows are suggested first.
+ * It is safe to call {@link #suggest(String, int)} from many threads at once, including while the suggester is updated.
+ */
+public class TVShowSuggester implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(TVShowSuggester.class.getName());
+
+	private final Suggester suggester;
+
+	//The weight of each name in the suggester, or null until it is first built
+	private volatile Map<String, Long> weights;
+
+
+	/**
+	 * @param analyzer The analyzer used by the search index
+	 * @throws IOException
+	 */
+	public TVShowSuggester(Analyzer analyzer) throws IOException {
+		suggester = new Suggester(analyzer);
+	}
+
+
+	/**
+	 * Bring the suggestions up to date with a version of the search index
+	 * @param reader
+	 * @throws IOException
+	 */
+	public synchronized void update(IndexReader reader) throws IOException {
+		Map<String, Long> airings = countAirings(reader);
+
+		if (weights == null) {
+			suggester.build(new WeightIterator(airings.entrySet().iterator()));
+			LOG.info("Suggester built with " + airings.size() + " names");
+		}
+		else {
+			int updated = 0, dropped = 0;
+			for (Map.Entry<String, Long> airing : airings.entrySet()) {
+				if (!airing.getValue().equals(weights.get(airing.getKey()))) {
+					suggester.update(new BytesRef(airing.getKey()), null, airing.getValue(), null);
+					updated++;
+				}
+			}
+			for (String name : weights.keySet()) {
+				if (!airings.containsKey(name)) {
+					suggester.delete(name);
+					dropped++;
+				}
+			}
+			suggester.refresh();
+			LOG.info("Suggester updated. Names added or reweighted: " + updated + ", dropped: " + dropped);
+		}
+
+		weights = airings;
+	}
+
+
+	/**
+	 * @param prefix The start of any words of a show or episode name, the last of which may be incomplete
+	 * @param k Maximum number of suggestions
+	 * @return The matching names, most aired first, or none if the suggester has not been built yet
+	 * @throws IOException
+	 */
+	public List<String> suggest(String prefix, int k) throws IOException {
+		if (weights == null) {
+			return Collections.emptyList();
+		}
+
+		List<String> suggestions = new ArrayList<>(k);
+		for (Lookup.LookupResult result : suggester.lookup(prefix, k, true, false)) {
+			suggestions.add(result.key.toString());
+		}
+		return suggestions;
+	}
+
+
+	/**
+	 * Count the episodes airing under each show name and episode name in the search index.
+	 * In a normalized index, each show Document's name is credited with the episodes that refer to its show id.
+	 * Segments without doc values for the names are skipped.
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	static Map<String, Long> countAirings(IndexReader reader) throws IOException {
+		Map<String, Long> airings = new HashMap<>();
+		Map<String, String> showNamesById = new HashMap<>();
+		Map<String, Long> airingsByShowId = new HashMap<>();
+
+		for (LeafReaderContext leaf : reader.leaves()) {
+			LeafReader leafReader = leaf.reader();
+			Bits liveDocs = leafReader.getLiveDocs();
+			SortedDocValues showName = DocValues.getSorted(leafReader, TVShowSearcher.showNameFieldName);
+			SortedDocValues episodeName = DocValues.getSorted(leafReader, TVShowSearcher.episodeNameFieldName);
+			//Only normalized indexes have show id doc values: other episodes index their show id without them, for sharding
+			SortedDocValues showId = leafReader.getSortedDocValues(TVShowSearcher.showIdFieldName);
+			if (showId == null) {
+				showId = DocValues.emptySorted();
+			}
+
+			//Count by ordinal, so that each distinct name is only decoded once per segment
+			long[] showNameCounts = new long[showName.getValueCount()];
+			long[] episodeNameCounts = new long[episodeName.getValueCount()];
+			long[] showIdCounts = new long[showId.getValueCount()];
+
+			for (int doc = 0; doc < leafReader.maxDoc(); doc++) {
+				if (liveDocs != null && !liveDocs.get(doc)) {
+					continue;
+				}
+
+				boolean hasShowName = showName.advanceExact(doc);
+				boolean hasShowId = showId.advanceExact(doc);
+				if (hasShowName && hasShowId) {
+					//A show Document: only episodes count as airings
+					showNamesById.put(showId.binaryValue().utf8ToString(), showName.binaryValue().utf8ToString());
+					continue;
+				}
+
+				if (hasShowName) {
+					showNameCounts[showName.ordValue()]++;
+				}
+				else if (hasShowId) {
+					showIdCounts[showId.ordValue()]++;
+				}
+				if (episodeName.advanceExact(doc)) {
+					episodeNameCounts[episodeName.ordValue()]++;
+				}
+			}
+
+			addCounts(airings, showName, showNameCounts);
+			addCounts(airings, episodeName, episodeNameCounts);
+			addCounts(airingsByShowId, showId, showIdCounts);
+		}
+
+		for (Map.Entry<String, Long> showAirings : airingsByShowId.entrySet()) {
+			String name = showNamesById.get(showAirings.getKey());
+			if (name != null) {
+				airings.merge(name, showAirings.getValue(), Long::sum);
+			}
+		}
+
+		//Names missing from the listing are indexed as empty
+		airings.remove("");
+		return airings;
+	}
+
+
+	private static void addCounts(Map<String, Long> counts, SortedDocValues values, long[] ordCounts) throws IOException {
+		for (int ord = 0; ord < ordCounts.length; ord++) {
+			if (ordCounts[ord] > 0) {
+				counts.merge(values.lookupOrd(ord).utf8ToString(), ordCounts[ord], Long::sum);
+			}
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		suggester.close();
+	}
+
+
+	/**
+	 * Keeps its IndexWriter open after building, so that names can be deleted as well as added and updated
+	 */
+	private static final class Suggester extends AnalyzingInfixSuggester {
+
+		Suggester(Analyzer analyzer) throws IOException {
+			super(new ByteBuffersDirectory(), analyzer, analyzer, DEFAULT_MIN_PREFIX_CHARS, false, DEFAULT_ALL_TERMS_REQUIRED, false, false);
+		}
+
+		void delete(String name) throws IOException {
+			writer.deleteDocuments(new Term(EXACT_TEXT_FIELD_NAME, name));
+		}
+	}
+
+
+	/**
+	 * Feeds each name and its weight to the suggester's build
+	 */
+	private static final class WeightIterator implements InputIterator {
+		private final Iterator<Map.Entry<String, Long>> entries;
+		private long weight;
+
+		WeightIterator(Iterator<Map.Entry<String, Long>> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		public BytesRef next() {
+			if (!entries.hasNext()) {
+				return null;
+			}
+			Map.Entry<String, Long> entry = entries.next();
+			weight = entry.getValue();
+			return new BytesRef(entry.getKey());
+		}
+
+		@Override
+		public long weight() {
+			return weight;
+		}
+
+		@Override
+		public BytesRef payload() {
+			return null;
+		}
+
+		@Override
+		public boolean hasPayloads() {
+			return false;
+		}
+
+		@Override
+		public Set<BytesRef> contexts() {
+			return null;
+		}
+
+		@Override
+		public boolean hasContexts() {
+			return false;
+		}
+	}
+}
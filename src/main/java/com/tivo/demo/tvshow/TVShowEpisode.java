@@ -0,0 +1,171 @@
+package com.tivo.demo.tvshow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One episode of a TV show, together with its show's fields, as read from a show listing.
+ *
+ * Mutable, so that each indexing thread can refill a single instance for every episode it reads, instead of allocating
+ * a new one per episode.  Fields which the listing doesn't have are null.
+ */
+public class TVShowEpisode {
+
+	private String episodeId, episodeName, episodeDescription;
+	private int episodeNumber;
+
+	private String showId, showName, showType, showDescription, showImageURL;
+	private final List<String> showGenres = new ArrayList<>();
+
+	//When and where the episode airs.  The airtime is in epoch milliseconds, and the runtime in minutes.
+	private long airtime;
+	private String airdate, network;
+	private int runtime;
+
+
+	/**
+	 * Set every field back to null (or 0), ready to read the next episode
+	 */
+	public void clear() {
+		episodeId = null;
+		episodeName = null;
+		episodeDescription = null;
+		episodeNumber = 0;
+		showId = null;
+		showName = null;
+		showType = null;
+		showDescription = null;
+		showImageURL = null;
+		showGenres.clear();
+		airtime = 0;
+		airdate = null;
+		network = null;
+		runtime = 0;
+	}
+
+	public String getEpisodeId() {
+		return episodeId;
+	}
+
+	public void setEpisodeId(String episodeId) {
+		this.episodeId = episodeId;
+	}
+
+	public String getEpisodeName() {
+		return episodeName;
+	}
+
+	public void setEpisodeName(String episodeName) {
+		this.episodeName = episodeName;
+	}
+
+	public String getEpisodeDescription() {
+		return episodeDescription;
+	}
+
+	public void setEpisodeDescription(String episodeDescription) {
+		this.episodeDescription = episodeDescription;
+	}
+
+	public int getEpisodeNumber() {
+		return episodeNumber;
+	}
+
+	public void setEpisodeNumber(int episodeNumber) {
+		this.episodeNumber = episodeNumber;
+	}
+
+	public String getShowId() {
+		return showId;
+	}
+
+	public void setShowId(String showId) {
+		this.showId = showId;
+	}
+
+	public String getShowName() {
+		return showName;
+	}
+
+	public void setShowName(String showName) {
+		this.showName = showName;
+	}
+
+	public String getShowType() {
+		return showType;
+	}
+
+	public void setShowType(String showType) {
+		this.showType = showType;
+	}
+
+	public String getShowDescription() {
+		return showDescription;
+	}
+
+	public void setShowDescription(String showDescription) {
+		this.showDescription = showDescription;
+	}
+
+	public String getShowImageURL() {
+		return showImageURL;
+	}
+
+	public void setShowImageURL(String showImageURL) {
+		this.showImageURL = showImageURL;
+	}
+
+	/**
+	 * @return The show's genres, which {@link #clear()} empties, but never replaces
+	 */
+	public List<String> getShowGenres() {
+		return showGenres;
+	}
+
+	public void addShowGenre(String genre) {
+		showGenres.add(genre);
+	}
+
+	/**
+	 * @return When the episode airs, in epoch milliseconds, or 0 if the listing doesn't say
+	 */
+	public long getAirtime() {
+		return airtime;
+	}
+
+	public void setAirtime(long airtime) {
+		this.airtime = airtime;
+	}
+
+	public String getAirdate() {
+		return airdate;
+	}
+
+	public void setAirdate(String airdate) {
+		this.airdate = airdate;
+	}
+
+	public String getNetwork() {
+		return network;
+	}
+
+	public void setNetwork(String network) {
+		this.network = network;
+	}
+
+	/**
+	 * @return Length of the episode in minutes, or 0 if the listing doesn't say
+	 */
+	public int getRuntime() {
+		return runtime;
+	}
+
+	public void setRuntime(int runtime) {
+		this.runtime = runtime;
+	}
+
+	@Override
+	public String toString() {
+		return showName + ", episode: " + episodeName + " (" + episodeNumber + ")";
+	}
+}
@@ -1,56 +1,669 @@
 package com.tivo.demo.tvshow.loaders;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URLConnection;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.util.IOUtils;
 import org.json.JSONArray;
 
-public abstract class AbstractShowLoader {
+import com.tivo.demo.tvsearch.TVShowAnalyzers;
+import com.tivo.demo.tvsearch.TVShowSearcher;
+import com.tivo.demo.tvsearch.TVShowSuggester;
+import com.tivo.demo.tvshow.loaders.replication.IndexReplicator;
+import com.tivo.demo.tvshow.loaders.replication.ReplicationTransport;
+import com.tivo.demo.util.Metrics;
 
-	protected StandardAnalyzer analyzer;
+public abstract class AbstractShowLoader implements Closeable {
+	
+	private static final Logger LOG = Logger.getLogger(AbstractShowLoader.class.getName());
+	
+	//Segments up to this size are cached in memory by the NRTCachingDirectory, up to this total
+	private static final double NRT_CACHE_MAX_MERGE_SIZE_MB = 5.0, NRT_CACHE_MAX_CACHED_MB = 60.0;
+	
+	//Each blue/green generation of the index is in its own directory under the index path
+	private static final String GENERATION_PREFIX = "generation-";
+	
+	//Each commit records the validators of the listing it was loaded from, under this key of its user data
+	private static final String LISTING_VALIDATORS_KEY = "listingValidators";
+	
+	/**
+	 * Told when a blue/green rebuild is published, to move searchers onto the new index.  Also told when the
+	 * IndexWriters kept open by the config are reopened after a failed load, to move near-real-time searchers onto them.
+	 */
+	public interface RebuildListener {
+		/**
+		 * Called once the rebuilt index is committed.  The previous index is closed and deleted as soon as every
+		 * listener returns, so a searcher of it must have moved onto the new index, and finished its queries in
+		 * progress on the old one, by then.
+		 * If any listener throws, the rebuild is rolled back: the listeners which had already moved are called again
+		 * with the previous index, the new one is deleted, and the load fails.
+		 * After a failed load into IndexWriters kept open, it is called with the same shards, and their reopened IndexWriters.
+		 * @param shards Every shard of the new index
+		 * @param shardWriters Their IndexWriters, for near-real-time searchers, or null unless the config keeps them open
+		 * @throws IOException
+		 * @see com.tivo.demo.tvsearch.TVShowSearcher#swapIndex(Directory[])
+		 */
+		void afterRebuild(Directory[] shards, IndexWriter[] shardWriters) throws IOException;
+	}
+
+	//Documents are analyzed with the index-time expansions, and queries without them
+	protected Analyzer indexAnalyzer, queryAnalyzer;
 	protected Directory index;
+	protected ShowLoaderConfig config;
+	protected IndexWriter indexWriter;
+	
+	//Every shard's index and IndexWriter, the first of which are also the index and indexWriter above
+	protected Directory[] shards;
+	protected IndexWriter[] shardWriters;
+	
+	//The blue/green generation the shards are, and the shards of the next one, only while it is being rebuilt
+	protected int generation;
+	private Directory[] rebuildShards;
+	private final List<RebuildListener> rebuildListeners = new CopyOnWriteArrayList<>();
+	
+	//Only set while an incremental load is in progress
+	protected EpisodeDeltaTracker deltaTracker;
+	
+	//Whether the full load in progress has cleared the index yet, which streaming loads do from their fetching threads
+	private final Object clearLock = new Object();
+	private boolean cleared;
+	
+	//Null unless the config enables conditional requests
+	protected ListingResponseCache responseCache;
+	
+	//Null unless the config enables typeahead suggestions
+	protected TVShowSuggester suggester;
+	
+	//Sends each commit to the read replicas, if any have been added
+	private final IndexReplicator replicator = new IndexReplicator();
 	
 	/**
 	 * Construct the Lucene search index, query the show listing from an API, and load shows into index
 	 * @throws IOException
 	 */
 	public AbstractShowLoader() throws IOException {
+		this(new ShowLoaderConfig());
+	}
+	
+	/**
+	 * Construct the Lucene search index, query the show listing from an API, and load shows into index, using the given options
+	 * @param config
+	 * @throws IOException
+	 */
+	public AbstractShowLoader(ShowLoaderConfig config) throws IOException {
+		this(config, true);
+	}
+	
+	/**
+	 * Construct the Lucene search index, and optionally load it.
+	 * Subclasses which need their own fields initialized before loading should pass false, and call {@link #load()} themselves.
+	 * @param config
+	 * @param load Whether to query the show listing and load shows into index now
+	 * @throws IOException
+	 */
+	protected AbstractShowLoader(ShowLoaderConfig config, boolean load) throws IOException {
+		this.config = config;
 		
 		//Construct the Lucene search index
-		analyzer = new StandardAnalyzer();
-		index = new SimpleFSDirectory(Paths.get("/Users/palmerja/Lucene"));
+		indexAnalyzer = TVShowAnalyzers.newIndexAnalyzer(config.getSynonymsPath() == null ? null : TVShowAnalyzers.loadSynonyms(config.getSynonymsPath()));
+		queryAnalyzer = TVShowAnalyzers.newQueryAnalyzer();
+		generation = latestGeneration(config);
+		shards = openShards(config, indexPath(config, generation));
+		index = shards[0];
+		
+		if (config.getResponseCachePath() != null) {
+			responseCache = new ListingResponseCache(config.getResponseCachePath(), config.getResponseCacheMaxBytes());
+		}
+		
+		if (config.isTypeahead()) {
+			suggester = new TVShowSuggester(queryAnalyzer);
+		}
+		
+		if (load) {
+			try {
+				load();
+			} catch (IOException e) {
+				LOG.log(Level.SEVERE, "Exception caught loading the show listing", e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Open the index at a path, or each shard's index in its own directory under it
+	 * @param config
+	 * @param path The index path, or a blue/green generation's directory under it
+	 * @return
+	 * @throws IOException
+	 */
+	private static Directory[] openShards(ShowLoaderConfig config, Path path) throws IOException {
+		Directory[] shards = new Directory[Math.max(1, config.getShardCount())];
+		try {
+			for (int i = 0; i < shards.length; i++) {
+				shards[i] = openDirectory(config, shardPath(config, path, i));
+			}
+		} catch (IOException | RuntimeException e) {
+			IOUtils.closeWhileHandlingException(shards);
+			throw e;
+		}
+		return shards;
+	}
+	
+	
+	private static Path shardPath(ShowLoaderConfig config, Path path, int shard) {
+		return config.getShardCount() <= 1 ? path : path.resolve("shard-" + shard);
+	}
+	
+	
+	/**
+	 * @return The directory of a blue/green generation of the index, or just the index path if the config doesn't rebuild it blue/green
+	 */
+	private static Path indexPath(ShowLoaderConfig config, int generation) {
+		return config.isBlueGreen() ? config.getIndexPath().resolve(GENERATION_PREFIX + generation) : config.getIndexPath();
+	}
+	
+	
+	/**
+	 * @param config
+	 * @return The newest blue/green generation under the index path whose every shard has been committed, or 0 if
+	 * there is none.  A rebuild which never finished has no commit, so it is passed over.
+	 * @throws IOException
+	 */
+	private static int latestGeneration(ShowLoaderConfig config) throws IOException {
+		Path root = config.getIndexPath();
+		if (!config.isBlueGreen() || config.getDirectoryType() == IndexDirectoryType.MEMORY || !Files.isDirectory(root)) {
+			return 0;
+		}
+		
+		int latest = 0;
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(root, GENERATION_PREFIX + "*")) {
+			for (Path path : paths) {
+				int generation;
+				try {
+					generation = Integer.parseInt(path.getFileName().toString().substring(GENERATION_PREFIX.length()));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				if (generation > latest && isCommitted(config, path)) {
+					latest = generation;
+				}
+			}
+		}
+		return latest;
+	}
+	
+	
+	private static boolean isCommitted(ShowLoaderConfig config, Path path) throws IOException {
+		for (int i = 0; i < Math.max(1, config.getShardCount()); i++) {
+			Path shard = shardPath(config, path, i);
+			if (!Files.isDirectory(shard)) {
+				return false;
+			}
+			try (Stream<Path> files = Files.list(shard)) {
+				if (files.noneMatch(file -> file.getFileName().toString().startsWith(IndexFileNames.SEGMENTS + "_"))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Open the kind of Directory chosen by the config, optionally wrapped to cache small new segments in memory
+	 * @param config
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	private static Directory openDirectory(ShowLoaderConfig config, Path path) throws IOException {
+		Directory directory = config.getDirectoryType().open(path);
+		
+		if (config.isNrtCaching() && config.getDirectoryType() != IndexDirectoryType.MEMORY) {
+			directory = new NRTCachingDirectory(directory, NRT_CACHE_MAX_MERGE_SIZE_MB, NRT_CACHE_MAX_CACHED_MB);
+		}
+		return directory;
+	}
+	
+	
+	/**
+	 * Query the show listing from an API, load the shows into the index, and commit.
+	 * Unless the config keeps the IndexWriter open, it is closed again once the load is done.
+	 * If the show listing has not been modified since the index was last loaded from it, the index is left untouched.
+	 * @throws IOException
+	 */
+	public synchronized void load() throws IOException {
 		
-		//Construct the IndexWriter
-		IndexWriterConfig config = new IndexWriterConfig(analyzer);
-		IndexWriter indexWriter = new IndexWriter(index, config);
+		//Skip parsing and indexing entirely if nothing has changed, as long as the index was built from this very listing:
+		//the listing may have been cached by a load which failed, or by another loader
+		boolean modified = isListingModified();
+		String validators = getListingValidators();
+		if (!modified) {
+			if (isLoadedFrom(validators)) {
+				LOG.info("Show listing not modified since the last load.  Skipping load...");
+				return;
+			}
+			LOG.info("Show listing not modified, but the index wasn't loaded from it.  Loading...");
+		}
+		
+		//A blue/green rebuild writes a whole new generation, leaving the current one to the searchers until it is complete
+		boolean rebuild = config.isBlueGreen() && !config.isIncremental();
+		IndexWriter[] previousWriters = shardWriters;
+		if (rebuild) {
+			Directory[] next = openShards(config, indexPath(config, generation + 1));
+			try {
+				shardWriters = openIndexWriters(next, true);
+			} catch (IOException | RuntimeException e) {
+				IOUtils.closeWhileHandlingException(next);
+				throw e;
+			}
+			indexWriter = shardWriters[0];
+			rebuildShards = next;
+		}
+		//Otherwise construct the IndexWriters, or reuse the ones left open by the last load
+		else if (indexWriter == null || !indexWriter.isOpen()) {
+			shardWriters = openIndexWriters(shards, false);
+			indexWriter = shardWriters[0];
+		}
+		
+		synchronized (clearLock) {
+			cleared = false;
+		}
 		
 		//Query the show listing from an API, using the methods that any subclass will override
 		JSONArray shows;
+		boolean committed = false;
 		try {
-			shows = getShowListing();
+			if (config.isIncremental()) {
+				//Keep the existing index, so that only the episodes which changed since the last load need to be touched
+				deltaTracker = EpisodeDeltaTracker.open(shardWriters);
+			}
 			
-			indexWriter.deleteAll();
-			indexWriter.commit();
+			if (config.isStreaming()) {
+				//Parse the show listing while it downloads, indexing each show as soon as it is read.  The index is
+				//only cleared once the response is open, so a failed request leaves it as it was.
+				streamShowsIntoIndex(indexWriter);
+			}
+			else {
+				shows = getShowListing();
+				
+				clearIndexForFullLoad();
+				
+				//Load the list of shows into a Lucene search index
+				loadShowsIntoIndex(shows, indexWriter);
+			}
+			
+			if (deltaTracker != null) {
+				deltaTracker.deleteDropped(shardWriters);
+				LOG.info("Incremental load complete. Episodes " + deltaTracker);
+			}
+			
+			if (rebuild) {
+				//Merge each rebuilt shard down to a few segments before anything searches it
+				long start = System.nanoTime();
+				for (IndexWriter shardWriter : shardWriters) {
+					shardWriter.forceMerge(config.getRebuildMaxSegments());
+				}
+				Metrics.FORCE_MERGE.recordSince(start);
+			}
 			
-			//Load the list of shows into a Lucene search index
-			loadShowsIntoIndex(shows, indexWriter);
+			//Record which listing the index was loaded from, so an unmodified listing only skips a load into this index
+			Map<String, String> commitData = validators == null ? Collections.emptyMap() : Collections.singletonMap(LISTING_VALIDATORS_KEY, validators);
+			long start = System.nanoTime();
+			for (IndexWriter shardWriter : shardWriters) {
+				shardWriter.setLiveCommitData(commitData.entrySet());
+				shardWriter.commit();
+			}
+			committed = true;
+			Metrics.COMMIT.recordSince(start);
+			
+			if (rebuild) {
+				publishRebuild(previousWriters);
+			}
+			
+			//Only the names whose airing counts changed are touched in the suggester
+			if (suggester != null) {
+				try (IndexReader reader = openReader()) {
+					suggester.update(reader);
+				}
+			}
+			
+			//A replica which fails catches up with the next load, so it doesn't fail this one
+			try {
+				replicate();
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Exception caught replicating the index", e);
+			}
 
+		} finally {
+			deltaTracker = null;
+			
+			//Still set if the rebuild failed before it was published
+			if (rebuildShards != null) {
+				discardRebuild(previousWriters);
+			}
+			//Otherwise its deletes and partial adds are still pending in any IndexWriters kept open, to be seen by
+			//near-real-time searchers, and committed by the next load
+			else if (!committed && config.isKeepWriterOpen()) {
+				rollBackWriters();
+			}
+			
+			//Nothing is committed on close, so after a failure this drops whatever the load had indexed
+			if (!config.isKeepWriterOpen()) {
+				IOUtils.close(shardWriters);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Make the committed rebuild the current generation, move the listeners' searchers onto it, and then close and
+	 * delete the previous generation.  If any listener fails, the searchers are all moved back onto the previous
+	 * generation, so that only one generation is ever kept, and the rebuild is left to be discarded.
+	 * @param previousWriters The previous generation's IndexWriters, if they were kept open
+	 * @throws IOException If any listener failed
+	 */
+	private void publishRebuild(IndexWriter[] previousWriters) throws IOException {
+		Directory[] retired = shards;
+		shards = rebuildShards;
+		index = shards[0];
+		rebuildShards = null;
+		generation++;
+		
+		//Any later changes through these IndexWriters are small, near-real-time ones
+		for (IndexWriter shardWriter : shardWriters) {
+			shardWriter.getConfig().setRAMBufferSizeMB(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+		}
+		
+		List<RebuildListener> moved = new ArrayList<>(rebuildListeners.size());
+		for (RebuildListener listener : rebuildListeners) {
+			try {
+				listener.afterRebuild(getShards(), config.isKeepWriterOpen() ? getShardWriters() : null);
+				moved.add(listener);
+			} catch (IOException | RuntimeException e) {
+				LOG.log(Level.SEVERE, "Exception caught moving a searcher onto index generation " + generation + ".  Rolling back to the previous generation.", e);
+				rollBackRebuild(retired, previousWriters, moved, e);
+				throw e;
+			}
+		}
+		LOG.info("Published index generation " + generation);
+		
+		if (previousWriters != null) {
+			IOUtils.close(previousWriters);
+		}
+		IOUtils.close(retired);
+		deleteGeneration(generation - 1);
+	}
+	
+	
+	/**
+	 * Go back to the previous generation after a listener failed to move onto the rebuild, and move the listeners which
+	 * had already moved back onto it too, leaving the rebuild to be discarded once the load fails
+	 * @param retired The previous generation's shards
+	 * @param previousWriters The previous generation's IndexWriters, if they were kept open
+	 * @param moved The listeners which had moved onto the rebuild
+	 * @param failure The listener's exception, to which any failures moving back are added
+	 */
+	private void rollBackRebuild(Directory[] retired, IndexWriter[] previousWriters, List<RebuildListener> moved, Exception failure) {
+		rebuildShards = shards;
+		shards = retired;
+		index = shards[0];
+		generation--;
+		
+		IndexWriter[] writers = config.isKeepWriterOpen() ? previousWriters : null;
+		for (RebuildListener listener : moved) {
+			try {
+				listener.afterRebuild(retired, writers);
+			} catch (IOException | RuntimeException e) {
+				failure.addSuppressed(e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Drop everything a failed load left pending in the IndexWriters kept open, by rolling them back to the last commit,
+	 * and reopen them.  The rebuild listeners are told, so that near-real-time searchers move onto the reopened
+	 * IndexWriters.  Failures are only logged, so that the load's own failure is the one thrown.
+	 */
+	private void rollBackWriters() {
+		try {
+			for (IndexWriter shardWriter : shardWriters) {
+				//Closes the IndexWriter too
+				shardWriter.rollback();
+			}
+			shardWriters = openIndexWriters(shards, false);
+			indexWriter = shardWriters[0];
+		} catch (IOException | RuntimeException e) {
+			//The next load opens new IndexWriters, since these are closed
+			LOG.log(Level.SEVERE, "Exception caught rolling back the IndexWriters after a failed load", e);
+			return;
+		}
+		
+		for (RebuildListener listener : rebuildListeners) {
+			try {
+				listener.afterRebuild(getShards(), getShardWriters());
+			} catch (IOException | RuntimeException e) {
+				LOG.log(Level.SEVERE, "Exception caught moving a searcher onto the reopened IndexWriters", e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Throw away a rebuild which failed, and go back to the current generation's IndexWriters, if they were kept open
+	 * @param previousWriters
+	 */
+	private void discardRebuild(IndexWriter[] previousWriters) {
+		//The rebuild's IndexWriters never commit on close, so closing them drops everything they indexed
+		IOUtils.closeWhileHandlingException(shardWriters);
+		IOUtils.closeWhileHandlingException(rebuildShards);
+		deleteGeneration(generation + 1);
+		
+		rebuildShards = null;
+		shardWriters = previousWriters;
+		indexWriter = previousWriters == null ? null : previousWriters[0];
+	}
+	
+	
+	/**
+	 * Delete the directory of a blue/green generation which is no longer searched, or being rebuilt
+	 * @param generation
+	 */
+	private void deleteGeneration(int generation) {
+		if (config.getDirectoryType() == IndexDirectoryType.MEMORY) {
+			return;
+		}
+		try {
+			IOUtils.rm(indexPath(config, generation));
 		} catch (IOException e) {
-			e.printStackTrace();
+			LOG.log(Level.WARNING, "Exception caught deleting index generation " + generation, e);
+		}
+	}
+	
+	
+	/**
+	 * Send the latest commit of every shard to every read replica, and publish it there.
+	 * Called at the end of each load, and may be called to bring a newly added replica up to date straight away.
+	 * @throws IOException If any replica could not be sent the commits
+	 * @see #addReplica(ReplicationTransport)
+	 */
+	public synchronized void replicate() throws IOException {
+		if (!replicator.hasReplicas()) {
+			return;
+		}
+		
+		IndexCommit[] commits = new IndexCommit[shards.length];
+		boolean writersOpen = indexWriter != null && indexWriter.isOpen();
+		try {
+			for (int i = 0; i < shards.length; i++) {
+				if (writersOpen) {
+					//Keep the commit's files from being deleted by another commit while they are sent
+					commits[i] = snapshotPolicy(shardWriters[i]).snapshot();
+				}
+				else {
+					//Without an IndexWriter, nothing deletes the files of the last commit
+					List<IndexCommit> shardCommits = DirectoryReader.listCommits(shards[i]);
+					commits[i] = shardCommits.get(shardCommits.size() - 1);
+				}
+			}
+			
+			replicator.replicate(commits);
+			
 		} finally {
-			indexWriter.close();
+			if (writersOpen) {
+				for (int i = 0; i < shards.length && commits[i] != null; i++) {
+					snapshotPolicy(shardWriters[i]).release(commits[i]);
+					shardWriters[i].deleteUnusedFiles();
+				}
+			}
+		}
+	}
+	
+	
+	private static SnapshotDeletionPolicy snapshotPolicy(IndexWriter writer) {
+		return (SnapshotDeletionPolicy) writer.getConfig().getIndexDeletionPolicy();
+	}
+	
+	
+	/**
+	 * Open an IndexWriter on each shard
+	 * @param shards
+	 * @param bulk Whether the shards are being rebuilt from empty
+	 * @return
+	 * @throws IOException
+	 */
+	private IndexWriter[] openIndexWriters(Directory[] shards, boolean bulk) throws IOException {
+		IndexWriter[] writers = new IndexWriter[shards.length];
+		try {
+			for (int i = 0; i < shards.length; i++) {
+				writers[i] = bulk ? openBulkIndexWriter(shards[i]) : openIndexWriter(shards[i]);
+			}
+		} catch (IOException | RuntimeException e) {
+			IOUtils.closeWhileHandlingException(writers);
+			throw e;
+		}
+		return writers;
+	}
+	
+	
+	/**
+	 * Open a near-real-time reader of every shard, as one index
+	 * @return
+	 * @throws IOException
+	 */
+	private IndexReader openReader() throws IOException {
+		if (shardWriters.length == 1) {
+			return DirectoryReader.open(indexWriter);
+		}
+		
+		IndexReader[] readers = new IndexReader[shardWriters.length];
+		try {
+			for (int i = 0; i < shardWriters.length; i++) {
+				readers[i] = DirectoryReader.open(shardWriters[i]);
+			}
+			return new MultiReader(readers, true);
+		} catch (IOException | RuntimeException e) {
+			IOUtils.closeWhileHandlingException(readers);
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Open an IndexWriter on an index, which keeps each segment sorted by airtime if the config enables it.
+	 * An existing index written without that sort can't be sorted in place, so it is recreated instead, and the load
+	 * which follows indexes every episode again.
+	 * @return
+	 * @throws IOException
+	 */
+	private IndexWriter openIndexWriter(Directory index) throws IOException {
+		try {
+			return new IndexWriter(index, newIndexWriterConfig());
+		} catch (IllegalArgumentException e) {
+			if (!config.isSortedByAirtime()) {
+				throw e;
+			}
+			LOG.warning("The existing index is not sorted by airtime.  Recreating it...");
+			return new IndexWriter(index, newIndexWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.CREATE));
 		}
 	}
 	
 	
+	/**
+	 * Open an IndexWriter which rebuilds an index from empty, with bulk loading settings: a large RAM buffer, so that
+	 * few segments are flushed, and no commit until the whole rebuild is done
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	private IndexWriter openBulkIndexWriter(Directory index) throws IOException {
+		return new IndexWriter(index, newIndexWriterConfig()
+				.setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+				.setRAMBufferSizeMB(config.getRebuildRamBufferMB()));
+	}
+	
+	
+	/**
+	 * @return The config of every IndexWriter, which never commits on close: each load commits once it has succeeded,
+	 * so closing the IndexWriters after a failed load drops what it had indexed, rather than committing half a listing
+	 */
+	private IndexWriterConfig newIndexWriterConfig() {
+		IndexWriterConfig writerConfig = new IndexWriterConfig(indexAnalyzer);
+		writerConfig.setCommitOnClose(false);
+		writerConfig.setIndexDeletionPolicy(new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy()));
+		if (config.isSortedByAirtime()) {
+			writerConfig.setIndexSort(TVShowSearcher.AIRTIME_SORT);
+		}
+		return writerConfig;
+	}
+	
+	
+	/**
+	 * Close the IndexWriters, if the config kept them open, the suggester, and the replicas' transports.  The index itself is left open for any searchers using it.
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (shardWriters != null) {
+			IOUtils.close(shardWriters);
+		}
+		if (suggester != null) {
+			suggester.close();
+		}
+		replicator.close();
+	}
+	
+	
 	/**
 	 * Subclasses must implement to query the target TV Show API
 	 * @param url
@@ -69,14 +682,216 @@ public abstract class AbstractShowLoader {
 	public abstract void loadShowsIntoIndex(JSONArray allShowsJson, IndexWriter indexWriter) throws IOException;
 	
 	
-	public StandardAnalyzer getAnalyzer() {
-		return analyzer;
+	/**
+	 * Subclasses may override to parse the show listing incrementally from the API response, adding each TV Show into
+	 * the Lucene Index as soon as it is read, so that the whole listing never has to be held in memory.
+	 * Overrides must call {@link #clearIndexForFullLoad()} once the response is open and OK, before indexing anything.
+	 * The default implementation falls back to fetching the whole listing and then loading it.
+	 * @param indexWriter
+	 * @throws IOException
+	 */
+	public void streamShowsIntoIndex(IndexWriter indexWriter) throws IOException {
+		JSONArray shows = getShowListing();
+		clearIndexForFullLoad();
+		loadShowsIntoIndex(shows, indexWriter);
+	}
+	
+	
+	/**
+	 * Subclasses may override to check, before the index is touched, whether the show listing has changed since the last
+	 * load, typically by making a conditional request through the {@link #responseCache}.
+	 * The default implementation always assumes it has.
+	 * @return False to skip the load
+	 * @throws IOException
+	 */
+	protected boolean isListingModified() throws IOException {
+		return true;
+	}
+	
+	
+	/**
+	 * Subclasses which check {@link #isListingModified()} must override to identify the listing they load, typically by
+	 * the validators of its cached response.  Every commit records them, so that a load is only skipped if the index
+	 * was committed from the same listing.
+	 * The default implementation returns null, so that no load is ever skipped.
+	 * @return The validators of the listing, or null if there are none
+	 * @throws IOException
+	 */
+	protected String getListingValidators() throws IOException {
+		return null;
+	}
+	
+	
+	/**
+	 * @param validators
+	 * @return True if the latest commit of every shard was loaded from the listing with these validators
+	 * @throws IOException
+	 */
+	private boolean isLoadedFrom(String validators) throws IOException {
+		if (validators == null) {
+			return false;
+		}
+		for (Directory shard : shards) {
+			List<IndexCommit> commits;
+			try {
+				commits = DirectoryReader.listCommits(shard);
+			} catch (IndexNotFoundException e) {
+				return false;
+			}
+			if (!validators.equals(commits.get(commits.size() - 1).getUserData().get(LISTING_VALIDATORS_KEY))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Delete every Document from every shard, unless this is an incremental load, or a rebuild, which starts out empty.
+	 * The deletes are only committed along with the new listing, so a load which fails leaves the index as it was.
+	 * Only the first call of each load clears the index, so a load which streams several responses on several threads
+	 * can call this as each one opens, before indexing any of it.
+	 * @throws IOException
+	 */
+	protected void clearIndexForFullLoad() throws IOException {
+		synchronized (clearLock) {
+			if (!cleared && deltaTracker == null && rebuildShards == null) {
+				for (IndexWriter shardWriter : shardWriters) {
+					shardWriter.deleteAll();
+				}
+			}
+			cleared = true;
+		}
+	}
+	
+	
+	/**
+	 * Open a pipeline which builds and indexes Documents using the number of threads, batch size and queue capacity in the config.
+	 * During an incremental load, each Document replaces the existing Document for the same episode.
+	 * In a sharded index, each Document is added to the shard of its show, whichever IndexWriter is given.
+	 * The caller must close the pipeline to wait for every Document to be added.
+	 * @param indexWriter
+	 * @param builder
+	 * @return
+	 */
+	protected <T> IndexingPipeline<T> openIndexingPipeline(IndexWriter indexWriter, IndexingPipeline.DocumentBuilder<T> builder) {
+		String updateKeyField = deltaTracker == null ? null : TVShowSearcher.episodeIdFieldName;
+		if (shardWriters.length > 1) {
+			return new IndexingPipeline<>(shardWriters, this::shardOf, builder, updateKeyField,
+					config.getIndexingThreads(), config.getIndexingBatchSize(), config.getIndexingQueueCapacity());
+		}
+		return new IndexingPipeline<>(indexWriter, builder, updateKeyField, config.getIndexingThreads(), config.getIndexingBatchSize(), config.getIndexingQueueCapacity());
+	}
+	
+	
+	/**
+	 * Route a Document to the shard of its show, so that a show's Document and all of its episodes are in the same
+	 * shard.  Documents without a show id are routed by their own key.
+	 * @param doc
+	 * @return The index of the shard
+	 */
+	private int shardOf(Document doc) {
+		String key = doc.get(TVShowSearcher.showIdFieldName);
+		if (key == null) {
+			key = doc.get(TVShowSearcher.episodeIdFieldName);
+		}
+		return shardOf(key, shardWriters.length);
+	}
+	
+	
+	/**
+	 * @param key A show id, or the key of a Document without one
+	 * @param shardCount
+	 * @return The index of the shard the key's Documents are in
+	 */
+	public static int shardOf(String key, int shardCount) {
+		if (key == null) {
+			return 0;
+		}
+		//Spread the high bits of the hash into the low ones, as HashMap does, since ids often differ only in their last digits
+		int hash = key.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+	}
+	
+	
+	/**
+	 * @return The analyzer searchers of the index must parse queries with
+	 */
+	public Analyzer getAnalyzer() {
+		return queryAnalyzer;
+	}
+	
+	/**
+	 * @return The analyzer the index is written with
+	 */
+	public Analyzer getIndexAnalyzer() {
+		return indexAnalyzer;
 	}
 
+	/**
+	 * @return The index, or the first shard's index if the config shards it
+	 */
 	public Directory getIndex() {
 		return index;
 	}
 	
+	/**
+	 * @return Every shard's index, in shard order, or just the index if the config doesn't shard it
+	 * @see ShowLoaderConfig#setShardCount(int)
+	 */
+	public Directory[] getShards() {
+		return shards.clone();
+	}
+	
+	/**
+	 * @return The IndexWriter, which stays open between loads if the config keeps it open, for near-real-time searchers.
+	 * The first shard's IndexWriter if the config shards the index.
+	 */
+	public IndexWriter getIndexWriter() {
+		return indexWriter;
+	}
+	
+	/**
+	 * @return Every shard's IndexWriter, in shard order, or null before the first load
+	 */
+	public IndexWriter[] getShardWriters() {
+		return shardWriters == null ? null : shardWriters.clone();
+	}
+	
+	/**
+	 * Send every commit from now on to a read replica, which must have as many shards as the index.
+	 * The loader closes the transport when it is closed.
+	 * @param transport
+	 * @see #replicate()
+	 */
+	public void addReplica(ReplicationTransport transport) {
+		replicator.addReplica(transport);
+	}
+	
+	/**
+	 * Move a searcher onto the new index whenever a blue/green rebuild is published, or onto the new IndexWriters
+	 * whenever they are reopened after a failed load
+	 * @param listener
+	 * @see ShowLoaderConfig#setBlueGreen(boolean)
+	 */
+	public void addRebuildListener(RebuildListener listener) {
+		rebuildListeners.add(listener);
+	}
+	
+	/**
+	 * @param listener
+	 */
+	public void removeRebuildListener(RebuildListener listener) {
+		rebuildListeners.remove(listener);
+	}
+	
+	/**
+	 * @return The typeahead suggester, brought up to date after each load, or null unless the config enables it
+	 */
+	public TVShowSuggester getSuggester() {
+		return suggester;
+	}
+	
 	
 	/**
 	 * Helper Method to extract the body of the response
@@ -100,4 +915,16 @@ public abstract class AbstractShowLoader {
 		return response.toString();
 	}
 	
+	
+	/**
+	 * Helper Method to iterate over the JSON objects of the response body as they arrive, without buffering the whole body
+	 * 
+	 * @param conn
+	 * @return A stream of the objects in the JSON array of the response, which the caller must close
+	 * @throws IOException
+	 */
+	protected JSONObjectStream streamResponse(URLConnection conn) throws IOException {
+		return new JSONObjectStream(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8));
+	}
+	
 }
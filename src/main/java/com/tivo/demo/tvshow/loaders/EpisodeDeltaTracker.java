@@ -0,0 +1,300 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.Bits;
+
+import com.tivo.demo.tvsearch.TVShowSearcher;
+import com.tivo.demo.tvshow.TVShowEpisode;
+
+/**
+ * Tracks which episodes were added, changed or dropped since the last load, so that an incremental load only has to
+ * update the Documents of episodes which actually changed.
+ *
+ * Every episode Document carries its unique key and a hash of its content as doc values.  The tracker reads them all
+ * once when the load begins, then compares each episode of the new listing against them.  Thread-safe, so that it can
+ * be consulted by the indexing pipeline's worker threads.
+ */
+public class EpisodeDeltaTracker {
+
+	private static final Logger LOG = Logger.getLogger(EpisodeDeltaTracker.class.getName());
+
+	//Delete dropped episodes in chunks, rather than building one huge array of Terms
+	private static final int DELETE_BATCH_SIZE = 1024;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L, FNV_PRIME = 0x100000001b3L;
+
+	//Derived keys can't be mistaken for the ids of the API
+	private static final String DERIVED_KEY_PREFIX = "derived:";
+
+	private final Map<String, Long> previousHashes;
+	private final Set<String> seenKeys = ConcurrentHashMap.newKeySet();
+
+	private final AtomicInteger added = new AtomicInteger(), changed = new AtomicInteger(), unchanged = new AtomicInteger();
+	private int dropped = 0;
+
+
+	private EpisodeDeltaTracker(Map<String, Long> previousHashes) {
+		this.previousHashes = previousHashes;
+	}
+
+
+	/**
+	 * Read the key and content hash of every episode currently in the index, or in every shard of it
+	 * @param indexWriters The IndexWriter of each shard
+	 * @return
+	 * @throws IOException
+	 */
+	public static EpisodeDeltaTracker open(IndexWriter... indexWriters) throws IOException {
+		Map<String, Long> previousHashes = new HashMap<>();
+
+		for (IndexWriter indexWriter : indexWriters) {
+			readHashes(indexWriter, previousHashes);
+		}
+
+		LOG.info("Episodes already in the index: " + previousHashes.size());
+		return new EpisodeDeltaTracker(previousHashes);
+	}
+
+
+	private static void readHashes(IndexWriter indexWriter, Map<String, Long> previousHashes) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(indexWriter)) {
+			for (LeafReaderContext context : reader.leaves()) {
+				LeafReader leaf = context.reader();
+				SortedDocValues keys = leaf.getSortedDocValues(TVShowSearcher.episodeIdFieldName);
+				NumericDocValues hashes = leaf.getNumericDocValues(TVShowSearcher.contentHashFieldName);
+				if (keys == null || hashes == null) {
+					continue;
+				}
+
+				Bits liveDocs = leaf.getLiveDocs();
+				for (int doc = keys.nextDoc(); doc != SortedDocValues.NO_MORE_DOCS; doc = keys.nextDoc()) {
+					if ((liveDocs == null || liveDocs.get(doc)) && hashes.advanceExact(doc)) {
+						previousHashes.put(keys.binaryValue().utf8ToString(), hashes.longValue());
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Record that the episode is in the new listing, and check whether its Document needs to be (re)indexed
+	 * @param key The episode's unique key
+	 * @param contentHash Hash of the episode's content, from {@link #contentHash(String...)}
+	 * @return True if the episode is new or its content has changed since the last load
+	 */
+	public boolean isChanged(String key, long contentHash) {
+		seenKeys.add(key);
+
+		Long previousHash = previousHashes.get(key);
+		if (previousHash == null) {
+			added.incrementAndGet();
+			return true;
+		}
+		else if (previousHash != contentHash) {
+			changed.incrementAndGet();
+			return true;
+		}
+
+		unchanged.incrementAndGet();
+		return false;
+	}
+
+
+	/**
+	 * Delete the Documents of every episode which was in the index, but not in the new listing.
+	 * Does nothing if no episodes at all were seen, since that means the listing failed to load rather than every show being cancelled.
+	 * @param indexWriters The IndexWriter of each shard, which are all asked to delete every dropped episode
+	 * @return The number of episodes deleted
+	 * @throws IOException
+	 */
+	public int deleteDropped(IndexWriter... indexWriters) throws IOException {
+		if (seenKeys.isEmpty()) {
+			return 0;
+		}
+
+		List<Term> droppedTerms = new ArrayList<>(DELETE_BATCH_SIZE);
+		for (String key : previousHashes.keySet()) {
+			if (!seenKeys.contains(key)) {
+				droppedTerms.add(new Term(TVShowSearcher.episodeIdFieldName, key));
+				dropped++;
+
+				if (droppedTerms.size() == DELETE_BATCH_SIZE) {
+					deleteDocuments(indexWriters, droppedTerms);
+					droppedTerms.clear();
+				}
+			}
+		}
+
+		if (!droppedTerms.isEmpty()) {
+			deleteDocuments(indexWriters, droppedTerms);
+		}
+
+		return dropped;
+	}
+
+
+	private static void deleteDocuments(IndexWriter[] indexWriters, List<Term> terms) throws IOException {
+		Term[] termArray = terms.toArray(new Term[0]);
+		for (IndexWriter indexWriter : indexWriters) {
+			indexWriter.deleteDocuments(termArray);
+		}
+	}
+
+
+	/**
+	 * A stable key for an episode which the listing gives no id, from the fields which tell one airing from another:
+	 * its show, its network, when it airs and its name.  So the next incremental load updates its Document in place,
+	 * rather than adding another, and deletes it once it is dropped.
+	 * @param episode
+	 * @return
+	 */
+	public static String derivedKey(TVShowEpisode episode) {
+		long hash = FNV_OFFSET_BASIS;
+		hash = hash(hash, episode.getShowId() != null ? episode.getShowId() : episode.getShowName());
+		hash = hash(hash, episode.getNetwork());
+		hash = hash(hash, episode.getAirtime());
+		hash = hash(hash, episode.getEpisodeName());
+		return DERIVED_KEY_PREFIX + Long.toHexString(hash);
+	}
+
+
+	/**
+	 * 64-bit FNV-1a hash of the given values, in order.  Null values are distinguished from empty strings.
+	 * @param values
+	 * @return
+	 */
+	public static long contentHash(String... values) {
+		long hash = FNV_OFFSET_BASIS;
+		for (String value : values) {
+			hash = hash(hash, value);
+		}
+		return hash;
+	}
+
+
+	/**
+	 * Hash of an episode and its show's fields, the same as {@link #contentHash(String...)} of the fields as strings,
+	 * but without allocating
+	 * @param episode
+	 * @return
+	 */
+	public static long episodeContentHash(TVShowEpisode episode) {
+		long hash = FNV_OFFSET_BASIS;
+		hash = showFieldsHash(hash, episode);
+		hash = hash(hash, episode.getEpisodeName());
+		hash = hash(hash, episode.getEpisodeNumber());
+		hash = hash(hash, episode.getEpisodeDescription());
+		return airingHash(hash, episode);
+	}
+
+
+	/**
+	 * Hash of only an episode's own fields and its show's id, for normalized indexes
+	 * @param episode
+	 * @return
+	 */
+	public static long normalizedEpisodeContentHash(TVShowEpisode episode) {
+		long hash = FNV_OFFSET_BASIS;
+		hash = hash(hash, episode.getShowId());
+		hash = hash(hash, episode.getEpisodeName());
+		hash = hash(hash, episode.getEpisodeNumber());
+		hash = hash(hash, episode.getEpisodeDescription());
+		return airingHash(hash, episode);
+	}
+
+
+	/**
+	 * Hash of only an episode's show's fields, for the show Documents of normalized indexes
+	 * @param episode
+	 * @return
+	 */
+	public static long showContentHash(TVShowEpisode episode) {
+		return showFieldsHash(FNV_OFFSET_BASIS, episode);
+	}
+
+
+	private static long showFieldsHash(long hash, TVShowEpisode episode) {
+		hash = hash(hash, episode.getShowName());
+		hash = hash(hash, episode.getShowType());
+		hash = hash(hash, episode.getShowDescription());
+		hash = hash(hash, episode.getShowImageURL());
+		return hash;
+	}
+
+
+	private static long airingHash(long hash, TVShowEpisode episode) {
+		hash = hash(hash, episode.getAirtime());
+		hash = hash(hash, episode.getAirdate());
+		hash = hash(hash, episode.getNetwork());
+		hash = hash(hash, episode.getRuntime());
+
+		//Episodes carry their show's type and genres as facets, even in normalized indexes
+		hash = hash(hash, episode.getShowType());
+		for (int i = 0; i < episode.getShowGenres().size(); i++) {
+			hash = hash(hash, episode.getShowGenres().get(i));
+		}
+		return hash;
+	}
+
+
+	private static long hash(long hash, String value) {
+		if (value == null) {
+			hash = (hash ^ 0xffff) * FNV_PRIME;
+		}
+		else {
+			for (int i = 0; i < value.length(); i++) {
+				hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+			}
+		}
+		//Separate the values, so that moving text from one field to the next changes the hash
+		return (hash ^ 0xfffe) * FNV_PRIME;
+	}
+
+
+	/**
+	 * Hash the decimal digits of the value, as {@link #hash(long, String)} would hash String.valueOf(value)
+	 */
+	private static long hash(long hash, long value) {
+		if (value == Long.MIN_VALUE) {
+			return hash(hash, String.valueOf(value));
+		}
+
+		long remaining = value;
+		if (remaining < 0) {
+			hash = (hash ^ '-') * FNV_PRIME;
+			remaining = -remaining;
+		}
+
+		long divisor = 1;
+		while (divisor <= remaining / 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			hash = (hash ^ ('0' + remaining / divisor % 10)) * FNV_PRIME;
+		}
+		return (hash ^ 0xfffe) * FNV_PRIME;
+	}
+
+
+	@Override
+	public String toString() {
+		return "added: " + added + ", changed: " + changed + ", unchanged: " + unchanged + ", dropped: " + dropped;
+	}
+}
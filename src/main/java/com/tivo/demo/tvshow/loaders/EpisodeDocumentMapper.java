@@ -0,0 +1,393 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+import com.tivo.demo.tvsearch.TVShowSearcher;
+import com.tivo.demo.tvshow.TVShowEpisode;
+
+/**
+ * Maps a {@link TVShowEpisode} to its Lucene Documents, reusing the same Document and Field instances for every episode.
+ *
+ * Each Field is created once and only has its value replaced for the next episode, and the UTF-8 bytes of doc values are
+ * encoded into reused buffers, so mapping allocates nothing per episode.  The returned Documents are overwritten by the
+ * next call, so each must be added to the IndexWriter before the next episode is mapped.  Not thread-safe: each
+ * indexing thread needs its own mapper, and one for each slot of the batches it indexes, from {@link Slots}.
+ */
+class EpisodeDocumentMapper {
+
+	/**
+	 * Each thread's mappers, one for each slot of an indexing batch.  The pipeline gives every item of a batch its own
+	 * slot, so each item's Documents stay intact until the whole batch has been added to the IndexWriter.
+	 */
+	static class Slots {
+		private final ThreadLocal<List<EpisodeDocumentMapper>> mappers = ThreadLocal.withInitial(ArrayList::new);
+
+		/**
+		 * @param slot
+		 * @return This thread's mapper for the slot, created the first time the thread uses the slot
+		 */
+		EpisodeDocumentMapper get(int slot) {
+			List<EpisodeDocumentMapper> threadMappers = mappers.get();
+			while (threadMappers.size() <= slot) {
+				threadMappers.add(new EpisodeDocumentMapper());
+			}
+			return threadMappers.get(slot);
+		}
+	}
+
+	private final TVShowEpisode episode = new TVShowEpisode();
+
+	private final Document episodeDoc = new Document(), showDoc = new Document();
+	private final Identity episodeIdentity = new Identity(), showIdentity = new Identity();
+
+	//Searchable as full-text
+	private final TextField episodeName = new TextField(TVShowSearcher.episodeNameFieldName, "", Field.Store.YES);
+	private final TextField episodeDescription = new TextField(TVShowSearcher.episodeDescriptionFieldName, "", Field.Store.YES);
+	private final TextField showName = new TextField(TVShowSearcher.showNameFieldName, "", Field.Store.YES);
+	private final TextField showType = new TextField(TVShowSearcher.showTypeFieldName, "", Field.Store.YES);
+	private final TextField showDescription = new TextField(TVShowSearcher.showDescriptionFieldName, "", Field.Store.YES);
+
+	//Searchable by the leading characters of each word, as analyzed by TVShowAnalyzers
+	private final TextField episodeNamePrefix = new TextField(TVShowSearcher.episodeNamePrefixFieldName, "", Field.Store.NO);
+	private final TextField showNamePrefix = new TextField(TVShowSearcher.showNamePrefixFieldName, "", Field.Store.NO);
+
+	//Searchable as a single token, for range queries, and stored to be included in the result
+	private final IntPoint episodeNumberPoint = new IntPoint(TVShowSearcher.episodeNumberFieldName, 0);
+	private final StoredField episodeNumberStored = new StoredField(TVShowSearcher.episodeNumberFieldName, 0);
+
+	//Non-Searchable, only shown in result
+	private final StoredField imageURL = new StoredField(TVShowSearcher.imageURLFieldName, "");
+
+	//Column-stride copies of the short fields shown in results, so they can be read without decompressing the stored fields
+	private final SortedValue showNameValue = new SortedValue(TVShowSearcher.showNameFieldName);
+	private final SortedValue showTypeValue = new SortedValue(TVShowSearcher.showTypeFieldName);
+	private final SortedValue episodeNameValue = new SortedValue(TVShowSearcher.episodeNameFieldName);
+	private final NumericDocValuesField episodeNumberValue = new NumericDocValuesField(TVShowSearcher.episodeNumberFieldName, 0);
+	private final BytesRefBuilder imageURLBytes = new BytesRefBuilder();
+	private final BinaryDocValuesField imageURLValue = new BinaryDocValuesField(TVShowSearcher.imageURLFieldName, new BytesRef());
+
+	//Filterable by range or value, without scoring, and read from doc values to be included in the result
+	private final LongPoint airtimePoint = new LongPoint(TVShowSearcher.airtimeFieldName, 0);
+	private final NumericDocValuesField airtimeValue = new NumericDocValuesField(TVShowSearcher.airtimeFieldName, 0);
+	private final IntPoint runtimePoint = new IntPoint(TVShowSearcher.runtimeFieldName, 0);
+	private final NumericDocValuesField runtimeValue = new NumericDocValuesField(TVShowSearcher.runtimeFieldName, 0);
+	private final StringField airdate = new StringField(TVShowSearcher.airdateFieldName, "", Field.Store.NO);
+	private final SortedSetValue airdateValue = new SortedSetValue(TVShowSearcher.airdateFieldName);
+	private final StringField network = new StringField(TVShowSearcher.networkFieldName, "", Field.Store.NO);
+	private final SortedSetValue networkValue = new SortedSetValue(TVShowSearcher.networkFieldName);
+
+	//Counted by faceted searches, and kept on the episode even in normalized indexes
+	private final FacetValues typeFacet = new FacetValues(TVShowSearcher.typeFacetName);
+	private final FacetValues networkFacet = new FacetValues(TVShowSearcher.networkFacetName);
+	private final FacetValues genreFacet = new FacetValues(TVShowSearcher.genreFacetName);
+
+	//Normalized indexes only, except for the indexed show id of the episode
+	private final StringField showDocType = new StringField(TVShowSearcher.docTypeFieldName, TVShowSearcher.SHOW_DOC_TYPE, Field.Store.NO);
+	private final StringField episodeShowId = new StringField(TVShowSearcher.showIdFieldName, "", Field.Store.NO);
+	private final SortedValue episodeShowIdValue = new SortedValue(TVShowSearcher.showIdFieldName);
+	private final StringField showShowId = new StringField(TVShowSearcher.showIdFieldName, "", Field.Store.NO);
+	private final SortedValue showShowIdValue = new SortedValue(TVShowSearcher.showIdFieldName);
+
+
+	/**
+	 * @return The episode this mapper's thread reads each element of the listing into, before mapping it
+	 */
+	TVShowEpisode getEpisode() {
+		return episode;
+	}
+
+
+	/**
+	 * @param episode
+	 * @param contentHash
+	 * @return The Document of an episode with its show's fields copied in
+	 */
+	Document mapEpisode(TVShowEpisode episode, long contentHash) {
+		episodeDoc.clear();
+		episodeIdentity.addTo(episodeDoc, episode.getEpisodeId(), contentHash);
+
+		addText(episodeDoc, episodeName, episode.getEpisodeName());
+		addText(episodeDoc, episodeDescription, episode.getEpisodeDescription());
+		addText(episodeDoc, showName, episode.getShowName());
+		addText(episodeDoc, showType, episode.getShowType());
+		addText(episodeDoc, showDescription, episode.getShowDescription());
+		addText(episodeDoc, episodeNamePrefix, episode.getEpisodeName());
+		addText(episodeDoc, showNamePrefix, episode.getShowName());
+
+		//Searchable by show id, and routes the episode to its show's shard in a sharded index
+		if (episode.getShowId() != null) {
+			episodeShowId.setStringValue(episode.getShowId());
+			episodeDoc.add(episodeShowId);
+		}
+
+		addEpisodeNumber(episodeDoc, episode.getEpisodeNumber());
+
+		showNameValue.addTo(episodeDoc, episode.getShowName());
+		showTypeValue.addTo(episodeDoc, episode.getShowType());
+		episodeNameValue.addTo(episodeDoc, episode.getEpisodeName());
+		addImageURL(episodeDoc, episode.getShowImageURL());
+
+		addAiring(episodeDoc, episode);
+
+		return episodeDoc;
+	}
+
+
+	/**
+	 * @param episode
+	 * @param contentHash
+	 * @return The Document holding only an episode's own fields, and its show's id, for a normalized index
+	 */
+	Document mapEpisodeOnly(TVShowEpisode episode, long contentHash) {
+		episodeDoc.clear();
+		episodeIdentity.addTo(episodeDoc, episode.getEpisodeId(), contentHash);
+
+		//Searched by the join from matching shows, and read to find the show of each result
+		episodeShowId.setStringValue(episode.getShowId());
+		episodeDoc.add(episodeShowId);
+		episodeShowIdValue.addTo(episodeDoc, episode.getShowId());
+
+		addText(episodeDoc, episodeName, episode.getEpisodeName());
+		addText(episodeDoc, episodeDescription, episode.getEpisodeDescription());
+		addText(episodeDoc, episodeNamePrefix, episode.getEpisodeName());
+
+		addEpisodeNumber(episodeDoc, episode.getEpisodeNumber());
+
+		episodeNameValue.addTo(episodeDoc, episode.getEpisodeName());
+
+		//Kept on the episode even for its network, so that time-slot filters never need a join
+		addAiring(episodeDoc, episode);
+
+		return episodeDoc;
+	}
+
+
+	/**
+	 * @param episode
+	 * @param showKey
+	 * @param contentHash
+	 * @return The Document holding an episode's show's fields, for a normalized index.  Separate from the episode's
+	 * Document, so both can be mapped for the same episode.
+	 */
+	Document mapShow(TVShowEpisode episode, String showKey, long contentHash) {
+		showDoc.clear();
+		showIdentity.addTo(showDoc, showKey, contentHash);
+		showDoc.add(showDocType);
+
+		//Joined to the episodes with the same show id
+		showShowId.setStringValue(episode.getShowId());
+		showDoc.add(showShowId);
+		showShowIdValue.addTo(showDoc, episode.getShowId());
+
+		addText(showDoc, showName, episode.getShowName());
+		addText(showDoc, showType, episode.getShowType());
+		addText(showDoc, showDescription, episode.getShowDescription());
+		addText(showDoc, showNamePrefix, episode.getShowName());
+
+		showNameValue.addTo(showDoc, episode.getShowName());
+		showTypeValue.addTo(showDoc, episode.getShowType());
+		addImageURL(showDoc, episode.getShowImageURL());
+
+		return showDoc;
+	}
+
+
+	private static void addText(Document doc, Field field, String value) {
+		if (value != null) {
+			field.setStringValue(value);
+			doc.add(field);
+		}
+	}
+
+
+	private void addEpisodeNumber(Document doc, int episodeNumber) {
+		episodeNumberPoint.setIntValue(episodeNumber);
+		episodeNumberStored.setIntValue(episodeNumber);
+		episodeNumberValue.setLongValue(episodeNumber);
+		doc.add(episodeNumberPoint);
+		doc.add(episodeNumberStored);
+		doc.add(episodeNumberValue);
+	}
+
+
+	private void addAiring(Document doc, TVShowEpisode episode) {
+		if (episode.getAirtime() != 0) {
+			airtimePoint.setLongValue(episode.getAirtime());
+			airtimeValue.setLongValue(episode.getAirtime());
+			doc.add(airtimePoint);
+			doc.add(airtimeValue);
+		}
+		if (episode.getRuntime() != 0) {
+			runtimePoint.setIntValue(episode.getRuntime());
+			runtimeValue.setLongValue(episode.getRuntime());
+			doc.add(runtimePoint);
+			doc.add(runtimeValue);
+		}
+		if (episode.getAirdate() != null) {
+			airdate.setStringValue(episode.getAirdate());
+			doc.add(airdate);
+			airdateValue.addTo(doc, episode.getAirdate());
+		}
+		if (episode.getNetwork() != null) {
+			network.setStringValue(episode.getNetwork());
+			doc.add(network);
+			networkValue.addTo(doc, episode.getNetwork());
+		}
+
+		typeFacet.addTo(doc, 0, episode.getShowType());
+		networkFacet.addTo(doc, 0, episode.getNetwork());
+		for (int i = 0; i < episode.getShowGenres().size(); i++) {
+			genreFacet.addTo(doc, i, episode.getShowGenres().get(i));
+		}
+	}
+
+
+	private void addImageURL(Document doc, String value) {
+		if (value != null) {
+			imageURL.setStringValue(value);
+			imageURLBytes.copyChars(value);
+			imageURLValue.setBytesValue(imageURLBytes.get());
+			doc.add(imageURL);
+			doc.add(imageURLValue);
+		}
+	}
+
+
+	/**
+	 * The unique key and content hash, for incremental loads
+	 */
+	private static final class Identity {
+		final StringField key = new StringField(TVShowSearcher.episodeIdFieldName, "", Field.Store.YES);
+		final SortedValue keyValue = new SortedValue(TVShowSearcher.episodeIdFieldName);
+		final NumericDocValuesField contentHash = new NumericDocValuesField(TVShowSearcher.contentHashFieldName, 0);
+
+		/**
+		 * Add the key and hash, unless the key is missing
+		 */
+		void addTo(Document doc, String value, long hash) {
+			if (value != null) {
+				key.setStringValue(value);
+				contentHash.setLongValue(hash);
+				doc.add(key);
+				keyValue.addTo(doc, value);
+				doc.add(contentHash);
+			}
+		}
+	}
+
+
+	/**
+	 * A sorted doc values field, with a reused buffer for its value's UTF-8 bytes
+	 */
+	private static final class SortedValue {
+		final BytesRefBuilder bytes = new BytesRefBuilder();
+		final SortedDocValuesField field;
+
+		SortedValue(String name) {
+			field = new SortedDocValuesField(name, new BytesRef());
+		}
+
+		/**
+		 * Add the value, unless it is missing or too long to be a sorted doc value
+		 */
+		void addTo(Document doc, String value) {
+			if (value != null) {
+				bytes.copyChars(value);
+				if (bytes.length() <= IndexWriter.MAX_TERM_LENGTH) {
+					field.setBytesValue(bytes.get());
+					doc.add(field);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * A sorted set doc values field holding a single value, with a reused buffer for its UTF-8 bytes
+	 */
+	private static final class SortedSetValue {
+		final BytesRefBuilder bytes = new BytesRefBuilder();
+		final SortedSetDocValuesField field;
+
+		SortedSetValue(String name) {
+			field = new SortedSetDocValuesField(name, new BytesRef());
+		}
+
+		/**
+		 * Add the value, unless it is too long to be a doc value
+		 */
+		void addTo(Document doc, String value) {
+			bytes.copyChars(value);
+			if (bytes.length() <= IndexWriter.MAX_TERM_LENGTH) {
+				field.setBytesValue(bytes.get());
+				doc.add(field);
+			}
+		}
+	}
+
+
+	/**
+	 * The values of one facet dimension, indexed the way FacetsConfig.build indexes a SortedSetDocValuesFacetField:
+	 * a sorted set doc value of the facet's path, for counting, and drill-down terms for the dimension and the path.
+	 * Indexed fields can't have their bytes replaced, so instead each distinct value's fields are created once per mapper.
+	 */
+	private static final class FacetValues {
+		//Dimensions have few distinct values, but in case one doesn't, stop caching fields beyond this many
+		private static final int MAX_CACHED_VALUES = 10_000;
+
+		final String dim;
+		final StringField dimField;
+		final Map<String, Field[]> valueFields = new HashMap<>();
+
+		FacetValues(String dim) {
+			this.dim = dim;
+			dimField = new StringField(FacetsConfig.DEFAULT_INDEX_FIELD_NAME, FacetsConfig.pathToString(new String[] { dim }), Field.Store.NO);
+		}
+
+		/**
+		 * Add the index'th value of the dimension, unless it is missing or empty
+		 */
+		void addTo(Document doc, int index, String value) {
+			if (value == null || value.isEmpty()) {
+				return;
+			}
+
+			Field[] fields = valueFields.get(value);
+			if (fields == null) {
+				String path = FacetsConfig.pathToString(new String[] { dim, value });
+				fields = new Field[] {
+						new SortedSetDocValuesField(FacetsConfig.DEFAULT_INDEX_FIELD_NAME, new BytesRef(path)),
+						new StringField(FacetsConfig.DEFAULT_INDEX_FIELD_NAME, path, Field.Store.NO) };
+				if (valueFields.size() < MAX_CACHED_VALUES) {
+					valueFields.put(value, fields);
+				}
+			}
+
+			if (index == 0) {
+				doc.add(dimField);
+			}
+			for (Field field : fields) {
+				doc.add(field);
+			}
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.util.Constants;
+
+/**
+ * The kinds of Lucene Directory the search index can be stored in
+ */
+public enum IndexDirectoryType {
+
+	/**
+	 * Memory-maps the index files, so concurrent searches read them without any locking or copying.
+	 * The best choice on 64-bit JVMs, which have the address space to map large indexes.
+	 */
+	MMAP {
+		@Override
+		public Directory open(Path path) throws IOException {
+			return new MMapDirectory(path);
+		}
+	},
+
+	/**
+	 * Reads the index files with positional reads on a FileChannel, which concurrent searches can share without synchronizing
+	 */
+	NIOFS {
+		@Override
+		public Directory open(Path path) throws IOException {
+			return new NIOFSDirectory(path);
+		}
+	},
+
+	/**
+	 * Keeps the whole index on the heap, and ignores the path.  For tests and small throwaway indexes.
+	 */
+	MEMORY {
+		@Override
+		public Directory open(Path path) {
+			return new ByteBuffersDirectory();
+		}
+	};
+
+
+	/**
+	 * Open a Directory of this type
+	 * @param path Location of the index on disk
+	 * @return
+	 * @throws IOException
+	 */
+	public abstract Directory open(Path path) throws IOException;
+
+
+	/**
+	 * @return MMAP on 64-bit JVMs which can unmap files, otherwise NIOFS
+	 */
+	public static IndexDirectoryType getDefault() {
+		return Constants.JRE_IS_64BIT && MMapDirectory.UNMAP_SUPPORTED ? MMAP : NIOFS;
+	}
+}
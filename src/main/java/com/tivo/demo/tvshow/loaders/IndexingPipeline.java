@@ -0,0 +1,364 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+import com.tivo.demo.util.Metrics;
+import com.tivo.demo.util.ThreadPools;
+
+/**
+ * Three stage indexing pipeline: the caller parses the show listing and {@link #add(Object)}s each parsed item, a pool
+ * of worker threads builds the Lucene Documents, and each worker adds its Documents to the shared (thread-safe)
+ * IndexWriter in batches.
+ *
+ * Parsed items wait in a bounded queue, so a parser which outruns the workers blocks until there is room, rather than
+ * buffering the whole listing in memory.
+ *
+ * With zero worker threads, every item is built and added to the index on the calling thread, one at a time.
+ *
+ * Builders may reuse the same Document instances from one batch to the next: each item of a batch is built into its
+ * own slot, and the batch is added to the index before any slot is built into again.
+ *
+ * If an update key field is given, each Document replaces any existing Document with the same (stored) key, instead of
+ * being added alongside it.
+ *
+ * A sharded pipeline adds each Document to the IndexWriter of the shard picked by its router, so the shards are written
+ * to in parallel by the same workers.
+ *
+ * @param <T> The type of parsed item, such as a JSONObject per episode
+ */
+public class IndexingPipeline<T> implements Closeable {
+
+	/**
+	 * Builds the Lucene Document for one parsed item.  Must be safe to call from several threads at once.
+	 */
+	public interface DocumentBuilder<T> {
+		/**
+		 * @param item
+		 * @return The Document to index, or null to skip the item
+		 */
+		Document build(T item);
+
+		/**
+		 * Builds every Document for one parsed item, for builders which may index more than one Document per item.
+		 * Defaults to the single Document from {@link #build(Object)}.
+		 * @param item
+		 * @param docs The list to add the Documents to
+		 */
+		default void buildAll(T item, List<Document> docs) {
+			Document doc = build(item);
+			if (doc != null) {
+				docs.add(doc);
+			}
+		}
+
+		/**
+		 * Builds every Document for one parsed item into the given slot of the calling thread's batch.  Builders which
+		 * {@link #reusesDocuments()} keep a set of Document instances for each slot of each thread.
+		 * Defaults to {@link #buildAll(Object, List)}.
+		 * @param item
+		 * @param slot From 0 up to, but not including, the batch size.  No two items of the same batch are given the same slot.
+		 * @param docs The list to add the Documents to
+		 */
+		default void buildAll(T item, int slot, List<Document> docs) {
+			buildAll(item, docs);
+		}
+
+		/**
+		 * @return True if the builder overwrites the same Document instances for each item built into a slot, in which
+		 * case a batch is added to the index as soon as every slot has been built into, even if it holds fewer
+		 * Documents than the batch size
+		 */
+		default boolean reusesDocuments() {
+			return false;
+		}
+	}
+
+	//Marks the end of the input for one worker
+	private static final Object END_OF_INPUT = new Object();
+
+	private static final AtomicInteger pipelineNumber = new AtomicInteger();
+
+	private final IndexWriter[] indexWriters;
+	//Null unless there is more than one shard
+	private final ToIntFunction<Document> shardRouter;
+	private final DocumentBuilder<T> builder;
+	private final String updateKeyField;
+	private final int workerThreads, batchSize;
+	private final boolean reusesDocuments;
+
+	private final BlockingQueue<Object> queue;
+	private final ExecutorService workers;
+
+	//The Documents of the item being built by each calling thread, when there are no worker threads
+	private final ThreadLocal<List<Document>> inlineDocs = ThreadLocal.withInitial(ArrayList::new);
+
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final AtomicInteger documentCount = new AtomicInteger();
+	private boolean closed = false;
+
+
+	/**
+	 * Construct the pipeline and start its worker threads
+	 * @param indexWriter The IndexWriter shared by all of the workers
+	 * @param builder
+	 * @param workerThreads Number of threads building Documents, or 0 to build them on the calling thread
+	 * @param batchSize Number of Documents each worker collects before adding them to the index
+	 * @param queueCapacity Number of parsed items which may wait for a worker before {@link #add(Object)} blocks
+	 */
+	public IndexingPipeline(IndexWriter indexWriter, DocumentBuilder<T> builder, int workerThreads, int batchSize, int queueCapacity) {
+		this(indexWriter, builder, null, workerThreads, batchSize, queueCapacity);
+	}
+
+
+	/**
+	 * Construct the pipeline and start its worker threads
+	 * @param indexWriter The IndexWriter shared by all of the workers
+	 * @param builder
+	 * @param updateKeyField Stored field holding each Document's unique key, or null to always add Documents
+	 * @param workerThreads Number of threads building Documents, or 0 to build them on the calling thread
+	 * @param batchSize Number of Documents each worker collects before adding them to the index
+	 * @param queueCapacity Number of parsed items which may wait for a worker before {@link #add(Object)} blocks
+	 */
+	public IndexingPipeline(IndexWriter indexWriter, DocumentBuilder<T> builder, String updateKeyField, int workerThreads, int batchSize, int queueCapacity) {
+		this(new IndexWriter[] { indexWriter }, null, builder, updateKeyField, workerThreads, batchSize, queueCapacity);
+	}
+
+
+	/**
+	 * Construct a pipeline which adds each Document to one of several shards, and start its worker threads
+	 * @param shardWriters The IndexWriter of each shard, shared by all of the workers
+	 * @param shardRouter Picks the index of the shard each Document belongs in.  An item's Documents must all be routed
+	 * to the same shard.
+	 * @param builder
+	 * @param updateKeyField Stored field holding each Document's unique key, or null to always add Documents
+	 * @param workerThreads Number of threads building Documents, or 0 to build them on the calling thread
+	 * @param batchSize Number of Documents each worker collects before adding them to the index
+	 * @param queueCapacity Number of parsed items which may wait for a worker before {@link #add(Object)} blocks
+	 */
+	public IndexingPipeline(IndexWriter[] shardWriters, ToIntFunction<Document> shardRouter, DocumentBuilder<T> builder, String updateKeyField,
+			int workerThreads, int batchSize, int queueCapacity) {
+		this.indexWriters = shardWriters;
+		this.shardRouter = shardWriters.length > 1 ? shardRouter : null;
+		this.builder = builder;
+		this.updateKeyField = updateKeyField;
+		this.workerThreads = Math.max(0, workerThreads);
+		this.batchSize = Math.max(1, batchSize);
+		this.reusesDocuments = builder.reusesDocuments();
+
+		if (this.workerThreads == 0) {
+			queue = null;
+			workers = null;
+		}
+		else {
+			queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+			workers = ThreadPools.newFixedDaemonPool("indexing-pipeline-" + pipelineNumber.incrementAndGet() + "-worker", this.workerThreads);
+
+			for (int i = 0; i < this.workerThreads; i++) {
+				workers.execute(this::runWorker);
+			}
+		}
+	}
+
+
+	/**
+	 * Hand one parsed item to the pipeline, blocking while the queue is full
+	 * @param item
+	 * @throws IOException If a worker has already failed, or the caller is interrupted while waiting
+	 */
+	public void add(T item) throws IOException {
+		checkFailure();
+
+		if (workers == null) {
+			//Each item is added to the index before the next is built, so they can all share one slot
+			List<Document> docs = inlineDocs.get();
+			try {
+				long start = System.nanoTime();
+				builder.buildAll(item, 0, docs);
+				Metrics.DOCUMENT_BUILD.recordSince(start);
+				for (Document doc : docs) {
+					write(doc);
+				}
+				documentCount.addAndGet(docs.size());
+				Metrics.DOCUMENTS_INDEXED.add(docs.size());
+			} finally {
+				docs.clear();
+			}
+			return;
+		}
+
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to queue an item for indexing");
+		}
+	}
+
+
+	/**
+	 * @return The number of Documents added to the index so far
+	 */
+	public int getDocumentCount() {
+		return documentCount.get();
+	}
+
+
+	/**
+	 * Wait for the workers to index every queued item, then stop them
+	 * @throws IOException If any Document failed to be added to the index
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		if (workers != null) {
+			try {
+				for (int i = 0; i < workerThreads; i++) {
+					queue.put(END_OF_INPUT);
+				}
+
+				workers.shutdown();
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				workers.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for indexing to finish");
+			}
+		}
+
+		checkFailure();
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private void runWorker() {
+		List<Document> batch = new ArrayList<>(batchSize);
+		int slot = 0;
+
+		try {
+			Object item;
+			while ((item = queue.take()) != END_OF_INPUT) {
+				//Once any worker has failed, just drain the queue so that the parser is never left blocked
+				if (failure.get() != null) {
+					continue;
+				}
+
+				try {
+					long start = System.nanoTime();
+					int built = batch.size();
+					builder.buildAll((T) item, slot++, batch);
+					if (batch.size() > built) {
+						Metrics.DOCUMENT_BUILD.recordSince(start);
+					}
+
+					//Items of more than one Document may fill the batch before every slot is used
+					if (batch.size() >= batchSize || (reusesDocuments && slot == batchSize)) {
+						flush(batch);
+						slot = 0;
+					}
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				}
+			}
+
+			if (failure.get() == null) {
+				flush(batch);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable t) {
+			failure.compareAndSet(null, t);
+		}
+	}
+
+
+	private void flush(List<Document> batch) throws IOException {
+		if (!batch.isEmpty()) {
+			if (updateKeyField == null) {
+				long start = System.nanoTime();
+				addDocuments(batch);
+				Metrics.ADD_DOCUMENT.recordSince(start);
+			}
+			else {
+				//Each Document replaces a different key, so they have to be updated one at a time
+				for (Document doc : batch) {
+					write(doc);
+				}
+			}
+			documentCount.addAndGet(batch.size());
+			Metrics.DOCUMENTS_INDEXED.add(batch.size());
+			batch.clear();
+		}
+	}
+
+
+	/**
+	 * Add a batch with one call per shard, so the IndexWriter flushes each shard's Documents together
+	 */
+	private void addDocuments(List<Document> batch) throws IOException {
+		if (shardRouter == null) {
+			indexWriters[0].addDocuments(batch);
+			return;
+		}
+
+		int[] shards = new int[batch.size()];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = shardRouter.applyAsInt(batch.get(i));
+		}
+		List<Document> shardBatch = new ArrayList<>(batch.size());
+		for (int shard = 0; shard < indexWriters.length; shard++) {
+			for (int i = 0; i < shards.length; i++) {
+				if (shards[i] == shard) {
+					shardBatch.add(batch.get(i));
+				}
+			}
+			if (!shardBatch.isEmpty()) {
+				indexWriters[shard].addDocuments(shardBatch);
+				shardBatch.clear();
+			}
+		}
+	}
+
+
+	private void write(Document doc) throws IOException {
+		String key = updateKeyField == null ? null : doc.get(updateKeyField);
+		IndexWriter indexWriter = shardRouter == null ? indexWriters[0] : indexWriters[shardRouter.applyAsInt(doc)];
+		long start = System.nanoTime();
+		if (key == null) {
+			indexWriter.addDocument(doc);
+		}
+		else {
+			indexWriter.updateDocument(new Term(updateKeyField, key), doc);
+		}
+		Metrics.ADD_DOCUMENT.recordSince(start);
+	}
+
+
+	private void checkFailure() throws IOException {
+		Throwable t = failure.get();
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		}
+		else if (t != null) {
+			throw new IOException("Indexing failed", t);
+		}
+	}
+}
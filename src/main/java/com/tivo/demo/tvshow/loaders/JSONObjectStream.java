@@ -0,0 +1,116 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Iterates over the objects of a JSON array as they are read from a stream.
+ *
+ * Only the object currently being returned is held in memory, so the size of the whole array never matters.
+ * Elements of the array which are not JSON objects are skipped.
+ *
+ * A stream which starts with an object rather than an array is read as newline-delimited JSON: a sequence of objects,
+ * separated only by whitespace.  A stream with nothing in it at all is an empty one of those.
+ *
+ * A stream which ends before the array's closing bracket, such as a response cut off part way through, is not mistaken
+ * for the end of the array: {@link #hasNext()} throws an UncheckedIOException wrapping an EOFException instead.
+ */
+public class JSONObjectStream implements Iterator<JSONObject>, Closeable {
+
+	private final Reader reader;
+	private final JSONTokener tokener;
+
+	private JSONObject next;
+	private boolean started = false, finished = false, delimited = false;
+
+	public JSONObjectStream(Reader reader) {
+		this.reader = reader;
+		this.tokener = new JSONTokener(reader);
+	}
+
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !finished) {
+			next = readNext();
+		}
+		return next != null;
+	}
+
+	@Override
+	public JSONObject next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		JSONObject current = next;
+		next = null;
+		return current;
+	}
+
+
+	/**
+	 * Read the next object of the array, or return null once the closing bracket, or the end of a newline-delimited
+	 * stream, is reached
+	 * @throws UncheckedIOException If the stream ends before the closing bracket
+	 */
+	private JSONObject readNext() {
+		while (true) {
+			char c = tokener.nextClean();
+
+			if (!started) {
+				started = true;
+				if (c == '{' || c == 0) {
+					delimited = true;
+				}
+				else if (c == '[') {
+					c = tokener.nextClean();
+				}
+				else if (c != 0) {
+					throw tokener.syntaxError("A JSONArray text must start with '[', or newline-delimited JSON with '{'");
+				}
+			}
+			else if (c == ',' && !delimited) {
+				c = tokener.nextClean();
+			}
+
+			if (c == 0 && !delimited) {
+				throw new UncheckedIOException(new EOFException("The JSON array ended before its closing ']'"));
+			}
+			if (c == 0 || (c == ']' && !delimited)) {
+				finished = true;
+				return null;
+			}
+
+			tokener.back();
+			Object value;
+			try {
+				value = tokener.nextValue();
+			} catch (JSONException e) {
+				if (tokener.end()) {
+					EOFException eof = new EOFException("The JSON stream ended part way through a value");
+					eof.initCause(e);
+					throw new UncheckedIOException(eof);
+				}
+				throw e;
+			}
+			if (value instanceof JSONObject) {
+				return (JSONObject) value;
+			}
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
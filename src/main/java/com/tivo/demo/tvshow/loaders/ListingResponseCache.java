@@ -0,0 +1,289 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.tivo.demo.util.Metrics;
+
+/**
+ * On-disk cache of show listing responses, used to make conditional requests.
+ *
+ * Each response body is stored in its own file, beside a properties file holding the URL and the response's ETag and
+ * Last-Modified validators.  The next request for the URL sends them back as If-None-Match and If-Modified-Since, so
+ * that an unchanged listing is answered with a bodiless 304 instead of being downloaded again.
+ *
+ * The total size of the bodies is bounded: once it is exceeded, the least recently used responses are evicted.
+ */
+public class ListingResponseCache {
+
+	private static final Logger LOG = Logger.getLogger(ListingResponseCache.class.getName());
+
+	private static final String BODY_SUFFIX = ".body", VALIDATORS_SUFFIX = ".properties";
+	private static final String URL_KEY = "url", ETAG_KEY = "etag", LAST_MODIFIED_KEY = "lastModified";
+
+	private final Path directory;
+	private final long maxBytes;
+
+
+	/**
+	 * @param directory Created if it doesn't exist
+	 * @param maxBytes Total size of the cached bodies, beyond which the least recently used are evicted
+	 * @throws IOException
+	 */
+	public ListingResponseCache(Path directory, long maxBytes) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+	}
+
+
+	/**
+	 * Connect, sending the validators of any cached response for the URL, and cache the new response if it was modified
+	 * @param conn A GET request which has not yet been connected
+	 * @return True if a new response was cached, false if the cached response has not been modified
+	 * @throws IOException If the request fails
+	 */
+	public synchronized boolean fetch(HttpURLConnection conn) throws IOException {
+		String url = conn.getURL().toString();
+		String key = key(url);
+
+		Properties validators = readValidators(key);
+		if (validators != null && Files.exists(bodyFile(key))) {
+			if (validators.getProperty(ETAG_KEY) != null) {
+				conn.setRequestProperty("If-None-Match", validators.getProperty(ETAG_KEY));
+			}
+			if (validators.getProperty(LAST_MODIFIED_KEY) != null) {
+				conn.setRequestProperty("If-Modified-Since", validators.getProperty(LAST_MODIFIED_KEY));
+			}
+		}
+
+		long start = System.nanoTime();
+		conn.connect();
+
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Response code: " + conn.getResponseCode() + ", message: " + conn.getResponseMessage());
+		}
+
+		if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			touch(key);
+			return false;
+		}
+		else if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+			throw new IOException("Request failed with response code: " + conn.getResponseCode());
+		}
+
+		try (InputStream body = conn.getInputStream()) {
+			store(url, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), body);
+		}
+		Metrics.FETCH.recordSince(start);
+		return true;
+	}
+
+
+	/**
+	 * Cache a response body and its validators, replacing any previous response for the URL
+	 * @param url
+	 * @param etag May be null
+	 * @param lastModified May be null
+	 * @param body
+	 * @throws IOException
+	 */
+	public synchronized void store(String url, String etag, String lastModified, InputStream body) throws IOException {
+		String key = key(url);
+
+		//Write to temporary files first, so that a failed download never replaces a complete body
+		Path bodyTemp = Files.createTempFile(directory, key, ".tmp");
+		Path validatorsTemp = Files.createTempFile(directory, key, ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(bodyTemp)) {
+				body.transferTo(out);
+			}
+
+			Properties validators = new Properties();
+			validators.setProperty(URL_KEY, url);
+			if (etag != null) {
+				validators.setProperty(ETAG_KEY, etag);
+			}
+			if (lastModified != null) {
+				validators.setProperty(LAST_MODIFIED_KEY, lastModified);
+			}
+			try (Writer out = Files.newBufferedWriter(validatorsTemp, StandardCharsets.UTF_8)) {
+				validators.store(out, null);
+			}
+
+			Files.move(bodyTemp, bodyFile(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(validatorsTemp, validatorsFile(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(bodyTemp);
+			Files.deleteIfExists(validatorsTemp);
+		}
+
+		evict(key);
+	}
+
+
+	/**
+	 * @param url
+	 * @return The ETag and Last-Modified validators of the cached response for the URL, combined into one string which
+	 * changes whenever either does, or null if no response with validators is cached
+	 * @throws IOException
+	 */
+	public synchronized String getValidators(String url) throws IOException {
+		String key = key(url);
+		Properties validators = readValidators(key);
+		if (validators == null || !Files.exists(bodyFile(key))) {
+			return null;
+		}
+		String etag = validators.getProperty(ETAG_KEY), lastModified = validators.getProperty(LAST_MODIFIED_KEY);
+		if (etag == null && lastModified == null) {
+			return null;
+		}
+		return "ETag: " + etag + ", Last-Modified: " + lastModified;
+	}
+
+
+	/**
+	 * Open the cached response body for the URL, through memory-mapped I/O
+	 * @param url
+	 * @return The body, which the caller must close, or null if none is cached
+	 * @throws IOException
+	 */
+	public synchronized InputStream open(String url) throws IOException {
+		String key = key(url);
+		try {
+			InputStream body = new MappedFileInputStream(bodyFile(key));
+			touch(key);
+			return body;
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * @return The total size of the cached bodies
+	 * @throws IOException
+	 */
+	public synchronized long size() throws IOException {
+		long size = 0;
+		for (Path body : listBodies()) {
+			size += Files.size(body);
+		}
+		return size;
+	}
+
+
+	/**
+	 * Evict the least recently used responses until the bodies fit within the maximum size, never evicting the one just stored
+	 */
+	private void evict(String keepKey) throws IOException {
+		List<Path> bodies = listBodies();
+		long size = 0;
+		for (Path body : bodies) {
+			size += Files.size(body);
+		}
+		if (size <= maxBytes) {
+			return;
+		}
+
+		bodies.sort(Comparator.comparing(ListingResponseCache::lastUsed));
+		for (Path body : bodies) {
+			if (size <= maxBytes) {
+				break;
+			}
+			String key = body.getFileName().toString();
+			key = key.substring(0, key.length() - BODY_SUFFIX.length());
+			if (!key.equals(keepKey)) {
+				size -= Files.size(body);
+				Files.deleteIfExists(validatorsFile(key));
+				Files.deleteIfExists(body);
+			}
+		}
+	}
+
+
+	private List<Path> listBodies() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(BODY_SUFFIX)).collect(Collectors.toCollection(ArrayList::new));
+		}
+	}
+
+
+	/**
+	 * Mark the response as recently used, for eviction
+	 */
+	private void touch(String key) throws IOException {
+		try {
+			Files.setLastModifiedTime(bodyFile(key), FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (NoSuchFileException e) {
+			//Evicted already
+		}
+	}
+
+
+	private static FileTime lastUsed(Path body) {
+		try {
+			return Files.getLastModifiedTime(body);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+
+	private Properties readValidators(String key) throws IOException {
+		try (Reader in = Files.newBufferedReader(validatorsFile(key), StandardCharsets.UTF_8)) {
+			Properties validators = new Properties();
+			validators.load(in);
+			return validators;
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+
+	private Path bodyFile(String key) {
+		return directory.resolve(key + BODY_SUFFIX);
+	}
+
+
+	private Path validatorsFile(String key) {
+		return directory.resolve(key + VALIDATORS_SUFFIX);
+	}
+
+
+	/**
+	 * @return A file name for the URL: the hex SHA-256 of the URL
+	 */
+	private static String key(String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			//Every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
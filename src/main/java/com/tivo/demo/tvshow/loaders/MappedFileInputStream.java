@@ -0,0 +1,87 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file sequentially through memory-mapped regions, so its bytes are copied straight out of the page cache
+ * rather than through a read system call per buffer.
+ *
+ * The file is mapped one region at a time, so files larger than a single mapping (2GB) can be read too.
+ */
+public class MappedFileInputStream extends InputStream {
+
+	//Size of each mapped region of the file
+	private static final long REGION_SIZE = 64L * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long size;
+
+	private long regionStart = 0;
+	private MappedByteBuffer region;
+
+
+	public MappedFileInputStream(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		size = channel.size();
+	}
+
+
+	/**
+	 * @return The current region, with bytes remaining, or null at the end of the file
+	 * @throws IOException
+	 */
+	private MappedByteBuffer region() throws IOException {
+		if (region == null || !region.hasRemaining()) {
+			if (region != null) {
+				regionStart += region.capacity();
+			}
+			if (regionStart >= size) {
+				return null;
+			}
+			region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(REGION_SIZE, size - regionStart));
+		}
+		return region;
+	}
+
+
+	@Override
+	public int read() throws IOException {
+		MappedByteBuffer buffer = region();
+		return buffer == null ? -1 : buffer.get() & 0xff;
+	}
+
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		MappedByteBuffer buffer = region();
+		if (buffer == null) {
+			return -1;
+		}
+		int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+
+	@Override
+	public int available() throws IOException {
+		MappedByteBuffer buffer = region();
+		return buffer == null ? 0 : buffer.remaining();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		//The mapping itself is released when the buffer is garbage collected
+		region = null;
+		channel.close();
+	}
+}
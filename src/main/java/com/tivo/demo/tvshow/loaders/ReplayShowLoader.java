@@ -0,0 +1,168 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.lucene.index.IndexWriter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Loads TVMaze schedules captured to local files, instead of querying api.tvmaze.com, so that historical schedules
+ * can be back-filled and indexing can be load-tested offline.
+ *
+ * Each source may be a file or a directory, which is searched recursively for files.  Each file may hold a JSON array
+ * of episodes (as returned by the /schedule API) or newline-delimited JSON with one episode per line, and may be
+ * gzip compressed.  Files are read through memory-mapped I/O, and indexed by the same document-building path as
+ * {@link TVMazeShowLoader}.  With streaming enabled in the config, episodes are indexed as each file is parsed.
+ */
+public class ReplayShowLoader extends TVMazeShowLoader {
+
+	private static final Logger LOG = Logger.getLogger(ReplayShowLoader.class.getName());
+
+	//The first two bytes of every gzip stream
+	private static final int GZIP_MAGIC_1 = 0x1f, GZIP_MAGIC_2 = 0x8b;
+
+	private final List<Path> sources;
+
+
+	/**
+	 * Construct the Lucene search index, and load the episodes from every captured schedule file into it
+	 * @param sources Files, or directories of files
+	 * @throws IOException
+	 */
+	public ReplayShowLoader(Path... sources) throws IOException {
+		this(new ShowLoaderConfig(), sources);
+	}
+
+	/**
+	 * Construct the Lucene search index, and load the episodes from every captured schedule file into it, using the given options
+	 * @param config
+	 * @param sources Files, or directories of files
+	 * @throws IOException
+	 */
+	public ReplayShowLoader(ShowLoaderConfig config, Path... sources) throws IOException {
+		super(config, false);
+		this.sources = Arrays.asList(sources);
+		load();
+	}
+
+
+	/**
+	 * Captured files are always replayed in full
+	 */
+	@Override
+	protected boolean isListingModified() {
+		return true;
+	}
+
+
+	/**
+	 * Read every captured schedule file into a single listing
+	 */
+	@Override
+	public JSONArray getShowListing() throws IOException {
+		JSONArray allShowsJson = new JSONArray();
+		for (Path file : listFiles()) {
+			try (JSONObjectStream episodes = openFile(file)) {
+				while (episodes.hasNext()) {
+					allShowsJson.put(episodes.next());
+				}
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+		return allShowsJson;
+	}
+
+
+	/**
+	 * Add every episode of the listing into the Lucene Index.  Unlike a live load, an empty replay adds no sample show.
+	 */
+	@Override
+	public void loadShowsIntoIndex(JSONArray allShowsJson, IndexWriter indexWriter) throws IOException {
+		try (IndexingPipeline<JSONObject> pipeline = openEpisodePipeline(indexWriter)) {
+			for (int i = 0; i < allShowsJson.length(); i++) {
+				pipeline.add(allShowsJson.optJSONObject(i));
+			}
+		}
+		LOG.info("Replayed episode count: " + allShowsJson.length());
+	}
+
+
+	/**
+	 * Parse each captured schedule file in turn, handing each episode to one shared indexing pipeline as it is read
+	 */
+	@Override
+	public void streamShowsIntoIndex(IndexWriter indexWriter) throws IOException {
+		int episodeCount = 0;
+		List<Path> files = listFiles();
+		clearIndexForFullLoad();
+
+		try (IndexingPipeline<JSONObject> pipeline = openEpisodePipeline(indexWriter)) {
+			for (Path file : files) {
+				try (JSONObjectStream episodes = openFile(file)) {
+					episodeCount += addEpisodes(episodes, pipeline);
+				}
+			}
+		}
+		LOG.info("Replayed episode count: " + episodeCount);
+	}
+
+
+	/**
+	 * @return Every regular file among the sources, with the files of each directory in name order
+	 * @throws IOException
+	 */
+	List<Path> listFiles() throws IOException {
+		List<Path> files = new ArrayList<>();
+		for (Path source : sources) {
+			if (Files.isDirectory(source)) {
+				try (Stream<Path> walk = Files.walk(source)) {
+					files.addAll(walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+				}
+			}
+			else {
+				files.add(source);
+			}
+		}
+		return files;
+	}
+
+
+	/**
+	 * Open a captured schedule file for parsing, decompressing it if it starts with the gzip header
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static JSONObjectStream openFile(Path file) throws IOException {
+		InputStream in = new BufferedInputStream(new MappedFileInputStream(file));
+		try {
+			in.mark(2);
+			boolean gzipped = in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+			in.reset();
+			if (gzipped) {
+				in = new GZIPInputStream(in);
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new JSONObjectStream(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+	}
+}
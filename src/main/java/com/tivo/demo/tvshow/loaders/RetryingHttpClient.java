@@ -0,0 +1,123 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.tivo.demo.util.Metrics;
+import com.tivo.demo.util.RateLimiter;
+import com.tivo.demo.util.ThrottledLogger;
+
+/**
+ * One HttpClient shared by every request of a load, so connections to an API are reused (and, over HTTPS, multiplexed
+ * on a single HTTP/2 connection) rather than opened per page.  Requests are spaced out to the configured rate, and
+ * connection failures and 429 or 5xx responses are retried with exponential backoff.
+ */
+class RetryingHttpClient {
+
+	private static final Logger LOG = Logger.getLogger(RetryingHttpClient.class.getName());
+
+	//Once an API starts rate limiting, every page could be retried at once
+	private static final ThrottledLogger RETRY_LOG = new ThrottledLogger(LOG, 5, TimeUnit.SECONDS);
+
+	static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10), REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+	/**
+	 * Builds the request for each attempt, so that an attempt can be signed afresh
+	 */
+	interface RequestBuilder {
+		HttpRequest build() throws IOException;
+	}
+
+	private final HttpClient client;
+	private final RateLimiter rateLimiter;
+	private final int maxRetries;
+	private final long retryBackoffMillis;
+
+
+	/**
+	 * @param config Rate limit and retry options
+	 */
+	RetryingHttpClient(ShowLoaderConfig config) {
+		this.rateLimiter = new RateLimiter(config.getFetchRequestsPerSecond());
+		this.maxRetries = Math.max(0, config.getFetchMaxRetries());
+		this.retryBackoffMillis = Math.max(0, config.getFetchRetryBackoffMillis());
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.connectTimeout(CONNECT_TIMEOUT)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.build();
+	}
+
+
+	/**
+	 * Send a request, retrying with backoff
+	 * @param builder Called again for each retry
+	 * @return A successful response, whose body has not been read yet
+	 * @throws IOException If the request still fails after every retry, or fails with a response which is not worth retrying
+	 */
+	HttpResponse<InputStream> send(RequestBuilder builder) throws IOException {
+		try {
+			for (int attempt = 0; ; attempt++) {
+				rateLimiter.acquire();
+
+				HttpRequest request = builder.build();
+				HttpResponse<InputStream> response;
+				long start = System.nanoTime();
+				try {
+					response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+				} catch (IOException e) {
+					if (attempt >= maxRetries) {
+						throw e;
+					}
+					response = null;
+				}
+
+				long retryAfterMillis = 0;
+				if (response != null) {
+					int status = response.statusCode();
+					if (status == 200) {
+						//The body streams into the parser, so only the time to the response headers counts as fetching
+						Metrics.FETCH.recordSince(start);
+						return response;
+					}
+					response.body().close();
+
+					if ((status != 429 && status < 500) || attempt >= maxRetries) {
+						throw new IOException("Request " + request.uri() + " failed with response code: " + status);
+					}
+					//Wait at least as long as the server asks
+					retryAfterMillis = retryAfterMillis(response);
+				}
+
+				long backoffMillis = Math.max(retryBackoffMillis << Math.min(attempt, 20), retryAfterMillis);
+				Metrics.FETCH_RETRIES.increment();
+				RETRY_LOG.log(Level.WARNING, () -> "Retrying request " + request.uri() + " in " + backoffMillis + "ms");
+				TimeUnit.MILLISECONDS.sleep(backoffMillis);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while fetching");
+		}
+	}
+
+
+	/**
+	 * @return The delay asked for by the response's Retry-After header, if it gives one in seconds, otherwise 0
+	 */
+	private static long retryAfterMillis(HttpResponse<?> response) {
+		try {
+			return TimeUnit.SECONDS.toMillis(response.headers().firstValueAsLong("Retry-After").orElse(0));
+		} catch (NumberFormatException e) {
+			//An HTTP date, rather than seconds
+			return 0;
+		}
+	}
+}
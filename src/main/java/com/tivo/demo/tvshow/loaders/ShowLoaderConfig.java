@@ -0,0 +1,409 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Options controlling how a show loader builds the Lucene search index.
+ *
+ * The defaults reproduce the original behavior: the whole show listing is fetched and parsed before indexing begins.
+ */
+public class ShowLoaderConfig {
+
+	//Defaults to ~/Lucene, unless overridden by the tvsearch.index.path system property
+	private Path indexPath = Paths.get(System.getProperty("tvsearch.index.path", Paths.get(System.getProperty("user.home"), "Lucene").toString()));
+	private IndexDirectoryType directoryType = IndexDirectoryType.getDefault();
+	private boolean nrtCaching = false;
+	private int shardCount = 1;
+	
+	private boolean streaming = false;
+	private boolean incremental = false;
+	private boolean blueGreen = false;
+	private double rebuildRamBufferMB = 256.0;
+	private int rebuildMaxSegments = 4;
+	private boolean keepWriterOpen = false;
+	private boolean normalized = false;
+	private boolean typeahead = false;
+	private boolean sortedByAirtime = false;
+	
+	private Path synonymsPath = null;
+	
+	private int indexingThreads = 0;
+	private int indexingBatchSize = 256;
+	private int indexingQueueCapacity = 4096;
+
+	private int fetchConcurrency = 8;
+	private double fetchRequestsPerSecond = 2.0;
+	private int fetchMaxRetries = 3;
+	private long fetchRetryBackoffMillis = 500;
+
+	private Path responseCachePath = null;
+	private long responseCacheMaxBytes = 64L * 1024 * 1024;
+
+	/**
+	 * @see #setIndexPath(Path)
+	 */
+	public Path getIndexPath() {
+		return indexPath;
+	}
+
+	/**
+	 * Location of the search index on disk
+	 */
+	public void setIndexPath(Path indexPath) {
+		this.indexPath = indexPath;
+	}
+
+	/**
+	 * @see #setDirectoryType(IndexDirectoryType)
+	 */
+	public IndexDirectoryType getDirectoryType() {
+		return directoryType;
+	}
+
+	/**
+	 * The kind of Lucene Directory to store the index in.  Defaults to memory-mapping on 64-bit JVMs.
+	 */
+	public void setDirectoryType(IndexDirectoryType directoryType) {
+		this.directoryType = directoryType;
+	}
+
+	/**
+	 * @see #setNrtCaching(boolean)
+	 */
+	public boolean isNrtCaching() {
+		return nrtCaching;
+	}
+
+	/**
+	 * When enabled, small newly flushed segments are kept in memory until they are merged, so that frequent
+	 * near-real-time reopens don't have to read them back from disk
+	 */
+	public void setNrtCaching(boolean nrtCaching) {
+		this.nrtCaching = nrtCaching;
+	}
+
+	/**
+	 * @see #setShardCount(int)
+	 */
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * Number of separate indexes the episodes are partitioned across, by a hash of their show's id, each with its own
+	 * IndexWriter.  1 (the default) keeps everything in one index, at the index path.  With more, each shard is stored in
+	 * a shard-N directory under the index path, and searched with
+	 * {@link com.tivo.demo.tvsearch.TVShowSearcher#TVShowSearcher(org.apache.lucene.store.Directory[], org.apache.lucene.analysis.Analyzer, com.tivo.demo.tvsearch.TVShowSearcherConfig)}.
+	 * Changing the shard count of an existing index needs a full load into a new index path.
+	 * 
+	 * @see AbstractShowLoader#getShards()
+	 */
+	public void setShardCount(int shardCount) {
+		this.shardCount = shardCount;
+	}
+
+	/**
+	 * @see #setStreaming(boolean)
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * When enabled, the show listing is tokenized incrementally straight off the response stream, and each episode is
+	 * sent to the IndexWriter as soon as it has been parsed, instead of first buffering the whole response and
+	 * building a complete JSONArray
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * @see #setIncremental(boolean)
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * When enabled, the existing index is kept, and only the episodes which were added, changed or dropped since the last
+	 * load are updated or deleted, instead of deleting every Document and re-adding the whole listing
+	 * 
+	 * @see EpisodeDeltaTracker
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * @see #setBlueGreen(boolean)
+	 */
+	public boolean isBlueGreen() {
+		return blueGreen;
+	}
+
+	/**
+	 * When enabled, every full load builds a complete new index in a generation-N directory under the index path,
+	 * while searchers keep using the current one.  The new index is only committed once it is complete, and then
+	 * published to the rebuild listeners, which move their searchers onto it, before the old one is deleted.  So a
+	 * full load never leaves searchers with an empty or partly loaded index.  Not used by incremental loads, which
+	 * only touch the episodes which changed, in place.
+	 * 
+	 * @see AbstractShowLoader#addRebuildListener(AbstractShowLoader.RebuildListener)
+	 */
+	public void setBlueGreen(boolean blueGreen) {
+		this.blueGreen = blueGreen;
+	}
+
+	/**
+	 * @see #setRebuildRamBufferMB(double)
+	 */
+	public double getRebuildRamBufferMB() {
+		return rebuildRamBufferMB;
+	}
+
+	/**
+	 * How much each shard's IndexWriter buffers in memory during a blue/green rebuild, before flushing a segment.
+	 * A large buffer writes fewer, larger segments, which leaves less to merge.
+	 */
+	public void setRebuildRamBufferMB(double rebuildRamBufferMB) {
+		this.rebuildRamBufferMB = rebuildRamBufferMB;
+	}
+
+	/**
+	 * @see #setRebuildMaxSegments(int)
+	 */
+	public int getRebuildMaxSegments() {
+		return rebuildMaxSegments;
+	}
+
+	/**
+	 * The number of segments each shard of a blue/green rebuild is merged down to before it is published.  A few,
+	 * rather than one, so that segments can still be searched in parallel.
+	 */
+	public void setRebuildMaxSegments(int rebuildMaxSegments) {
+		this.rebuildMaxSegments = rebuildMaxSegments;
+	}
+
+	/**
+	 * @see #setKeepWriterOpen(boolean)
+	 */
+	public boolean isKeepWriterOpen() {
+		return keepWriterOpen;
+	}
+
+	/**
+	 * When enabled, the IndexWriter stays open after each load, until the loader is closed.  This lets a searcher
+	 * reopen near-real-time from the writer, and lets the loader be reloaded without reopening the index.
+	 */
+	public void setKeepWriterOpen(boolean keepWriterOpen) {
+		this.keepWriterOpen = keepWriterOpen;
+	}
+
+	/**
+	 * @see #setNormalized(boolean)
+	 */
+	public boolean isNormalized() {
+		return normalized;
+	}
+
+	/**
+	 * When enabled, each show's fields are indexed once per load, in a show Document, and each episode Document only
+	 * refers to its show by id, instead of carrying its own copy of the show's name, type and description.
+	 * Searches on show fields are joined from the matching shows to their episodes.
+	 */
+	public void setNormalized(boolean normalized) {
+		this.normalized = normalized;
+	}
+
+	/**
+	 * @see #setTypeahead(boolean)
+	 */
+	public boolean isTypeahead() {
+		return typeahead;
+	}
+
+	/**
+	 * When enabled, a suggester of show and episode names, for typeahead, is built after the first load, and brought up
+	 * to date after each later one, by adding, reweighting and deleting only the names whose airing counts changed
+	 * 
+	 * @see com.tivo.demo.tvsearch.TVShowSuggester
+	 */
+	public void setTypeahead(boolean typeahead) {
+		this.typeahead = typeahead;
+	}
+
+	/**
+	 * @see #setSortedByAirtime(boolean)
+	 */
+	public boolean isSortedByAirtime() {
+		return sortedByAirtime;
+	}
+
+	/**
+	 * When enabled, the IndexWriter keeps every segment sorted by airtime, so that searches for the next episodes to air
+	 * can stop collecting each segment after its first matches.  An existing index which isn't sorted yet is recreated
+	 * by the next load.
+	 * 
+	 * @see com.tivo.demo.tvsearch.TVShowSortOrder#AIRTIME
+	 */
+	public void setSortedByAirtime(boolean sortedByAirtime) {
+		this.sortedByAirtime = sortedByAirtime;
+	}
+
+	/**
+	 * @see #setSynonymsPath(Path)
+	 */
+	public Path getSynonymsPath() {
+		return synonymsPath;
+	}
+
+	/**
+	 * Location of a file of synonyms, in the Solr format, which are indexed along with each word of the show and episode
+	 * names, show type and summaries, so that a search for any of them finds the others.  Null (the default) for none.
+	 * Changed synonyms only apply to the episodes indexed after the change, so they need a full load.
+	 * 
+	 * @see com.tivo.demo.tvsearch.TVShowAnalyzers#loadSynonyms(Path)
+	 */
+	public void setSynonymsPath(Path synonymsPath) {
+		this.synonymsPath = synonymsPath;
+	}
+
+	/**
+	 * @see #setIndexingThreads(int)
+	 */
+	public int getIndexingThreads() {
+		return indexingThreads;
+	}
+
+	/**
+	 * Number of worker threads building Lucene Documents in parallel, while the show listing is parsed on the loading thread.
+	 * 0 (the default) builds and adds every Document on the loading thread.
+	 * 
+	 * @see IndexingPipeline
+	 */
+	public void setIndexingThreads(int indexingThreads) {
+		this.indexingThreads = indexingThreads;
+	}
+
+	/**
+	 * @see #setIndexingBatchSize(int)
+	 */
+	public int getIndexingBatchSize() {
+		return indexingBatchSize;
+	}
+
+	/**
+	 * Number of Documents each indexing worker thread collects before adding them to the IndexWriter together
+	 */
+	public void setIndexingBatchSize(int indexingBatchSize) {
+		this.indexingBatchSize = indexingBatchSize;
+	}
+
+	/**
+	 * @see #setIndexingQueueCapacity(int)
+	 */
+	public int getIndexingQueueCapacity() {
+		return indexingQueueCapacity;
+	}
+
+	/**
+	 * Number of parsed shows which may wait for an indexing worker thread, before parsing blocks until one is free
+	 */
+	public void setIndexingQueueCapacity(int indexingQueueCapacity) {
+		this.indexingQueueCapacity = indexingQueueCapacity;
+	}
+
+	/**
+	 * @see #setFetchConcurrency(int)
+	 */
+	public int getFetchConcurrency() {
+		return fetchConcurrency;
+	}
+
+	/**
+	 * Maximum number of schedule or channel screen pages being fetched at once
+	 * 
+	 * @see TVMazeScheduleFetcher
+	 * @see TivoShowLoader
+	 */
+	public void setFetchConcurrency(int fetchConcurrency) {
+		this.fetchConcurrency = fetchConcurrency;
+	}
+
+	/**
+	 * @see #setFetchRequestsPerSecond(double)
+	 */
+	public double getFetchRequestsPerSecond() {
+		return fetchRequestsPerSecond;
+	}
+
+	/**
+	 * Maximum rate of schedule requests, including retries, or 0 for no limit.
+	 * Defaults to the 20 calls per 10 seconds which api.tvmaze.com allows.
+	 */
+	public void setFetchRequestsPerSecond(double fetchRequestsPerSecond) {
+		this.fetchRequestsPerSecond = fetchRequestsPerSecond;
+	}
+
+	/**
+	 * @see #setFetchMaxRetries(int)
+	 */
+	public int getFetchMaxRetries() {
+		return fetchMaxRetries;
+	}
+
+	/**
+	 * Number of times a schedule request is retried after a connection failure, or a 429 or 5xx response
+	 */
+	public void setFetchMaxRetries(int fetchMaxRetries) {
+		this.fetchMaxRetries = fetchMaxRetries;
+	}
+
+	/**
+	 * @see #setFetchRetryBackoffMillis(long)
+	 */
+	public long getFetchRetryBackoffMillis() {
+		return fetchRetryBackoffMillis;
+	}
+
+	/**
+	 * Delay before the first retry of a schedule request, doubling for each further retry
+	 */
+	public void setFetchRetryBackoffMillis(long fetchRetryBackoffMillis) {
+		this.fetchRetryBackoffMillis = fetchRetryBackoffMillis;
+	}
+
+	/**
+	 * @see #setResponseCachePath(Path)
+	 */
+	public Path getResponseCachePath() {
+		return responseCachePath;
+	}
+
+	/**
+	 * Directory in which to cache show listing responses, together with their ETag and Last-Modified validators, or null
+	 * (the default) to fetch the whole listing every time.  When set, the listing is requested conditionally, and a load
+	 * whose listing has not been modified since the last load is skipped without touching the index.
+	 * 
+	 * @see ListingResponseCache
+	 */
+	public void setResponseCachePath(Path responseCachePath) {
+		this.responseCachePath = responseCachePath;
+	}
+
+	/**
+	 * @see #setResponseCacheMaxBytes(long)
+	 */
+	public long getResponseCacheMaxBytes() {
+		return responseCacheMaxBytes;
+	}
+
+	/**
+	 * Total size of the cached response bodies, beyond which the least recently used are evicted
+	 */
+	public void setResponseCacheMaxBytes(long responseCacheMaxBytes) {
+		this.responseCacheMaxBytes = responseCacheMaxBytes;
+	}
+}
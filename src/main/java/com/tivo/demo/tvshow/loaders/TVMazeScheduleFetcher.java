@@ -0,0 +1,161 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+import com.tivo.demo.util.ThreadPools;
+
+/**
+ * Fetches the TVMaze schedule for every (date, country) pair of a date range and a set of countries, concurrently.
+ *
+ * Every request goes through one shared HttpClient, so connections to the API are reused (and, over HTTPS, multiplexed
+ * on a single HTTP/2 connection) rather than opened per page.  Requests run on virtual threads where the JVM has them,
+ * limited to the configured concurrency and request rate.  Connection failures and 429 or 5xx responses are retried
+ * with exponential backoff.  Each page's body is handed over as a stream of episodes while it is still arriving.
+ */
+public class TVMazeScheduleFetcher implements Closeable {
+
+	/**
+	 * Handles the episodes of one schedule page.  Called concurrently, from the fetching threads.
+	 */
+	public interface PageHandler {
+		/**
+		 * @param date
+		 * @param country
+		 * @param episodes The episodes of the page, parsed as the response body arrives
+		 * @throws IOException
+		 */
+		void handle(LocalDate date, String country, JSONObjectStream episodes) throws IOException;
+	}
+
+	public static final URI DEFAULT_SCHEDULE_URI = URI.create("https://api.tvmaze.com/schedule");
+
+	private final URI scheduleURI;
+	private final RetryingHttpClient client;
+	private final ExecutorService executor;
+	private final Semaphore concurrencyLimit;
+
+
+	/**
+	 * @param scheduleURI The schedule API, to which the country and date parameters are added
+	 * @param config Concurrency, rate limit and retry options
+	 */
+	public TVMazeScheduleFetcher(URI scheduleURI, ShowLoaderConfig config) {
+		int concurrency = Math.max(1, config.getFetchConcurrency());
+
+		this.scheduleURI = scheduleURI;
+		this.executor = ThreadPools.newTaskExecutor("tvmaze-schedule-fetch", concurrency);
+		this.concurrencyLimit = new Semaphore(concurrency);
+		this.client = new RetryingHttpClient(config);
+	}
+
+
+	/**
+	 * Fetch every page concurrently, and wait for them all to be handled
+	 * @param from First date, inclusive
+	 * @param to Last date, inclusive
+	 * @param countries ISO country codes
+	 * @param handler
+	 * @return The number of pages fetched
+	 * @throws IOException If any page could not be fetched or handled, once the other pages have finished
+	 */
+	public int fetchAll(LocalDate from, LocalDate to, Collection<String> countries, PageHandler handler) throws IOException {
+		List<CompletableFuture<Void>> pages = new ArrayList<>();
+
+		for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+			for (String country : countries) {
+				LocalDate pageDate = date;
+				pages.add(CompletableFuture.runAsync(() -> {
+					try {
+						fetchPage(pageDate, country, handler);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, executor));
+			}
+		}
+
+		IOException failure = null;
+		for (CompletableFuture<Void> page : pages) {
+			try {
+				page.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+				if (failure == null) {
+					failure = cause instanceof IOException ? (IOException) cause : new IOException("Schedule fetch failed", cause);
+				}
+				else {
+					failure.addSuppressed(cause);
+				}
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+		return pages.size();
+	}
+
+
+	/**
+	 * Fetch one page, once a concurrency permit is free, and hand its episodes to the handler
+	 */
+	private void fetchPage(LocalDate date, String country, PageHandler handler) throws IOException {
+		try {
+			concurrencyLimit.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to fetch the schedule");
+		}
+
+		try {
+			HttpResponse<InputStream> response = send(date, country);
+			try (JSONObjectStream episodes = new JSONObjectStream(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+				handler.handle(date, country, episodes);
+			}
+		} finally {
+			concurrencyLimit.release();
+		}
+	}
+
+
+	/**
+	 * Send the request for one page, retrying with backoff
+	 * @return A successful response, whose body has not been read yet
+	 * @throws IOException If the request still fails after every retry, or fails with a response which is not worth retrying
+	 */
+	private HttpResponse<InputStream> send(LocalDate date, String country) throws IOException {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(scheduleURI + "?country=" + country + "&date=" + date))
+				.timeout(RetryingHttpClient.REQUEST_TIMEOUT)
+				.header("Accept", "application/json")
+				.GET()
+				.build();
+
+		return client.send(() -> request);
+	}
+
+
+	/**
+	 * Stop the fetching threads
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,133 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.IndexWriter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.tivo.demo.util.ThrottledLogger;
+
+/**
+ * Loads the TVMaze schedules of a range of dates in several countries, instead of only today's US schedule.
+ *
+ * All of the (date, country) pages are fetched concurrently by a {@link TVMazeScheduleFetcher}, and indexed by the same
+ * document-building path as {@link TVMazeShowLoader}.  With streaming enabled in the config, every page is parsed
+ * straight into one shared indexing pipeline as it arrives.
+ */
+public class TVMazeScheduleLoader extends TVMazeShowLoader {
+
+	private static final Logger LOG = Logger.getLogger(TVMazeScheduleLoader.class.getName());
+
+	//A range of dates and countries can be hundreds of pages, so their progress is only logged every few seconds
+	private static final ThrottledLogger PAGE_LOG = new ThrottledLogger(LOG, 5, TimeUnit.SECONDS);
+
+	private final URI scheduleURI;
+	private final LocalDate from, to;
+	private final List<String> countries;
+
+
+	/**
+	 * Construct the Lucene search index, and load the schedule of every country for every date in the range into it
+	 * @param config
+	 * @param from First date, inclusive
+	 * @param to Last date, inclusive
+	 * @param countries ISO country codes, such as US or GB
+	 * @throws IOException
+	 */
+	public TVMazeScheduleLoader(ShowLoaderConfig config, LocalDate from, LocalDate to, String... countries) throws IOException {
+		this(config, TVMazeScheduleFetcher.DEFAULT_SCHEDULE_URI, from, to, countries);
+	}
+
+	/**
+	 * As above, but fetching from the given schedule API
+	 * @param config
+	 * @param scheduleURI
+	 * @param from
+	 * @param to
+	 * @param countries
+	 * @throws IOException
+	 */
+	protected TVMazeScheduleLoader(ShowLoaderConfig config, URI scheduleURI, LocalDate from, LocalDate to, String... countries) throws IOException {
+		super(config, false);
+		this.scheduleURI = scheduleURI;
+		this.from = from;
+		this.to = to;
+		this.countries = Arrays.asList(countries);
+		load();
+	}
+
+
+	/**
+	 * There is no single schedule response to check, so every load fetches every page
+	 */
+	@Override
+	protected boolean isListingModified() {
+		return true;
+	}
+
+
+	/**
+	 * Fetch every page, and collect all of their episodes into a single listing
+	 */
+	@Override
+	public JSONArray getShowListing() throws IOException {
+		JSONArray allShowsJson = new JSONArray();
+
+		try (TVMazeScheduleFetcher fetcher = new TVMazeScheduleFetcher(scheduleURI, config)) {
+			fetcher.fetchAll(from, to, countries, (date, country, episodes) -> {
+				JSONArray page = new JSONArray();
+				while (episodes.hasNext()) {
+					page.put(episodes.next());
+				}
+				PAGE_LOG.log(Level.INFO, () -> "Fetched " + country + " schedule for " + date + ": " + page.length() + " episodes");
+
+				synchronized (allShowsJson) {
+					for (int i = 0; i < page.length(); i++) {
+						allShowsJson.put(page.get(i));
+					}
+				}
+			});
+		}
+
+		LOG.info("JSON Array length: " + allShowsJson.length());
+		return allShowsJson;
+	}
+
+
+	/**
+	 * Fetch every page, handing each episode to one shared indexing pipeline as soon as it is parsed.  The index is
+	 * cleared once the first page is open, and a page which fails fails the whole load, leaving the index as it was.
+	 */
+	@Override
+	public void streamShowsIntoIndex(IndexWriter indexWriter) throws IOException {
+		AtomicInteger episodeCount = new AtomicInteger();
+
+		try (TVMazeScheduleFetcher fetcher = new TVMazeScheduleFetcher(scheduleURI, config);
+				IndexingPipeline<JSONObject> pipeline = openEpisodePipeline(indexWriter)) {
+			fetcher.fetchAll(from, to, countries, (date, country, episodes) -> {
+				clearIndexForFullLoad();
+				int pageCount = addEpisodes(episodes, pipeline);
+				episodeCount.addAndGet(pageCount);
+				PAGE_LOG.log(Level.INFO, () -> "Streamed " + country + " schedule for " + date + ": " + pageCount + " episodes");
+			});
+
+			//DEBUG
+			if (episodeCount.get() == 0) {
+				//Every page was fetched, and all were empty, or there were none
+				clearIndexForFullLoad();
+				addSampleShowToIndex(pipeline);
+			}
+		}
+
+		LOG.info("Streamed episode count: " + episodeCount);
+	}
+}
@@ -1,88 +1,354 @@
 package com.tivo.demo.tvshow.loaders;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
 import org.json.JSONArray;
+import org.json.JSONObject;
 
-import com.tivo.demo.tvshow.loaders.oauth.OAuthSignatureGenerator;
+import com.tivo.demo.tvshow.TVShowEpisode;
+import com.tivo.demo.tvshow.loaders.oauth.OAuthSigner;
+import com.tivo.demo.util.ThreadPools;
+import com.tivo.demo.util.ThrottledLogger;
 
+/**
+ * Loads the TiVo channel screen of a data service, page by page.
+ *
+ * The number of pages isn't known up front, so the configured number of threads each take the next page offset in
+ * turn, until a page comes back shorter than the page size.  Every request is signed by one shared {@link OAuthSigner},
+ * and sent through one shared HTTP/2 client, with the same rate limit and retries as the TVMaze schedule fetches.
+ */
 public class TivoShowLoader extends AbstractShowLoader {
 
-	private final String TIVO_DATA_SERVICE_ID_USEAST = "4068858495";
-	private final String TIVO_DATA_SERVICE_CHANNELS_SCREEN = "https://developers.tivo.com/api/v1/resolve/3/data_service_channels/screen?id=";
-	
+	private static final Logger LOG = Logger.getLogger(TivoShowLoader.class.getName());
+
+	//A data service can have thousands of pages, so their progress is only logged every few seconds
+	private static final ThrottledLogger PAGE_LOG = new ThrottledLogger(LOG, 5, TimeUnit.SECONDS);
+
+	private static final String TIVO_DATA_SERVICE_ID_USEAST = "4068858495";
+	public static final URI TIVO_DATA_SERVICE_CHANNELS_SCREEN = URI.create("https://developers.tivo.com/api/v1/resolve/3/data_service_channels/screen");
+
+	//Items requested per page
+	static final int PAGE_SIZE = 100;
+
+	//Channel screen item keys
+	private final String itemIdKey = "id";
+	private final String itemTitleKey = "title";
+	private final String itemDescriptionKey = "description";
+	private final String itemTypeKey = "type";
+	private final String itemCallSignKey = "callSign";
+	private final String itemImageURLKey = "image";
+
+	private final URI screenURI;
+	private final String dataServiceId;
+	private final String consumerKey, consumerSecret;
+	private final OAuthSigner signer = new OAuthSigner();
+
+	//Each indexing thread reads items into, and maps them onto, its own reused instances for each slot of its batches
+	private final EpisodeDocumentMapper.Slots mappers = new EpisodeDocumentMapper.Slots();
+
+
+	/**
+	 * Construct the Lucene search index, and load the US East data service into it, signing with the consumer key and
+	 * secret in the tivo.consumer.key and tivo.consumer.secret system properties
+	 * @throws IOException
+	 */
 	public TivoShowLoader() throws IOException {
-		
+		this(new ShowLoaderConfig(), System.getProperty("tivo.consumer.key", ""), System.getProperty("tivo.consumer.secret", ""));
+	}
+
+	/**
+	 * Construct the Lucene search index, and load the US East data service into it, using the given options
+	 * @param config
+	 * @param consumerKey The public API key, provided by TiVo
+	 * @param consumerSecret
+	 * @throws IOException
+	 */
+	public TivoShowLoader(ShowLoaderConfig config, String consumerKey, String consumerSecret) throws IOException {
+		this(config, TIVO_DATA_SERVICE_CHANNELS_SCREEN, TIVO_DATA_SERVICE_ID_USEAST, consumerKey, consumerSecret);
 	}
 
-	
+	/**
+	 * As above, but loading the given data service from the given channel screen API
+	 * @param config
+	 * @param screenURI
+	 * @param dataServiceId
+	 * @param consumerKey
+	 * @param consumerSecret
+	 * @throws IOException
+	 */
+	protected TivoShowLoader(ShowLoaderConfig config, URI screenURI, String dataServiceId, String consumerKey, String consumerSecret) throws IOException {
+		super(config, false);
+		this.screenURI = screenURI;
+		this.dataServiceId = dataServiceId;
+		this.consumerKey = consumerKey;
+		this.consumerSecret = consumerSecret;
+
+		try {
+			load();
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Exception caught loading the show listing", e);
+		}
+	}
+
+
+	/**
+	 * Handles the items of one channel screen page.  Called concurrently, from the fetching threads.
+	 */
+	private interface PageHandler {
+		/**
+		 * @param offset
+		 * @param items The items of the page, parsed as the response body arrives
+		 * @return The number of items
+		 * @throws IOException
+		 */
+		int handle(int offset, JSONObjectStream items) throws IOException;
+	}
+
+
+	/**
+	 * There is no single listing response to check, so every load fetches every page
+	 */
+	@Override
+	protected boolean isListingModified() {
+		return true;
+	}
+
+
+	/**
+	 * Fetch every page, and collect all of their items into a single listing, in page order
+	 */
 	@Override
 	public JSONArray getShowListing() throws IOException {
-		JSONArray shows = null;
-		
-		String url = TIVO_DATA_SERVICE_CHANNELS_SCREEN + TIVO_DATA_SERVICE_ID_USEAST;
-		System.out.println("Querying Tivo show listing URL: " + url);
-        System.out.println();
-
-        OAuthSignatureGenerator oauth = new OAuthSignatureGenerator();
-        String consumerKey = "";
-        String consumerSecret = "";
-        
-        String oauthHeader = null;
-        try {
-        	String signature = oauth.generateSignature("GET", url, consumerKey, consumerSecret);
-        	oauthHeader = oauth.buildAuthorizationHeader(consumerKey, signature);
-        	
-        	System.out.println("OAuth header: " + oauthHeader);
-            System.out.println();
-        } catch (UnsupportedEncodingException | NoSuchAlgorithmException | InvalidKeyException e) {
-        	System.err.println("Exception caught generating OAuth signature: " + e);
-        	e.printStackTrace();
-        	throw new IOException(e);
-        }
-        
-        URL u = new URL(url);
-        HttpURLConnection conn = (HttpURLConnection) u.openConnection();
-        
-        conn.setRequestMethod("GET");
-        conn.setRequestProperty("content-type",	"application/json");
-        conn.setRequestProperty("Accept", "application/json");
-        conn.setRequestProperty("Authorization", oauthHeader);
-        
-        conn.connect();
-        
-        System.out.println("Response code: " + conn.getResponseCode());
-        System.out.println("Response message: " + conn.getResponseMessage());
-        
-        String jsonResponse = null;
-        
-        if (conn.getResponseCode() == 200) {
-        	jsonResponse = extractResponse(conn);
-        	
-            System.out.println("Response content: " + jsonResponse);
-            
-            shows = new JSONArray(jsonResponse);
-            
-            System.out.println("JSON Array length: " + shows.length());
-        }
-        else {
-            System.out.println("Request failed with response code: " + conn.getResponseCode());
-        }
-        
+		Map<Integer, JSONArray> pages = new ConcurrentSkipListMap<>();
+
+		fetchAll((offset, items) -> {
+			JSONArray page = new JSONArray();
+			while (items.hasNext()) {
+				page.put(items.next());
+			}
+			pages.put(offset, page);
+			return page.length();
+		});
+
+		JSONArray shows = new JSONArray();
+		for (JSONArray page : pages.values()) {
+			for (int i = 0; i < page.length(); i++) {
+				shows.put(page.get(i));
+			}
+		}
+
+		LOG.info("JSON Array length: " + shows.length());
 		return shows;
 	}
 
-	
+
+	/**
+	 * Fetch every page, handing each item to one shared indexing pipeline as soon as it is parsed.  The index is
+	 * cleared once the first page is open, and a page which fails fails the whole load, leaving the index as it was.
+	 */
+	@Override
+	public void streamShowsIntoIndex(IndexWriter indexWriter) throws IOException {
+		int itemCount;
+		try (IndexingPipeline<JSONObject> pipeline = openItemPipeline(indexWriter)) {
+			itemCount = fetchAll((offset, items) -> {
+				clearIndexForFullLoad();
+				int pageCount = 0;
+				while (items.hasNext()) {
+					pipeline.add(items.next());
+					pageCount++;
+				}
+				return pageCount;
+			});
+		}
+
+		LOG.info("Streamed item count: " + itemCount);
+	}
+
+
 	@Override
 	public void loadShowsIntoIndex(JSONArray allShowsJson, IndexWriter indexWriter) throws IOException {
-		
+		try (IndexingPipeline<JSONObject> pipeline = openItemPipeline(indexWriter)) {
+			for (int i = 0; i < allShowsJson.length(); i++) {
+				pipeline.add(allShowsJson.optJSONObject(i));
+			}
+		}
+	}
+
+
+	/**
+	 * Fetch pages on the configured number of threads, each taking the next offset, until one comes back short
+	 * @param handler
+	 * @return The number of items on every page
+	 * @throws IOException If any page could not be fetched or handled, once the other threads have stopped
+	 */
+	private int fetchAll(PageHandler handler) throws IOException {
+		int threads = Math.max(1, config.getFetchConcurrency());
+		RetryingHttpClient client = new RetryingHttpClient(config);
+		AtomicInteger nextPage = new AtomicInteger(), lastPage = new AtomicInteger(Integer.MAX_VALUE), itemCount = new AtomicInteger();
+
+		ExecutorService executor = ThreadPools.newTaskExecutor("tivo-screen-fetch", threads);
+		try {
+			List<CompletableFuture<Void>> workers = new ArrayList<>(threads);
+			for (int i = 0; i < threads; i++) {
+				workers.add(CompletableFuture.runAsync(() -> {
+					try {
+						for (int page = nextPage.getAndIncrement(); page <= lastPage.get(); page = nextPage.getAndIncrement()) {
+							int pageCount = fetchPage(client, page * PAGE_SIZE, handler);
+							itemCount.addAndGet(pageCount);
+
+							//Pages past the end come back empty, so the threads already fetching them stop too
+							if (pageCount < PAGE_SIZE) {
+								lastPage.accumulateAndGet(page, Math::min);
+							}
+							int offset = page * PAGE_SIZE;
+							PAGE_LOG.log(Level.INFO, () -> "Fetched channel screen at offset " + offset + ": " + pageCount + " items");
+						}
+					} catch (IOException e) {
+						//Stop the other threads from taking any more pages
+						lastPage.set(-1);
+						throw new UncheckedIOException(e);
+					}
+				}, executor));
+			}
+
+			IOException failure = null;
+			for (CompletableFuture<Void> worker : workers) {
+				try {
+					worker.join();
+				} catch (CompletionException e) {
+					Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+					if (failure == null) {
+						failure = cause instanceof IOException ? (IOException) cause : new IOException("Channel screen fetch failed", cause);
+					}
+					else {
+						failure.addSuppressed(cause);
+					}
+				}
+			}
+
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return itemCount.get();
+	}
+
+
+	/**
+	 * Sign and fetch one page, and hand its items to the handler.  Each retry is signed again, with a new nonce.
+	 */
+	private int fetchPage(RetryingHttpClient client, int offset, PageHandler handler) throws IOException {
+		String url = screenURI + "?id=" + dataServiceId + "&offset=" + offset + "&count=" + PAGE_SIZE;
+		LOG.finer(() -> "Querying Tivo channel screen URL: " + url);
 
+		HttpResponse<InputStream> response = client.send(() -> {
+			String oauthHeader;
+			try {
+				oauthHeader = signer.sign("GET", url, consumerKey, consumerSecret);
+			} catch (InvalidKeyException e) {
+				throw new IOException("Exception caught generating OAuth signature", e);
+			}
+			LOG.finest(() -> "OAuth header: " + oauthHeader);
+
+			return HttpRequest.newBuilder(URI.create(url))
+					.timeout(RetryingHttpClient.REQUEST_TIMEOUT)
+					.header("Accept", "application/json")
+					.header("Authorization", oauthHeader)
+					.GET()
+					.build();
+		});
+
+		try (JSONObjectStream items = new JSONObjectStream(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+			return handler.handle(offset, items);
+		}
+	}
+
+
+	/**
+	 * Open a pipeline which indexes channel screen items.  The caller must close it.
+	 * @param indexWriter
+	 * @return
+	 */
+	private IndexingPipeline<JSONObject> openItemPipeline(IndexWriter indexWriter) {
+		return openIndexingPipeline(indexWriter, new IndexingPipeline.DocumentBuilder<JSONObject>() {
+			@Override
+			public Document build(JSONObject itemJson) {
+				return buildItemDocument(itemJson, 0);
+			}
+
+			@Override
+			public void buildAll(JSONObject itemJson, int slot, List<Document> docs) {
+				Document doc = buildItemDocument(itemJson, slot);
+				if (doc != null) {
+					docs.add(doc);
+				}
+			}
+
+			@Override
+			public boolean reusesDocuments() {
+				return true;
+			}
+		});
 	}
 
+
+	/**
+	 * Read one channel screen item into the reused episode of this thread's batch slot, and map it to the slot's reused
+	 * Document.  Called concurrently by the indexing pipeline's worker threads.
+	 * @param itemJson
+	 * @param slot
+	 * @return The Document, or null if the item is not an object, or hasn't changed since the last incremental load
+	 */
+	private Document buildItemDocument(JSONObject itemJson, int slot) {
+		if (itemJson == null) {
+			return null;
+		}
+
+		EpisodeDocumentMapper mapper = mappers.get(slot);
+		TVShowEpisode episode = mapper.getEpisode();
+		episode.clear();
+
+		Object itemId = itemJson.opt(itemIdKey);
+		episode.setEpisodeId(itemId == null ? null : itemId.toString());
+		episode.setShowName(itemJson.optString(itemTitleKey));
+		episode.setShowDescription(itemJson.optString(itemDescriptionKey));
+		episode.setShowType(itemJson.optString(itemTypeKey));
+		episode.setShowImageURL(itemJson.optString(itemImageURLKey));
+		episode.setNetwork(itemJson.optString(itemCallSignKey, null));
+		if (episode.getEpisodeId() == null) {
+			episode.setEpisodeId(EpisodeDeltaTracker.derivedKey(episode));
+		}
+
+		//During an incremental load, skip the items which haven't changed since the last load
+		EpisodeDeltaTracker tracker = deltaTracker;
+		long contentHash = EpisodeDeltaTracker.episodeContentHash(episode);
+		if (tracker != null && !tracker.isChanged(episode.getEpisodeId(), contentHash)) {
+			return null;
+		}
+
+		return mapper.mapEpisode(episode, contentHash);
+	}
 }
@@ -0,0 +1,308 @@
+package com.tivo.demo.tvshow.loaders.oauth;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs requests with OAuth 1.0 HMAC-SHA1 signatures, and builds their Authorization headers, the same way as
+ * {@link OAuthSignatureGenerator}, but with a fresh nonce and timestamp for every request, so one signer can sign any
+ * number of requests, from any number of threads at once.
+ *
+ * Each thread keeps its own Mac, initialized once per consumer secret, its own SecureRandom for the nonces, and its own
+ * buffers for the signature base string, so signing a request only allocates its decoded parameters and the header.
+ *
+ * @see <a href="http://tools.ietf.org/html/rfc5849#section-3.4">RFC5849 OAuth 1.0 Signature</a>
+ */
+public class OAuthSigner {
+
+	private static final String HMAC_SHA1 = "HmacSHA1";
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	//A thread signing for more consumer secrets than this starts over, rather than keeping a Mac for every one
+	private static final int MAX_MACS_PER_THREAD = 16;
+
+	private final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(ThreadState::new);
+
+
+	/**
+	 * Sign a request, with a new nonce and the current timestamp
+	 * @param httpMethod The HTTP request method, in uppercase
+	 * @param url The HTTP request URL, including its query parameters
+	 * @param consumerKey The public API key, provided by TiVo
+	 * @param consumerSecret The secret the signature is keyed with, which is never sent
+	 * @return The value of the request's Authorization header
+	 * @throws InvalidKeyException
+	 */
+	public String sign(String httpMethod, String url, String consumerKey, String consumerSecret) throws InvalidKeyException {
+		ThreadState state = threadState.get();
+		return sign(httpMethod, url, consumerKey, consumerSecret, state.nextNonce(), String.valueOf(System.currentTimeMillis() / 1000));
+	}
+
+
+	/**
+	 * Sign a request with the given nonce and timestamp, for reproducible signatures
+	 * @param httpMethod
+	 * @param url
+	 * @param consumerKey
+	 * @param consumerSecret
+	 * @param nonce
+	 * @param timestamp Seconds since the epoch
+	 * @return The value of the request's Authorization header
+	 * @throws InvalidKeyException
+	 */
+	public String sign(String httpMethod, String url, String consumerKey, String consumerSecret, String nonce, String timestamp) throws InvalidKeyException {
+		ThreadState state = threadState.get();
+
+		/**
+		 * Request Parameters: the query parameters and the OAuth parameters, each name and value percent-encoded, sorted
+		 * by name and then value
+		 *
+		 * @see <a href="http://tools.ietf.org/html/rfc5849#section-3.4.1.3">RFC5849 Request Parameters</a>
+		 */
+		int query = url.indexOf('?');
+		state.clearParams();
+		if (query != -1) {
+			int start = query + 1;
+			while (start <= url.length()) {
+				int end = url.indexOf('&', start);
+				if (end == -1) {
+					end = url.length();
+				}
+				if (end > start) {
+					int equals = url.indexOf('=', start);
+					if (equals == -1 || equals > end) {
+						state.addParam(decode(url, start, end), "");
+					}
+					else {
+						state.addParam(decode(url, start, equals), decode(url, equals + 1, end));
+					}
+				}
+				start = end + 1;
+			}
+		}
+		state.addParam("oauth_consumer_key", consumerKey);
+		state.addParam("oauth_nonce", nonce);
+		state.addParam("oauth_signature_method", "HMAC-SHA1");
+		state.addParam("oauth_timestamp", timestamp);
+		state.addParam("oauth_version", "1.0");
+		state.sortParams();
+
+		StringBuilder params = state.params;
+		params.setLength(0);
+		for (int i = 0; i < state.paramCount; i++) {
+			if (i > 0) {
+				params.append('&');
+			}
+			params.append(state.names[i]).append('=').append(state.values[i]);
+		}
+
+		/**
+		 * Signature Base String: the method, the base URL and the parameters, percent-encoded and joined by "&"
+		 *
+		 * @see <a href="http://tools.ietf.org/html/rfc5849#section-3.4.1.1">RFC5849 String Construction</a>
+		 */
+		StringBuilder base = state.base;
+		base.setLength(0);
+		base.append(httpMethod).append('&');
+		percentEncode(query == -1 ? url : url.substring(0, query), base);
+		base.append('&');
+		percentEncode(params, base);
+
+		Mac mac = state.mac(consumerSecret);
+		mac.update(state.ascii(base), 0, base.length());
+		String signature = Base64.getEncoder().encodeToString(mac.doFinal());
+
+		StringBuilder header = new StringBuilder(160 + consumerKey.length());
+		header.append("OAuth oauth_consumer_key=").append(consumerKey)
+				.append(", oauth_version=1.0")
+				.append(", oauth_signature_method=HMAC-SHA1")
+				.append(", oauth_timestamp=").append(timestamp)
+				.append(", oauth_nonce=").append(nonce)
+				.append(", oauth_signature=");
+		percentEncode(signature, header);
+		return header.toString();
+	}
+
+
+	/**
+	 * OAuth 1.0 percent encoding, of the UTF-8 bytes of everything but the unreserved characters
+	 *
+	 * @see <a href="http://tools.ietf.org/html/rfc5849#section-3.6">RFC5849 Percent Encoding</a>
+	 */
+	static void percentEncode(CharSequence s, StringBuilder out) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~') {
+				out.append(c);
+			}
+			else if (c < 0x80) {
+				appendEscaped(out, c);
+			}
+			else {
+				int end = Character.isHighSurrogate(c) && i + 1 < s.length() ? i + 2 : i + 1;
+				for (byte b : s.subSequence(i, end).toString().getBytes(StandardCharsets.UTF_8)) {
+					appendEscaped(out, b & 0xFF);
+				}
+				i = end - 1;
+			}
+		}
+	}
+
+	private static void appendEscaped(StringBuilder out, int b) {
+		out.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+	}
+
+
+	/**
+	 * Decode a query parameter name or value the way URLDecoder does, as UTF-8 with '+' for a space
+	 */
+	static String decode(String s, int start, int end) {
+		int escape = -1;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '%' || c == '+') {
+				escape = i;
+				break;
+			}
+		}
+		if (escape == -1) {
+			return s.substring(start, end);
+		}
+
+		StringBuilder decoded = new StringBuilder(end - start).append(s, start, escape);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (int i = escape; i < end; ) {
+			char c = s.charAt(i);
+			if (c == '%' && i + 2 < end) {
+				//Consecutive escapes may be the bytes of one multi-byte character
+				bytes.reset();
+				while (i + 2 < end && s.charAt(i) == '%') {
+					bytes.write(Integer.parseInt(s, i + 1, i + 3, 16));
+					i += 3;
+				}
+				decoded.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+			}
+			else {
+				decoded.append(c == '+' ? ' ' : c);
+				i++;
+			}
+		}
+		return decoded.toString();
+	}
+
+
+	/**
+	 * One thread's Macs, nonce source and buffers
+	 */
+	private static final class ThreadState {
+		final Map<String, Mac> macs = new HashMap<>();
+		final SecureRandom random = newRandom();
+
+		final StringBuilder base = new StringBuilder(512), params = new StringBuilder(256);
+		String[] names = new String[16], values = new String[16];
+		int paramCount;
+		byte[] bytes = new byte[512];
+
+		/**
+		 * @return A Mac keyed with the secret, ready for a new signature
+		 * @throws InvalidKeyException
+		 */
+		Mac mac(String consumerSecret) throws InvalidKeyException {
+			Mac mac = macs.get(consumerSecret);
+			if (mac == null) {
+				if (macs.size() >= MAX_MACS_PER_THREAD) {
+					macs.clear();
+				}
+				try {
+					mac = Mac.getInstance(HMAC_SHA1);
+				} catch (NoSuchAlgorithmException e) {
+					//Every Java platform is required to support HmacSHA1
+					throw new IllegalStateException(e);
+				}
+				mac.init(new SecretKeySpec((consumerSecret + "&").getBytes(StandardCharsets.UTF_8), HMAC_SHA1));
+				macs.put(consumerSecret, mac);
+			}
+			return mac;
+		}
+
+		/**
+		 * @return The characters, as bytes, in a reused buffer.  Percent-encoding leaves nothing but ASCII.
+		 */
+		byte[] ascii(CharSequence s) {
+			if (bytes.length < s.length()) {
+				bytes = new byte[Math.max(s.length(), bytes.length * 2)];
+			}
+			for (int i = 0; i < s.length(); i++) {
+				bytes[i] = (byte) s.charAt(i);
+			}
+			return bytes;
+		}
+
+		/**
+		 * @return 64 random bits, in base 36
+		 */
+		String nextNonce() {
+			return Long.toUnsignedString(random.nextLong(), Character.MAX_RADIX);
+		}
+
+		void clearParams() {
+			paramCount = 0;
+		}
+
+		/**
+		 * Add a parameter, percent-encoding its name and value
+		 */
+		void addParam(String name, String value) {
+			if (paramCount == names.length) {
+				names = Arrays.copyOf(names, paramCount * 2);
+				values = Arrays.copyOf(values, paramCount * 2);
+			}
+			base.setLength(0);
+			percentEncode(name, base);
+			names[paramCount] = base.toString();
+			base.setLength(0);
+			percentEncode(value, base);
+			values[paramCount] = base.toString();
+			paramCount++;
+		}
+
+		/**
+		 * Insertion sort, by name and then value, since requests only have a handful of parameters
+		 */
+		void sortParams() {
+			for (int i = 1; i < paramCount; i++) {
+				String name = names[i], value = values[i];
+				int j = i - 1;
+				while (j >= 0 && (names[j].compareTo(name) > 0 || (names[j].equals(name) && values[j].compareTo(value) > 0))) {
+					names[j + 1] = names[j];
+					values[j + 1] = values[j];
+					j--;
+				}
+				names[j + 1] = name;
+				values[j + 1] = value;
+			}
+		}
+
+		/**
+		 * A DRBG per thread, so that no two threads contend for a nonce, falling back to the platform default
+		 */
+		private static SecureRandom newRandom() {
+			try {
+				return SecureRandom.getInstance("DRBG");
+			} catch (GeneralSecurityException e) {
+				return new SecureRandom();
+			}
+		}
+	}
+}
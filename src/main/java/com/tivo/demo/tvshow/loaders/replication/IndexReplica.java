@@ -0,0 +1,239 @@
+package com.tivo.demo.tvshow.loaders.replication;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * The receiving end of replication: a read replica's copy of every shard of the index, which its searchers open as
+ * they would the indexing node's.
+ *
+ * Files are written as they are received, but a commit's segments file is kept under a pending name until the commit
+ * of every shard is published, so a searcher never sees a commit whose files are still arriving.  Once the listeners
+ * have reopened the searchers, the files the new commits no longer use are deleted.  A file an old reader still has
+ * open may not be deletable on some platforms, in which case it is deleted after a later publish instead.
+ */
+public class IndexReplica {
+
+	private static final Logger LOG = Logger.getLogger(IndexReplica.class.getName());
+
+	/**
+	 * Told whenever new commits are published, typically to reopen a searcher of the replica's shards
+	 */
+	public interface PublishListener {
+		void afterPublish() throws IOException;
+	}
+
+	private final Directory[] shards;
+	private final List<PublishListener> listeners = new CopyOnWriteArrayList<>();
+
+
+	/**
+	 * @param shards Where to keep each shard of the replica's index, in the same order as the indexing node's shards
+	 */
+	public IndexReplica(Directory... shards) {
+		this.shards = shards.clone();
+	}
+
+
+	/**
+	 * @param listener Called after every publish, once the new commits are visible to searchers
+	 */
+	public void addListener(PublishListener listener) {
+		listeners.add(listener);
+	}
+
+
+	/**
+	 * @param listener No longer called after publishes, such as a searcher which is being closed
+	 */
+	public void removeListener(PublishListener listener) {
+		listeners.remove(listener);
+	}
+
+
+	/**
+	 * @return Every shard of the replica's index, in shard order
+	 */
+	public Directory[] getShards() {
+		return shards.clone();
+	}
+
+
+	/**
+	 * @param shard
+	 * @return The checksum of each complete file of the shard, by file name.  Files which are still being written, or
+	 * were cut short, have no valid checksum, and are left out.
+	 * @throws IOException
+	 */
+	public synchronized Map<String, Long> listFiles(int shard) throws IOException {
+		Directory dir = shards[shard];
+		Map<String, Long> files = new HashMap<>();
+		for (String fileName : dir.listAll()) {
+			try {
+				files.put(fileName, IndexReplicator.checksum(dir, fileName));
+			} catch (IOException e) {
+				LOG.finer(() -> "Skipping incomplete file " + fileName + ": " + e);
+			}
+		}
+		return files;
+	}
+
+
+	/**
+	 * Write one file of a shard's commit, replacing any incomplete or stale file of the same name.
+	 * A segments file is written under its pending name, until it is published.
+	 * @param shard
+	 * @param fileName
+	 * @param in The file's contents
+	 * @param length
+	 * @throws IOException
+	 */
+	public synchronized void writeFile(int shard, String fileName, DataInput in, long length) throws IOException {
+		Directory dir = shards[shard];
+		String target = isSegmentsFile(fileName) ? pendingName(fileName) : fileName;
+		deleteIfExists(dir, target);
+
+		boolean success = false;
+		try {
+			try (IndexOutput out = dir.createOutput(target, IOContext.DEFAULT)) {
+				out.copyBytes(in, length);
+			}
+			success = true;
+		} finally {
+			if (!success) {
+				IOUtils.deleteFilesIgnoringExceptions(dir, target);
+			}
+		}
+	}
+
+
+	/**
+	 * Publish the commit of every shard, whose files must all have been written, tell the listeners, and then delete
+	 * every file the new commits don't use
+	 * @param segmentsFileNames The segments file of each shard's commit, in shard order
+	 * @throws IOException If any shard's commit is missing or corrupt, in which case no shard's commit is published
+	 */
+	public synchronized void publish(String[] segmentsFileNames) throws IOException {
+		if (segmentsFileNames.length != shards.length) {
+			throw new IllegalArgumentException("Expected the commits of " + shards.length + " shards, got " + segmentsFileNames.length);
+		}
+
+		//Read and sync every pending commit before any of them is renamed, so that a bad one publishes nothing
+		List<Set<String>> commitFiles = new ArrayList<>(shards.length);
+		boolean[] pending = new boolean[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			Directory dir = shards[i];
+			String segmentsFileName = segmentsFileNames[i];
+			Set<String> files = new HashSet<>();
+
+			pending[i] = exists(dir, pendingName(segmentsFileName));
+			String readFrom = pending[i] ? pendingName(segmentsFileName) : segmentsFileName;
+			try (ChecksumIndexInput input = dir.openChecksumInput(readFrom, IOContext.READONCE)) {
+				files.addAll(SegmentInfos.readCommit(dir, input, SegmentInfos.generationFromSegmentsFileName(segmentsFileName)).files(false));
+			}
+			if (pending[i]) {
+				List<String> sync = new ArrayList<>(files);
+				sync.add(readFrom);
+				dir.sync(sync);
+			}
+
+			files.add(segmentsFileName);
+			commitFiles.add(files);
+		}
+
+		for (int i = 0; i < shards.length; i++) {
+			if (pending[i]) {
+				//A rebuilt index numbers its commits from the start again, so the replica's older commits must go
+				//first, or searchers would still find them the latest
+				deleteOtherCommits(shards[i], segmentsFileNames[i]);
+				shards[i].rename(pendingName(segmentsFileNames[i]), segmentsFileNames[i]);
+				shards[i].syncMetaData();
+			}
+		}
+
+		for (PublishListener listener : listeners) {
+			listener.afterPublish();
+		}
+
+		for (int i = 0; i < shards.length; i++) {
+			deleteUnused(shards[i], commitFiles.get(i));
+		}
+	}
+
+
+	/**
+	 * Delete every file of a shard which isn't one of its current commit's
+	 */
+	private static void deleteUnused(Directory dir, Collection<String> commitFiles) throws IOException {
+		List<String> unused = new ArrayList<>();
+		for (String fileName : dir.listAll()) {
+			if (!commitFiles.contains(fileName) && !fileName.equals(IndexWriter.WRITE_LOCK_NAME)) {
+				unused.add(fileName);
+			}
+		}
+		IOUtils.deleteFilesIgnoringExceptions(dir, unused);
+	}
+
+
+	private static void deleteOtherCommits(Directory dir, String segmentsFileName) throws IOException {
+		List<String> others = new ArrayList<>();
+		for (String fileName : dir.listAll()) {
+			if (isSegmentsFile(fileName) && !fileName.equals(segmentsFileName)) {
+				others.add(fileName);
+			}
+		}
+		IOUtils.deleteFilesIgnoringExceptions(dir, others);
+	}
+
+
+	private static boolean isSegmentsFile(String fileName) {
+		return fileName.startsWith(IndexFileNames.SEGMENTS + "_");
+	}
+
+
+	/**
+	 * Lucene ignores pending segments files when it looks for an index's latest commit
+	 */
+	private static String pendingName(String segmentsFileName) {
+		return IndexFileNames.PENDING_SEGMENTS + segmentsFileName.substring(IndexFileNames.SEGMENTS.length());
+	}
+
+
+	private static boolean exists(Directory dir, String fileName) throws IOException {
+		try {
+			dir.fileLength(fileName);
+			return true;
+		} catch (NoSuchFileException | FileNotFoundException e) {
+			return false;
+		}
+	}
+
+
+	private static void deleteIfExists(Directory dir, String fileName) throws IOException {
+		try {
+			dir.deleteFile(fileName);
+		} catch (NoSuchFileException | FileNotFoundException e) {
+			//Nothing to replace
+		}
+	}
+}
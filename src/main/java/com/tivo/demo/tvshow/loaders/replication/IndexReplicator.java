@@ -0,0 +1,145 @@
+package com.tivo.demo.tvshow.loaders.replication;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.IOUtils;
+
+import com.tivo.demo.util.Metrics;
+
+/**
+ * The sending end of replication: copies each new commit of the indexing node's shards to every read replica, so that
+ * replicas can serve searches without fetching and indexing the listing themselves.
+ *
+ * Each replica is sent only the files it doesn't already have, which after an incremental load is just the segments
+ * written since the last commit.  A file is only skipped if the replica's copy has the same checksum, so a copy cut
+ * short by an earlier failure, or left over from an older index, is sent again.
+ */
+public class IndexReplicator implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(IndexReplicator.class.getName());
+
+	private final List<ReplicationTransport> replicas = new CopyOnWriteArrayList<>();
+
+
+	/**
+	 * @param replica Sent every commit from now on, and closed when the replicator is closed
+	 */
+	public void addReplica(ReplicationTransport replica) {
+		replicas.add(replica);
+	}
+
+
+	/**
+	 * @return True if there are any replicas to send commits to
+	 */
+	public boolean hasReplicas() {
+		return !replicas.isEmpty();
+	}
+
+
+	/**
+	 * Send a commit of every shard to every replica, and publish it there.  The commits' files must not be deleted
+	 * until this returns, so they are normally snapshots.
+	 * @param commits The commit of each shard, in shard order
+	 * @throws IOException If any replica could not be sent the commits, once every other replica has been.  The failed
+	 * replicas catch up the next time they are sent a commit.
+	 */
+	public void replicate(IndexCommit[] commits) throws IOException {
+		IOException failure = null;
+		for (ReplicationTransport replica : replicas) {
+			long start = System.nanoTime();
+			try {
+				long bytes = replicateTo(replica, commits);
+				Metrics.REPLICATION.recordSince(start);
+
+				LOG.fine(() -> "Replicated " + bytes + " bytes to " + replica);
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = new IOException("Replication failed", e);
+				}
+				else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+
+	/**
+	 * Send the files of every shard's commit which the replica doesn't have, segments files last, then publish them
+	 * @return The number of bytes sent
+	 */
+	private static long replicateTo(ReplicationTransport replica, IndexCommit[] commits) throws IOException {
+		long bytes = 0;
+		String[] segmentsFileNames = new String[commits.length];
+
+		for (int shard = 0; shard < commits.length; shard++) {
+			IndexCommit commit = commits[shard];
+			Directory dir = commit.getDirectory();
+			segmentsFileNames[shard] = commit.getSegmentsFileName();
+
+			Map<String, Long> replicaFiles = replica.listFiles(shard);
+			for (String fileName : commit.getFileNames()) {
+				if (!fileName.equals(commit.getSegmentsFileName())) {
+					bytes += sendIfChanged(replica, shard, dir, fileName, replicaFiles);
+				}
+			}
+			bytes += sendIfChanged(replica, shard, dir, commit.getSegmentsFileName(), replicaFiles);
+		}
+
+		replica.publish(segmentsFileNames);
+		return bytes;
+	}
+
+
+	/**
+	 * @return The number of bytes sent, which is 0 if the replica already has the file
+	 */
+	private static long sendIfChanged(ReplicationTransport replica, int shard, Directory dir, String fileName, Map<String, Long> replicaFiles) throws IOException {
+		Long replicaChecksum = replicaFiles.get(fileName);
+		if (replicaChecksum != null && replicaChecksum == checksum(dir, fileName)) {
+			return 0;
+		}
+
+		replica.sendFile(shard, dir, fileName);
+		long length = dir.fileLength(fileName);
+		Metrics.REPLICATED_BYTES.add(length);
+		return length;
+	}
+
+
+	/**
+	 * @param dir
+	 * @param fileName
+	 * @return The checksum recorded in the footer of an index file, without reading the rest of it
+	 * @throws IOException If the file is missing, or doesn't end in a valid footer
+	 */
+	static long checksum(Directory dir, String fileName) throws IOException {
+		try (IndexInput in = dir.openInput(fileName, IOContext.READONCE)) {
+			return CodecUtil.retrieveChecksum(in);
+		}
+	}
+
+
+	/**
+	 * Close every replica's transport
+	 */
+	@Override
+	public void close() throws IOException {
+		IOUtils.close(replicas);
+	}
+}
@@ -0,0 +1,56 @@
+package com.tivo.demo.tvshow.loaders.replication;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+/**
+ * Copies commits straight into a replica in the same JVM, such as one whose shards are on another disk, or on a
+ * mounted network filesystem
+ */
+public class LocalReplicationTransport implements ReplicationTransport {
+
+	private final IndexReplica replica;
+
+
+	public LocalReplicationTransport(IndexReplica replica) {
+		this.replica = replica;
+	}
+
+
+	@Override
+	public Map<String, Long> listFiles(int shard) throws IOException {
+		return replica.listFiles(shard);
+	}
+
+
+	@Override
+	public void sendFile(int shard, Directory source, String fileName) throws IOException {
+		try (IndexInput in = source.openInput(fileName, IOContext.READONCE)) {
+			replica.writeFile(shard, fileName, in, in.length());
+		}
+	}
+
+
+	@Override
+	public void publish(String[] segmentsFileNames) throws IOException {
+		replica.publish(segmentsFileNames);
+	}
+
+
+	/**
+	 * The replica's shards belong to whoever created them, so there is nothing to close
+	 */
+	@Override
+	public void close() {
+	}
+
+
+	@Override
+	public String toString() {
+		return "local replica";
+	}
+}
@@ -0,0 +1,176 @@
+package com.tivo.demo.tvshow.loaders.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.util.IOUtils;
+
+import com.tivo.demo.util.ThreadPools;
+
+/**
+ * Receives commits into a replica from {@link SocketReplicationTransport}s, over plain TCP.
+ *
+ * A stand-in for a real transport: there is no authentication or encryption, so it must only listen on a private
+ * network.  Each connection sends one request at a time, and waits for its response:
+ * <ul>
+ * <li>LIST, shard: the replica's files, as OK, count, and each file's name and checksum</li>
+ * <li>FILE, shard, name, length, bytes: OK once the file is written</li>
+ * <li>PUBLISH, count, each segments file name: OK once the commits are published</li>
+ * </ul>
+ * A failed request gets ERROR and a message instead, and its connection is closed, since the rest of a failed file's
+ * bytes may still be on the way.
+ */
+public class ReplicaServer implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(ReplicaServer.class.getName());
+
+	//Requests
+	static final byte LIST = 1, FILE = 2, PUBLISH = 3;
+	//Responses
+	static final byte OK = 0, ERROR = -1;
+
+	//Connections handled at once without virtual threads, one of which is taken by accepting them
+	private static final int FALLBACK_THREADS = 4;
+
+	private final IndexReplica replica;
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor;
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+
+	/**
+	 * Start listening for the indexing node
+	 * @param replica
+	 * @param port The port to listen on, or 0 for any free port
+	 * @throws IOException
+	 */
+	public ReplicaServer(IndexReplica replica, int port) throws IOException {
+		this.replica = replica;
+		serverSocket = new ServerSocket(port);
+		executor = ThreadPools.newTaskExecutor("replica-server", FALLBACK_THREADS);
+		executor.execute(this::accept);
+	}
+
+
+	/**
+	 * @return The port the server is listening on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				connections.add(socket);
+				executor.execute(() -> serve(socket));
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					LOG.log(Level.WARNING, "Exception caught accepting a replication connection", e);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Handle one connection's requests until it is closed
+	 */
+	private void serve(Socket socket) {
+		try (socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			while (true) {
+				byte request;
+				try {
+					request = in.readByte();
+				} catch (EOFException e) {
+					return;
+				}
+
+				try {
+					handle(request, in, out);
+				} catch (IOException | RuntimeException e) {
+					LOG.log(Level.WARNING, "Exception caught handling a replication request", e);
+					out.writeByte(ERROR);
+					out.writeUTF(String.valueOf(e));
+					out.flush();
+					return;
+				}
+				out.flush();
+			}
+		} catch (SocketException e) {
+			//Closed by the indexing node, or by close()
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Exception caught on a replication connection", e);
+		} finally {
+			connections.remove(socket);
+		}
+	}
+
+
+	private void handle(byte request, DataInputStream in, DataOutputStream out) throws IOException {
+		switch (request) {
+		case LIST:
+			Map<String, Long> files = replica.listFiles(in.readInt());
+			out.writeByte(OK);
+			out.writeInt(files.size());
+			for (Map.Entry<String, Long> file : files.entrySet()) {
+				out.writeUTF(file.getKey());
+				out.writeLong(file.getValue());
+			}
+			break;
+
+		case FILE:
+			int shard = in.readInt();
+			String fileName = in.readUTF();
+			long length = in.readLong();
+			replica.writeFile(shard, fileName, new InputStreamDataInput(in), length);
+			out.writeByte(OK);
+			break;
+
+		case PUBLISH:
+			String[] segmentsFileNames = new String[in.readInt()];
+			for (int i = 0; i < segmentsFileNames.length; i++) {
+				segmentsFileNames[i] = in.readUTF();
+			}
+			replica.publish(segmentsFileNames);
+			out.writeByte(OK);
+			break;
+
+		default:
+			throw new IOException("Unknown replication request: " + request);
+		}
+	}
+
+
+	/**
+	 * Stop listening, and close every open connection
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			IOUtils.close(serverSocket);
+			IOUtils.close(connections);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.tivo.demo.tvshow.loaders.replication;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.store.Directory;
+
+/**
+ * Ships the files of the indexing node's commits to one read replica.
+ *
+ * Lucene never changes a file once it is written, so only the files the replica doesn't already have are sent.  A
+ * commit's segments file is sent last, and the commit only becomes visible to the replica's searchers when it is
+ * published, once the commit of every shard has been sent.
+ *
+ * @see IndexReplicator
+ * @see IndexReplica
+ */
+public interface ReplicationTransport extends Closeable {
+
+	/**
+	 * @param shard
+	 * @return The checksum of each complete file the replica has of the shard, by file name
+	 * @throws IOException
+	 */
+	Map<String, Long> listFiles(int shard) throws IOException;
+
+	/**
+	 * Send one file of a shard's commit to the replica, which doesn't use it until the commit is published
+	 * @param shard
+	 * @param source The shard's index on the indexing node
+	 * @param fileName
+	 * @throws IOException
+	 */
+	void sendFile(int shard, Directory source, String fileName) throws IOException;
+
+	/**
+	 * Make the sent commits the replica's current commits, and let its searchers reopen
+	 * @param segmentsFileNames The segments file of each shard's commit, in shard order
+	 * @throws IOException
+	 */
+	void publish(String[] segmentsFileNames) throws IOException;
+}
@@ -0,0 +1,158 @@
+package com.tivo.demo.tvshow.loaders.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Sends commits to a replica on another node, over one TCP connection to its {@link ReplicaServer}.
+ * The connection is opened on first use, and opened again after any failure.
+ */
+public class SocketReplicationTransport implements ReplicationTransport {
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+	//Publishing waits for the replica's searchers to reopen
+	private static final int READ_TIMEOUT_MILLIS = 60_000;
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private final InetSocketAddress address;
+
+	private Socket socket;
+	private DataInputStream in;
+	private DataOutputStream out;
+
+
+	/**
+	 * @param host The replica's host
+	 * @param port The port its {@link ReplicaServer} listens on
+	 */
+	public SocketReplicationTransport(String host, int port) {
+		address = new InetSocketAddress(host, port);
+	}
+
+
+	@Override
+	public synchronized Map<String, Long> listFiles(int shard) throws IOException {
+		try {
+			connect();
+			out.writeByte(ReplicaServer.LIST);
+			out.writeInt(shard);
+			out.flush();
+			readResponse();
+
+			int count = in.readInt();
+			Map<String, Long> files = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				files.put(in.readUTF(), in.readLong());
+			}
+			return files;
+		} catch (IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+
+	@Override
+	public synchronized void sendFile(int shard, Directory source, String fileName) throws IOException {
+		try (IndexInput file = source.openInput(fileName, IOContext.READONCE)) {
+			connect();
+			long length = file.length();
+			out.writeByte(ReplicaServer.FILE);
+			out.writeInt(shard);
+			out.writeUTF(fileName);
+			out.writeLong(length);
+
+			byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, length)];
+			for (long remaining = length; remaining > 0; ) {
+				int chunk = (int) Math.min(buffer.length, remaining);
+				file.readBytes(buffer, 0, chunk);
+				out.write(buffer, 0, chunk);
+				remaining -= chunk;
+			}
+			out.flush();
+			readResponse();
+		} catch (IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+
+	@Override
+	public synchronized void publish(String[] segmentsFileNames) throws IOException {
+		try {
+			connect();
+			out.writeByte(ReplicaServer.PUBLISH);
+			out.writeInt(segmentsFileNames.length);
+			for (String segmentsFileName : segmentsFileNames) {
+				out.writeUTF(segmentsFileName);
+			}
+			out.flush();
+			readResponse();
+		} catch (IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+
+	private void connect() throws IOException {
+		if (socket != null) {
+			return;
+		}
+		Socket s = new Socket();
+		try {
+			s.connect(address, CONNECT_TIMEOUT_MILLIS);
+			s.setSoTimeout(READ_TIMEOUT_MILLIS);
+			in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+		} catch (IOException e) {
+			IOUtils.closeWhileHandlingException(s);
+			throw e;
+		}
+		socket = s;
+	}
+
+
+	/**
+	 * @throws IOException With the replica's message, if the request failed there
+	 */
+	private void readResponse() throws IOException {
+		if (in.readByte() != ReplicaServer.OK) {
+			throw new IOException("Replica " + address + " failed: " + in.readUTF());
+		}
+	}
+
+
+	private void disconnect() {
+		IOUtils.closeWhileHandlingException(socket);
+		socket = null;
+		in = null;
+		out = null;
+	}
+
+
+	@Override
+	public synchronized void close() {
+		disconnect();
+	}
+
+
+	@Override
+	public String toString() {
+		return "replica " + address;
+	}
+}
@@ -0,0 +1,119 @@
+package com.tivo.demo.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe histogram of latencies in nanoseconds, with a fixed relative precision over the whole range of a long.
+ *
+ * Like HdrHistogram, each power of 2 is split into the same number of linear sub-buckets, so any recorded value is
+ * reported to within 1/16th (about 6%) of itself, whether it is a microsecond or a minute.  Recording is lock-free and
+ * allocates nothing, so it is cheap enough to time every Document and every query.
+ */
+public class LatencyHistogram {
+
+	//Sub-buckets per power of 2, as a number of bits.  Values below 2^SUB_BUCKET_BITS each get their own bucket.
+	private static final int SUB_BUCKET_BITS = 4, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder(), sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+
+	/**
+	 * @param nanos A latency.  Negative values are recorded as 0.
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		counts.incrementAndGet(bucketOf(nanos));
+		count.increment();
+		sum.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * Record the time since a start time
+	 * @param startNanos A value of System.nanoTime()
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return The total of every recorded latency, in nanoseconds
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return The highest latency recorded, in nanoseconds, exactly
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+
+	/**
+	 * @param percentile From 0 to 100
+	 * @return The latency, in nanoseconds, which that percentage of the recorded latencies are at or below, to within the
+	 * histogram's precision, or 0 if nothing has been recorded.  Concurrent recordings may or may not be included.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValueIn(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValueIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+
+	@Override
+	public String toString() {
+		return "count: " + getCount()
+				+ ", p50: " + TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(50)) + "us"
+				+ ", p99: " + TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99)) + "us"
+				+ ", max: " + TimeUnit.NANOSECONDS.toMicros(getMax()) + "us";
+	}
+}
@@ -0,0 +1,105 @@
+package com.tivo.demo.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe, bounded cache which evicts the least recently used entry once it is full, and counts its hits and misses.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class LruCache<K, V> {
+
+	private final int maxSize;
+	private final Map<K, V> entries;
+
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+
+	/**
+	 * @param maxSize Maximum number of entries.  0 or less disables the cache.
+	 */
+	public LruCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > LruCache.this.maxSize;
+			}
+		};
+	}
+
+
+	/**
+	 * @param key
+	 * @return The cached value, or null if there is none
+	 */
+	public V get(K key) {
+		V value;
+		synchronized (entries) {
+			value = entries.get(key);
+		}
+
+		if (value == null) {
+			misses.increment();
+		}
+		else {
+			hits.increment();
+		}
+		return value;
+	}
+
+
+	public void put(K key, V value) {
+		if (maxSize <= 0) {
+			return;
+		}
+		synchronized (entries) {
+			entries.put(key, value);
+		}
+	}
+
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The fraction of lookups which were hits, or 0 if there have been none
+	 */
+	public double getHitRatio() {
+		long hitCount = getHitCount(), lookups = hitCount + getMissCount();
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+
+
+	@Override
+	public String toString() {
+		return "size: " + size() + "/" + maxSize + ", hits: " + getHitCount() + ", misses: " + getMissCount();
+	}
+}
@@ -0,0 +1,66 @@
+package com.tivo.demo.util;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+
+/**
+ * The latencies and counts of the hot paths of loading and searching, shared by every loader and searcher in the JVM.
+ *
+ * Readable over JMX, as the com.tivo.demo:type=Metrics MBean, and as Prometheus text from {@link #REGISTRY}.
+ */
+public final class Metrics {
+
+	private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+
+	public static final String MBEAN_NAME = "com.tivo.demo:type=Metrics";
+
+	public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+	//Loading
+	public static final LatencyHistogram FETCH = REGISTRY.histogram("tvsearch_fetch_seconds",
+			"Time to fetch a show listing or schedule page from an API, until its body is read, or starts streaming");
+	public static final LatencyHistogram PARSE = REGISTRY.histogram("tvsearch_parse_seconds",
+			"Time to parse a whole show listing or schedule page response body as JSON");
+	public static final LatencyHistogram DOCUMENT_BUILD = REGISTRY.histogram("tvsearch_document_build_seconds",
+			"Time to build the Lucene Documents of one episode");
+	public static final LatencyHistogram ADD_DOCUMENT = REGISTRY.histogram("tvsearch_add_document_seconds",
+			"Time to add or update one Document, or one batch of Documents, in the IndexWriter");
+	public static final LatencyHistogram COMMIT = REGISTRY.histogram("tvsearch_commit_seconds",
+			"Time to commit the IndexWriter at the end of a load");
+	public static final LatencyHistogram FORCE_MERGE = REGISTRY.histogram("tvsearch_force_merge_seconds",
+			"Time to merge every shard of a blue/green rebuild down to a few segments, before it is committed");
+	public static final LongAdder DOCUMENTS_INDEXED = REGISTRY.counter("tvsearch_documents_indexed_total",
+			"Documents added or updated in the index");
+	public static final LongAdder FETCH_RETRIES = REGISTRY.counter("tvsearch_fetch_retries_total",
+			"API requests retried after a failure or a rate limit response");
+	public static final LatencyHistogram REPLICATION = REGISTRY.histogram("tvsearch_replication_seconds",
+			"Time to send one commit of every shard to one read replica, and publish it there");
+	public static final LongAdder REPLICATED_BYTES = REGISTRY.counter("tvsearch_replicated_bytes_total",
+			"Index file bytes sent to read replicas");
+
+	//Searching
+	public static final LatencyHistogram QUERY_PARSE = REGISTRY.histogram("tvsearch_query_parse_seconds",
+			"Time to parse a query which missed the query cache");
+	public static final LatencyHistogram SEARCH = REGISTRY.histogram("tvsearch_search_seconds",
+			"Time to search for one query's hits, including cached results, but not the fields of the hits");
+	public static final LatencyHistogram STORED_FIELDS = REGISTRY.histogram("tvsearch_stored_fields_seconds",
+			"Time to read the requested fields of one query's hits");
+	public static final LatencyHistogram HTTP_REQUEST = REGISTRY.histogram("tvsearch_http_request_seconds",
+			"Time to answer one request to the search server, until its response is written");
+	public static final LongAdder SEARCHER_SWAPS = REGISTRY.counter("tvsearch_searcher_swaps_total",
+			"Searchers moved onto a rebuilt index, once the queries in progress on the old one finished");
+
+	static {
+		try {
+			REGISTRY.registerMBean(MBEAN_NAME);
+		} catch (JMException e) {
+			LOG.log(Level.WARNING, "Metrics are not available over JMX", e);
+		}
+	}
+
+	private Metrics() {
+	}
+}
@@ -0,0 +1,214 @@
+package com.tivo.demo.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named latency histograms and counters, readable through JMX and as Prometheus text.
+ *
+ * Histograms record nanoseconds, and are reported in seconds, as Prometheus summaries with their 50th, 90th, 99th and
+ * 99.9th percentiles.  Over JMX, each histogram's count, mean, percentiles and max are attributes of a single MBean,
+ * alongside the counters.  Registering a name again returns the metric already registered under it.
+ */
+public class MetricsRegistry {
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] PERCENTILE_SUFFIXES = { ".p50", ".p90", ".p99", ".p999" };
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private final Map<String, Metric<LatencyHistogram>> histograms = new ConcurrentSkipListMap<>();
+	private final Map<String, Metric<LongAdder>> counters = new ConcurrentSkipListMap<>();
+
+
+	/**
+	 * @param name Prometheus metric name, such as tvsearch_search_seconds
+	 * @param help One line describing what is timed
+	 * @return
+	 */
+	public LatencyHistogram histogram(String name, String help) {
+		return histograms.computeIfAbsent(name, n -> new Metric<>(help, new LatencyHistogram())).value;
+	}
+
+	/**
+	 * @param name Prometheus metric name, such as tvsearch_documents_indexed_total
+	 * @param help One line describing what is counted
+	 * @return
+	 */
+	public LongAdder counter(String name, String help) {
+		return counters.computeIfAbsent(name, n -> new Metric<>(help, new LongAdder())).value;
+	}
+
+
+	/**
+	 * Write every metric in the Prometheus text exposition format
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writePrometheusText(Writer out) throws IOException {
+		for (Map.Entry<String, Metric<LatencyHistogram>> entry : histograms.entrySet()) {
+			String name = entry.getKey();
+			LatencyHistogram histogram = entry.getValue().value;
+			writeHeader(out, name, entry.getValue().help, "summary");
+			for (double quantile : QUANTILES) {
+				out.write(name + "{quantile=\"" + quantile + "\"} " + seconds(histogram.getValueAtPercentile(quantile * 100)) + "\n");
+			}
+			out.write(name + "_sum " + seconds(histogram.getSum()) + "\n");
+			out.write(name + "_count " + histogram.getCount() + "\n");
+		}
+		for (Map.Entry<String, Metric<LongAdder>> entry : counters.entrySet()) {
+			writeHeader(out, entry.getKey(), entry.getValue().help, "counter");
+			out.write(entry.getKey() + " " + entry.getValue().value.sum() + "\n");
+		}
+	}
+
+	/**
+	 * @return Every metric in the Prometheus text exposition format
+	 */
+	public String toPrometheusText() {
+		StringWriter out = new StringWriter();
+		try {
+			writePrometheusText(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toString();
+	}
+
+
+	private static void writeHeader(Writer out, String name, String help, String type) throws IOException {
+		out.write("# HELP " + name + " " + help + "\n");
+		out.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	private static String seconds(long nanos) {
+		return String.format(Locale.ROOT, "%.9f", nanos / NANOS_PER_SECOND);
+	}
+
+
+	/**
+	 * Register an MBean exposing every metric, including those registered later, with the platform MBean server
+	 * @param objectName Such as com.tivo.demo:type=Metrics
+	 * @throws JMException If the name is invalid, or already registered
+	 */
+	public void registerMBean(String objectName) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(new MetricsMBean(), new ObjectName(objectName));
+	}
+
+
+	private static final class Metric<T> {
+		final String help;
+		final T value;
+
+		Metric(String help, T value) {
+			this.help = help;
+			this.value = value;
+		}
+	}
+
+
+	/**
+	 * Read-only attributes named after each metric: name.count, name.mean, name.p50 ... name.max for histograms, in seconds,
+	 * and just the name for counters
+	 */
+	private final class MetricsMBean implements DynamicMBean {
+		private static final String COUNT = ".count", MEAN = ".mean", MAX = ".max";
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Metric<LongAdder> counter = counters.get(attribute);
+			if (counter != null) {
+				return counter.value.sum();
+			}
+
+			int dot = attribute.lastIndexOf('.');
+			Metric<LatencyHistogram> histogram = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+			if (histogram != null) {
+				String statistic = attribute.substring(dot);
+				LatencyHistogram h = histogram.value;
+				if (statistic.equals(COUNT)) {
+					return h.getCount();
+				}
+				else if (statistic.equals(MEAN)) {
+					long count = h.getCount();
+					return count == 0 ? 0.0 : h.getSum() / NANOS_PER_SECOND / count;
+				}
+				else if (statistic.equals(MAX)) {
+					return h.getMax() / NANOS_PER_SECOND;
+				}
+				for (int i = 0; i < QUANTILES.length; i++) {
+					if (statistic.equals(PERCENTILE_SUFFIXES[i])) {
+						return h.getValueAtPercentile(QUANTILES[i] * 100) / NANOS_PER_SECOND;
+					}
+				}
+			}
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				try {
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				} catch (AttributeNotFoundException e) {
+					//Left out of the list, as the DynamicMBean contract expects
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException(actionName);
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<>();
+			for (Map.Entry<String, Metric<LatencyHistogram>> entry : histograms.entrySet()) {
+				String name = entry.getKey(), help = entry.getValue().help;
+				attributes.add(new MBeanAttributeInfo(name + COUNT, "long", help, true, false, false));
+				attributes.add(new MBeanAttributeInfo(name + MEAN, "double", help, true, false, false));
+				for (String suffix : PERCENTILE_SUFFIXES) {
+					attributes.add(new MBeanAttributeInfo(name + suffix, "double", help, true, false, false));
+				}
+				attributes.add(new MBeanAttributeInfo(name + MAX, "double", help, true, false, false));
+			}
+			for (Map.Entry<String, Metric<LongAdder>> entry : counters.entrySet()) {
+				attributes.add(new MBeanAttributeInfo(entry.getKey(), "long", entry.getValue().help, true, false, false));
+			}
+			return new MBeanInfo(MetricsRegistry.class.getName(), "Latencies and counts of the loader and searcher",
+					attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+		}
+	}
+}
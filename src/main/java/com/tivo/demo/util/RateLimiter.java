@@ -0,0 +1,46 @@
+package com.tivo.demo.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out permits evenly at a fixed rate, shared by any number of threads.
+ *
+ * Permits are handed out in the order they are asked for, each one interval after the last, so requests never burst
+ * above the rate even after a quiet period.
+ */
+public class RateLimiter {
+
+	private final long intervalNanos;
+	private long nextPermitNanos;
+
+	/**
+	 * @param permitsPerSecond Maximum rate, or 0 or less for no limit
+	 */
+	public RateLimiter(double permitsPerSecond) {
+		this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+		this.nextPermitNanos = System.nanoTime();
+	}
+
+
+	/**
+	 * Block until the next permit is due
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		if (intervalNanos == 0) {
+			return;
+		}
+
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long permitNanos = Math.max(now, nextPermitNanos);
+			nextPermitNanos = permitNanos + intervalNanos;
+			waitNanos = permitNanos - now;
+		}
+
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+}
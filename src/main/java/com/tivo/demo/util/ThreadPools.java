@@ -0,0 +1,79 @@
+package com.tivo.demo.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for the thread pools used by the loaders and the searcher
+ */
+public final class ThreadPools {
+
+	//Executors.newVirtualThreadPerTaskExecutor, on JVMs which have virtual threads
+	private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadPerTaskExecutor();
+
+	private ThreadPools() {
+	}
+
+
+	/**
+	 * @param namePrefix
+	 * @return A factory for daemon threads named after the prefix and a sequence number, so that an abandoned pool never keeps the JVM alive
+	 */
+	public static ThreadFactory daemonThreadFactory(String namePrefix) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, namePrefix + "-" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+
+	/**
+	 * @param namePrefix
+	 * @param threads
+	 * @return A fixed size pool of daemon threads
+	 */
+	public static ExecutorService newFixedDaemonPool(String namePrefix, int threads) {
+		return Executors.newFixedThreadPool(threads, daemonThreadFactory(namePrefix));
+	}
+
+
+	/**
+	 * An executor for short, mostly blocking tasks, such as queries or HTTP requests.
+	 * Starts a virtual thread per task when the JVM supports them, otherwise falls back to a fixed size pool of daemon threads.
+	 * @param namePrefix
+	 * @param fallbackThreads Size of the fallback pool
+	 * @return
+	 */
+	public static ExecutorService newTaskExecutor(String namePrefix, int fallbackThreads) {
+		if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+			try {
+				return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				//Fall back to platform threads
+			}
+		}
+		return newFixedDaemonPool(namePrefix, fallbackThreads);
+	}
+
+
+	/**
+	 * @return True if {@link #newTaskExecutor(String, int)} runs each task on a virtual thread
+	 */
+	public static boolean hasVirtualThreads() {
+		return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+
+	private static Method findVirtualThreadPerTaskExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
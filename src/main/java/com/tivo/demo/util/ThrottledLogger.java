@@ -0,0 +1,55 @@
+package com.tivo.demo.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs at most one message per interval, for messages which could otherwise be logged once per episode, page or query.
+ *
+ * The messages skipped in between are only counted, and the count is appended to the next message logged.  Messages
+ * are only built if they will be logged, so a disabled or throttled message costs no more than a clock read.
+ */
+public class ThrottledLogger {
+
+	private final Logger logger;
+	private final long intervalNanos;
+	private final AtomicLong nextLogNanos;
+	private final LongAdder suppressed = new LongAdder();
+
+
+	/**
+	 * @param logger
+	 * @param interval Minimum time between messages
+	 * @param unit
+	 */
+	public ThrottledLogger(Logger logger, long interval, TimeUnit unit) {
+		this.logger = logger;
+		this.intervalNanos = unit.toNanos(interval);
+		this.nextLogNanos = new AtomicLong(System.nanoTime());
+	}
+
+
+	/**
+	 * @param level
+	 * @param message Builds the message, if it is to be logged
+	 */
+	public void log(Level level, Supplier<String> message) {
+		if (!logger.isLoggable(level)) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		long next = nextLogNanos.get();
+		if (now - next < 0 || !nextLogNanos.compareAndSet(next, now + intervalNanos)) {
+			suppressed.increment();
+			return;
+		}
+
+		long skipped = suppressed.sumThenReset();
+		logger.log(level, skipped == 0 ? message.get() : message.get() + " (" + skipped + " similar messages suppressed)");
+	}
+}
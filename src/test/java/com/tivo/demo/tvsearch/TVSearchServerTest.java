@@ -0,0 +1,110 @@
+package com.tivo.demo.tvsearch;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.tivo.demo.tvshow.loaders.ShowLoaderConfig;
+import com.tivo.demo.tvshow.loaders.TVMazeShowLoaderTest;
+import com.tivo.demo.tvshow.loaders.TVMazeShowLoaderTest.FixedListingLoader;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for serving searches and suggestions over HTTP, from an in-memory index
+ */
+public class TVSearchServerTest extends TestCase {
+
+	private FixedListingLoader loader;
+	private TVShowSearcher searcher;
+	private TVSearchServer server;
+	private HttpClient client;
+
+	@Override
+	protected void setUp() throws IOException {
+		ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+		config.setTypeahead(true);
+		loader = new FixedListingLoader(config);
+		loader.load(TVMazeShowLoaderTest.listing(40));
+
+		searcher = new TVShowSearcher(loader.getIndex(), loader.getAnalyzer());
+		TVSearchServerConfig serverConfig = new TVSearchServerConfig();
+		serverConfig.setPort(0);
+		serverConfig.setShutdownGraceSeconds(1);
+		server = new TVSearchServer(searcher, loader.getSuggester(), serverConfig);
+
+		client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		server.close();
+		searcher.close();
+		loader.close();
+	}
+
+	private HttpResponse<String> get(String pathAndQuery) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + pathAndQuery)).build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	public void testSearch() throws Exception {
+		HttpResponse<String> response = get("/search?q=episodeName:%22Episode+3%22&n=1&fields=all");
+		assertEquals(200, response.statusCode());
+		assertEquals("application/json; charset=utf-8", response.headers().firstValue("Content-Type").get());
+		JSONObject result = new JSONObject(response.body()).getJSONArray("results").getJSONObject(0);
+		assertEquals("Wheel of Fortune", result.getString("showName"));
+		assertEquals("Episode 3", result.getString("episodeName"));
+		assertEquals("<p>Episode 3</p>", result.getString("episodeDescription"));
+		assertTrue(result.getDouble("score") > 0);
+
+		//Upcoming episodes on one network, which aren't scored
+		JSONArray upcoming = new JSONObject(get("/search?sort=airtime&network=ABC&n=5").body()).getJSONArray("results");
+		assertEquals(5, upcoming.length());
+		for (int i = 0; i < upcoming.length(); i++) {
+			assertEquals("ABC", upcoming.getJSONObject(i).getString("network"));
+			assertFalse(upcoming.getJSONObject(i).has("score"));
+			assertFalse(upcoming.getJSONObject(i).has("episodeDescription"));
+			if (i > 0) {
+				assertTrue(upcoming.getJSONObject(i - 1).getLong("airtime") < upcoming.getJSONObject(i).getLong("airtime"));
+			}
+		}
+
+		JSONObject faceted = new JSONObject(get("/search?q=jeopardy&n=2&facets=5").body());
+		assertEquals(2, faceted.getJSONArray("results").length());
+		assertEquals(20, faceted.getLong("totalHits"));
+		assertEquals(20, faceted.getJSONObject("facets").getJSONObject("network").getInt("ABC"));
+	}
+
+	public void testSuggestHealthAndMetrics() throws Exception {
+		JSONArray suggestions = new JSONObject(get("/suggest?q=jeop").body()).getJSONArray("suggestions");
+		assertEquals("Jeopardy!", suggestions.getString(0));
+
+		HttpResponse<String> health = get("/health");
+		assertEquals(200, health.statusCode());
+		assertEquals("UP", new JSONObject(health.body()).getString("status"));
+
+		//Every request so far was timed
+		assertTrue(get("/metrics").body().contains("tvsearch_http_request_seconds_count"));
+	}
+
+	public void testBadRequests() throws Exception {
+		assertEquals(400, get("/search?q=name:(").statusCode());
+		assertEquals(400, get("/search?q=jeopardy&n=0").statusCode());
+		assertEquals(400, get("/search?q=jeopardy&sort=popularity").statusCode());
+		assertEquals(400, get("/suggest").statusCode());
+		assertTrue(new JSONObject(get("/search?from=tomorrow").body()).has("error"));
+
+		HttpRequest post = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/search"))
+				.POST(HttpRequest.BodyPublishers.ofString("q=jeopardy")).build();
+		assertEquals(405, client.send(post, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+		//The connection is still good after errors
+		assertEquals(200, get("/health").statusCode());
+	}
+}
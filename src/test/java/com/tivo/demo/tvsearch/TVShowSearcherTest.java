@@ -1,5 +1,24 @@
 package com.tivo.demo.tvsearch;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+
+import com.tivo.demo.tvshow.loaders.ShowLoaderConfig;
+import com.tivo.demo.tvshow.loaders.TVMazeShowLoaderTest;
+import com.tivo.demo.tvshow.loaders.TVMazeShowLoaderTest.FixedListingLoader;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -35,4 +54,202 @@ public class TVShowSearcherTest
     {
         assertTrue( true );
     }
+
+    private static void addEpisode(IndexWriter indexWriter, String showName, String episodeName) throws Exception
+    {
+        Document doc = new Document();
+        doc.add(new TextField(TVShowSearcher.showNameFieldName, showName, Field.Store.YES));
+        doc.add(new TextField(TVShowSearcher.episodeNameFieldName, episodeName, Field.Store.YES));
+        indexWriter.addDocument(doc);
+    }
+
+    private static TVShowSearcherConfig manualRefreshConfig()
+    {
+        TVShowSearcherConfig config = new TVShowSearcherConfig();
+        config.setRefreshIntervalMillis(0);
+        config.setSegmentSearchThreads(2);
+        return config;
+    }
+
+    public void testSearchSeesNearRealTimeChanges() throws Exception
+    {
+        StandardAnalyzer analyzer = new StandardAnalyzer();
+        try (ByteBuffersDirectory index = new ByteBuffersDirectory();
+                IndexWriter indexWriter = new IndexWriter(index, new IndexWriterConfig(analyzer)))
+        {
+            addEpisode(indexWriter, "Jeopardy!", "Tournament of Champions");
+
+            try (TVShowSearcher searcher = new TVShowSearcher(indexWriter, analyzer, manualRefreshConfig()))
+            {
+                assertEquals(1, searcher.search("Jeopardy", 10).size());
+                assertEquals(0, searcher.search("Rachel", 10).size());
+
+                //Uncommitted, but visible once the searcher refreshes from the writer
+                addEpisode(indexWriter, "Rachael Ray", "Rachel's Kitchen");
+                assertEquals(0, searcher.search("episodeName:kitchen", 10).size());
+                searcher.maybeRefresh();
+
+                List<TVShowSearchResult> results = searcher.search("episodeName:kitchen", 10);
+                assertEquals(1, results.size());
+                assertEquals("Rachael Ray", results.get(0).getShowName());
+            }
+        }
+    }
+
+    public void testSearchAllRunsEveryQuery() throws Exception
+    {
+        StandardAnalyzer analyzer = new StandardAnalyzer();
+        try (ByteBuffersDirectory index = new ByteBuffersDirectory();
+                IndexWriter indexWriter = new IndexWriter(index, new IndexWriterConfig(analyzer)))
+        {
+            for (int i = 0; i < 50; i++)
+            {
+                addEpisode(indexWriter, "Jeopardy!", "Episode " + i);
+                addEpisode(indexWriter, "Wheel of Fortune", "Episode " + i);
+            }
+
+            try (TVShowSearcher searcher = new TVShowSearcher(indexWriter, analyzer, manualRefreshConfig()))
+            {
+                List<CompletableFuture<List<TVShowSearchResult>>> futures = searcher.searchAll(Arrays.asList("Jeopardy", "Wheel", "Ellen"), 10);
+
+                assertEquals(10, futures.get(0).get().size());
+                assertEquals("Wheel of Fortune", futures.get(1).get().get(0).getShowName());
+                assertEquals(0, futures.get(2).get().size());
+            }
+        }
+    }
+
+    public void testCachedResultsAreInvalidatedByRefresh() throws Exception
+    {
+        StandardAnalyzer analyzer = new StandardAnalyzer();
+        try (ByteBuffersDirectory index = new ByteBuffersDirectory();
+                IndexWriter indexWriter = new IndexWriter(index, new IndexWriterConfig(analyzer)))
+        {
+            addEpisode(indexWriter, "Jeopardy!", "Tournament of Champions");
+
+            try (TVShowSearcher searcher = new TVShowSearcher(indexWriter, analyzer, manualRefreshConfig()))
+            {
+                assertEquals(1, searcher.search("Jeopardy", 10).size());
+                assertEquals(1, searcher.search("Jeopardy", 10).size());
+                assertEquals(1, searcher.getQueryCache().getHitCount());
+                assertEquals(1, searcher.getResultCache().getHitCount());
+
+                addEpisode(indexWriter, "Jeopardy!", "Teen Tournament");
+                searcher.maybeRefresh();
+
+                assertEquals(2, searcher.search("Jeopardy", 10).size());
+                assertEquals(2, searcher.getQueryCache().getHitCount());
+                assertEquals(1, searcher.getResultCache().getHitCount());
+            }
+        }
+    }
+
+    public void testSwapWaitsForEverySearcherAcquiredFromTheOldIndex() throws Exception
+    {
+        StandardAnalyzer analyzer = new StandardAnalyzer();
+        try (ByteBuffersDirectory oldIndex = new ByteBuffersDirectory();
+                ByteBuffersDirectory newIndex = new ByteBuffersDirectory();
+                IndexWriter oldWriter = new IndexWriter(oldIndex, new IndexWriterConfig(analyzer));
+                IndexWriter newWriter = new IndexWriter(newIndex, new IndexWriterConfig(analyzer)))
+        {
+            addEpisode(oldWriter, "Jeopardy!", "Tournament of Champions");
+            oldWriter.commit();
+            addEpisode(newWriter, "Wheel of Fortune", "Primetime");
+            newWriter.commit();
+
+            try (TVShowSearcher searcher = new TVShowSearcher(oldIndex, analyzer, manualRefreshConfig()))
+            {
+                //Two queries in progress on the old index, on different readers of it
+                TVShowSearcher.SearcherLease first = searcher.acquireSearcher();
+                addEpisode(oldWriter, "Jeopardy!", "Teen Tournament");
+                oldWriter.commit();
+                searcher.maybeRefresh();
+                TVShowSearcher.SearcherLease second = searcher.acquireSearcher();
+                assertNotSame(first.getSearcher().getIndexReader(), second.getSearcher().getIndexReader());
+
+                CompletableFuture<Void> swap = CompletableFuture.runAsync(() -> {
+                    try
+                    {
+                        searcher.swapIndex(new Directory[] { newIndex });
+                    }
+                    catch (Exception e)
+                    {
+                        throw new IllegalStateException(e);
+                    }
+                });
+
+                //New queries search the new index straight away
+                while (searcher.search("wheel", 10).isEmpty())
+                {
+                    Thread.sleep(1);
+                }
+
+                second.close();
+                try
+                {
+                    swap.get(200, TimeUnit.MILLISECONDS);
+                    fail("Swapped while a query was still in progress on the old index");
+                }
+                catch (TimeoutException e)
+                {
+                    //Expected: the first query still holds the older reader
+                }
+
+                first.close();
+                swap.get(10, TimeUnit.SECONDS);
+                assertEquals(0, searcher.search("jeopardy", 10).size());
+            }
+        }
+    }
+
+    public void testFacetedSearchDuringRebuildPublish() throws Exception
+    {
+        ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+        config.setBlueGreen(true);
+        config.setShardCount(2);
+
+        try (FixedListingLoader loader = new FixedListingLoader(config))
+        {
+            loader.load(TVMazeShowLoaderTest.listing(40));
+
+            try (TVShowSearcher searcher = new TVShowSearcher(loader.getShards(), loader.getAnalyzer(), manualRefreshConfig()))
+            {
+                loader.addRebuildListener((shards, shardWriters) -> searcher.swapIndex(shards));
+
+                //A query in progress on the old index holds up the publish until it finishes
+                TVShowSearcher.SearcherLease lease = searcher.acquireSearcher();
+                CompletableFuture<Void> load = CompletableFuture.runAsync(() -> {
+                    try
+                    {
+                        loader.load(TVMazeShowLoaderTest.listing(60));
+                    }
+                    catch (Exception e)
+                    {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                while (searcher.search("jeopardy", 100).size() != 30)
+                {
+                    Thread.sleep(1);
+                }
+
+                //Meanwhile faceted searches of the new index go ahead, rather than waiting on the publish
+                TVShowFacetedResults faceted = CompletableFuture.supplyAsync(() -> {
+                    try
+                    {
+                        return searcher.searchWithFacets("jeopardy", 10, TVShowSearchResult.ALL_FIELDS, null, TVShowSortOrder.RELEVANCE, 5);
+                    }
+                    catch (Exception e)
+                    {
+                        throw new IllegalStateException(e);
+                    }
+                }).get(10, TimeUnit.SECONDS);
+                assertEquals(30, faceted.getTotalHits());
+                assertFalse(load.isDone());
+
+                lease.close();
+                load.get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
 }
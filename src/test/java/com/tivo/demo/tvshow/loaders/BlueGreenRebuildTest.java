@@ -0,0 +1,170 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+
+import com.tivo.demo.tvsearch.TVShowSearcher;
+import com.tivo.demo.tvsearch.TVShowSearcherConfig;
+import com.tivo.demo.tvshow.loaders.TVMazeShowLoaderTest.FixedListingLoader;
+import com.tivo.demo.util.Metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for rebuilding the index blue/green, and swapping searchers onto each new generation
+ */
+public class BlueGreenRebuildTest extends TestCase {
+
+	private static ShowLoaderConfig blueGreenConfig() {
+		ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+		config.setBlueGreen(true);
+		config.setShardCount(2);
+		config.setRebuildRamBufferMB(16);
+		config.setRebuildMaxSegments(1);
+		return config;
+	}
+
+	public void testSearchersNeverSeeAPartialIndex() throws Exception {
+		try (FixedListingLoader loader = new FixedListingLoader(blueGreenConfig())) {
+			loader.load(TVMazeShowLoaderTest.listing(40));
+
+			TVShowSearcherConfig searcherConfig = new TVShowSearcherConfig();
+			searcherConfig.setRefreshIntervalMillis(0);
+			try (TVShowSearcher searcher = new TVShowSearcher(loader.getShards(), loader.getAnalyzer(), searcherConfig)) {
+				loader.addRebuildListener((shards, shardWriters) -> searcher.swapIndex(shards));
+
+				//Search continuously while the index is rebuilt, alternating between listings of 40 and 60 episodes
+				AtomicBoolean loading = new AtomicBoolean(true);
+				List<Integer> counts = new CopyOnWriteArrayList<>();
+				List<Throwable> failures = new CopyOnWriteArrayList<>();
+				Thread searching = new Thread(() -> {
+					while (loading.get()) {
+						try {
+							counts.add(searcher.search("jeopardy", 100).size());
+						} catch (Exception | AssertionError e) {
+							failures.add(e);
+							return;
+						}
+					}
+				});
+				searching.start();
+
+				long swaps = Metrics.SEARCHER_SWAPS.sum();
+				for (int i = 1; i <= 6; i++) {
+					loader.load(TVMazeShowLoaderTest.listing(i % 2 == 0 ? 40 : 60));
+				}
+				loading.set(false);
+				searching.join();
+
+				assertEquals(failures.toString(), 0, failures.size());
+				assertFalse(counts.isEmpty());
+				for (int count : counts) {
+					assertTrue("Partial results: " + count, count == 20 || count == 30);
+				}
+				assertEquals(6, Metrics.SEARCHER_SWAPS.sum() - swaps);
+				assertEquals(20, searcher.search("jeopardy", 100).size());
+
+				//Each shard of the rebuild was merged down to a single segment, if it has any episodes
+				for (Directory shard : loader.getShards()) {
+					try (DirectoryReader reader = DirectoryReader.open(shard)) {
+						assertTrue(reader.leaves().size() <= 1);
+					}
+				}
+			}
+		}
+	}
+
+	public void testOldGenerationsAreDeleted() throws Exception {
+		Path indexPath = Files.createTempDirectory("blue-green");
+		try {
+			ShowLoaderConfig config = blueGreenConfig();
+			config.setDirectoryType(IndexDirectoryType.NIOFS);
+			config.setIndexPath(indexPath);
+
+			try (FixedListingLoader loader = new FixedListingLoader(config)) {
+				loader.load(TVMazeShowLoaderTest.listing(40));
+				loader.load(TVMazeShowLoaderTest.listing(60));
+			}
+			assertEquals("[generation-2]", generations(indexPath).toString());
+
+			//A rebuild which never committed is passed over, and the last complete generation reopened
+			Files.createDirectories(indexPath.resolve("generation-3").resolve("shard-0"));
+			try (FixedListingLoader loader = new FixedListingLoader(config)) {
+				int numDocs = 0;
+				for (Directory shard : loader.getShards()) {
+					try (DirectoryReader reader = DirectoryReader.open(shard)) {
+						numDocs += reader.numDocs();
+					}
+				}
+				assertEquals(60, numDocs);
+
+				//Its leftovers are replaced by the next rebuild
+				loader.load(TVMazeShowLoaderTest.listing(40));
+			}
+			assertEquals("[generation-3]", generations(indexPath).toString());
+		} finally {
+			IOUtils.rm(indexPath);
+		}
+	}
+
+	public void testFailedListenerRollsBackTheRebuild() throws Exception {
+		Path indexPath = Files.createTempDirectory("blue-green");
+		try {
+			ShowLoaderConfig config = blueGreenConfig();
+			config.setDirectoryType(IndexDirectoryType.NIOFS);
+			config.setIndexPath(indexPath);
+
+			try (FixedListingLoader loader = new FixedListingLoader(config)) {
+				loader.load(TVMazeShowLoaderTest.listing(40));
+
+				TVShowSearcherConfig searcherConfig = new TVShowSearcherConfig();
+				searcherConfig.setRefreshIntervalMillis(0);
+				try (TVShowSearcher searcher = new TVShowSearcher(loader.getShards(), loader.getAnalyzer(), searcherConfig)) {
+					//The searcher moves onto the rebuild, but the second listener fails, once
+					AtomicBoolean failing = new AtomicBoolean(true);
+					loader.addRebuildListener((shards, shardWriters) -> searcher.swapIndex(shards));
+					loader.addRebuildListener((shards, shardWriters) -> {
+						if (failing.getAndSet(false)) {
+							throw new IOException("Listener failed");
+						}
+					});
+
+					long swaps = Metrics.SEARCHER_SWAPS.sum();
+					try {
+						loader.load(TVMazeShowLoaderTest.listing(60));
+						fail("Expected the load to fail");
+					} catch (IOException e) {
+						assertEquals("Listener failed", e.getMessage());
+					}
+
+					//The searcher was moved back, and only the previous generation is kept
+					assertEquals(2, Metrics.SEARCHER_SWAPS.sum() - swaps);
+					assertEquals("[generation-1]", generations(indexPath).toString());
+					assertEquals(20, searcher.search("jeopardy", 100).size());
+
+					loader.load(TVMazeShowLoaderTest.listing(60));
+					assertEquals("[generation-2]", generations(indexPath).toString());
+					assertEquals(30, searcher.search("jeopardy", 100).size());
+				}
+			}
+		} finally {
+			IOUtils.rm(indexPath);
+		}
+	}
+
+	private static List<String> generations(Path indexPath) throws IOException {
+		try (Stream<Path> paths = Files.list(indexPath)) {
+			return paths.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+		}
+	}
+}
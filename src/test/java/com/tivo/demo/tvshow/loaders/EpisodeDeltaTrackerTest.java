@@ -0,0 +1,116 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import com.tivo.demo.tvsearch.TVShowSearcher;
+import com.tivo.demo.tvshow.TVShowEpisode;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for detecting added, changed and dropped episodes during incremental loads
+ */
+public class EpisodeDeltaTrackerTest extends TestCase {
+
+	private ByteBuffersDirectory index;
+	private IndexWriter indexWriter;
+
+	@Override
+	protected void setUp() throws Exception {
+		index = new ByteBuffersDirectory();
+		indexWriter = new IndexWriter(index, new IndexWriterConfig(new StandardAnalyzer()));
+
+		addEpisode("1", "Jeopardy");
+		addEpisode("2", "Wheel of Fortune");
+		addEpisode("3", "Rachael Ray");
+		indexWriter.commit();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		indexWriter.close();
+		index.close();
+	}
+
+	private void addEpisode(String id, String name) throws IOException {
+		Document doc = new Document();
+		doc.add(new StringField(TVShowSearcher.episodeIdFieldName, id, Field.Store.YES));
+		doc.add(new SortedDocValuesField(TVShowSearcher.episodeIdFieldName, new BytesRef(id)));
+		doc.add(new NumericDocValuesField(TVShowSearcher.contentHashFieldName, EpisodeDeltaTracker.contentHash(name)));
+		indexWriter.addDocument(doc);
+	}
+
+	private int countEpisodes(String id) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(indexWriter)) {
+			return new IndexSearcher(reader).count(new TermQuery(new Term(TVShowSearcher.episodeIdFieldName, id)));
+		}
+	}
+
+	public void testDetectsAddedChangedAndDroppedEpisodes() throws IOException {
+		EpisodeDeltaTracker tracker = EpisodeDeltaTracker.open(indexWriter);
+
+		assertFalse(tracker.isChanged("1", EpisodeDeltaTracker.contentHash("Jeopardy")));
+		assertTrue(tracker.isChanged("2", EpisodeDeltaTracker.contentHash("Wheel of Fortune!")));
+		assertTrue(tracker.isChanged("4", EpisodeDeltaTracker.contentHash("Ellen")));
+
+		assertEquals(1, tracker.deleteDropped(indexWriter));
+		assertEquals(0, countEpisodes("3"));
+		assertEquals(1, countEpisodes("1"));
+	}
+
+	public void testNothingDroppedWhenListingIsEmpty() throws IOException {
+		EpisodeDeltaTracker tracker = EpisodeDeltaTracker.open(indexWriter);
+
+		assertEquals(0, tracker.deleteDropped(indexWriter));
+		assertEquals(1, countEpisodes("3"));
+	}
+
+	public void testContentHashSeparatesValues() {
+		assertFalse(EpisodeDeltaTracker.contentHash("ab", "c") == EpisodeDeltaTracker.contentHash("a", "bc"));
+		assertFalse(EpisodeDeltaTracker.contentHash((String) null) == EpisodeDeltaTracker.contentHash(""));
+	}
+
+	public void testTypedHashesMatchStringHashes() {
+		TVShowEpisode episode = new TVShowEpisode();
+		episode.setShowId("42");
+		episode.setShowName("Jeopardy");
+		episode.setShowType("Game Show");
+		episode.setEpisodeName("Tournament of Champions");
+		episode.setEpisodeNumber(-17);
+		episode.setEpisodeDescription("Final round");
+		episode.setAirtime(1560211200000L);
+		episode.setNetwork("ABC");
+		episode.setRuntime(30);
+		episode.addShowGenre("Quiz");
+
+		//Must stay the same, or every episode of an existing index would be reindexed
+		assertEquals(EpisodeDeltaTracker.contentHash("Jeopardy", "Game Show", null, null, "Tournament of Champions", "-17", "Final round",
+				"1560211200000", null, "ABC", "30", "Game Show", "Quiz"),
+				EpisodeDeltaTracker.episodeContentHash(episode));
+		assertEquals(EpisodeDeltaTracker.contentHash("42", "Tournament of Champions", "-17", "Final round", "1560211200000", null, "ABC", "30", "Game Show", "Quiz"),
+				EpisodeDeltaTracker.normalizedEpisodeContentHash(episode));
+		assertEquals(EpisodeDeltaTracker.contentHash("Jeopardy", "Game Show", null, null),
+				EpisodeDeltaTracker.showContentHash(episode));
+
+		episode.setEpisodeNumber(Integer.MIN_VALUE);
+		episode.setAirtime(Long.MIN_VALUE);
+		assertEquals(EpisodeDeltaTracker.contentHash("42", "Tournament of Champions", String.valueOf(Integer.MIN_VALUE), "Final round",
+				String.valueOf(Long.MIN_VALUE), null, "ABC", "30", "Game Show", "Quiz"),
+				EpisodeDeltaTracker.normalizedEpisodeContentHash(episode));
+	}
+}
@@ -0,0 +1,154 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.json.JSONArray;
+
+import com.tivo.demo.tvsearch.TVShowSearchResult;
+import com.tivo.demo.tvsearch.TVShowSearcher;
+import com.tivo.demo.tvsearch.TVShowSearcherConfig;
+import com.tivo.demo.tvshow.loaders.TVMazeShowLoaderTest.FixedListingLoader;
+import com.tivo.demo.tvshow.loaders.replication.IndexReplica;
+import com.tivo.demo.tvshow.loaders.replication.LocalReplicationTransport;
+import com.tivo.demo.tvshow.loaders.replication.ReplicaServer;
+import com.tivo.demo.tvshow.loaders.replication.SocketReplicationTransport;
+import com.tivo.demo.util.Metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for replicating the commits of a sharded, in-memory index to read replicas
+ */
+public class IndexReplicationTest extends TestCase {
+
+	private static final int SHARDS = 3;
+
+	/**
+	 * Episodes of several shows, so that every shard has some
+	 */
+	private static JSONArray listing(int shows, String episodeName) {
+		JSONArray listing = new JSONArray();
+		for (int show = 1; show <= shows; show++) {
+			for (int e = 0; e < 4; e++) {
+				listing.put(TVMazeShowLoaderTest.episode(100 * show + e, show % 2 == 0 ? "Jeopardy!" : "Wheel of Fortune", episodeName + " " + e));
+			}
+		}
+		return listing;
+	}
+
+	private static ShowLoaderConfig shardedConfig() {
+		ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+		config.setShardCount(SHARDS);
+		config.setIncremental(true);
+		config.setKeepWriterOpen(true);
+		return config;
+	}
+
+	private static Directory[] newShards() {
+		Directory[] shards = new Directory[SHARDS];
+		for (int i = 0; i < SHARDS; i++) {
+			shards[i] = new ByteBuffersDirectory();
+		}
+		return shards;
+	}
+
+	private static TVShowSearcher newSearcher(Directory[] shards, FixedListingLoader loader) throws IOException {
+		TVShowSearcherConfig config = new TVShowSearcherConfig();
+		config.setRefreshIntervalMillis(0);
+		config.setResultCacheSize(0);
+		return new TVShowSearcher(shards, loader.getAnalyzer(), config);
+	}
+
+	private static List<String> episodeNames(TVShowSearcher searcher, String query) throws Exception {
+		return searcher.search(query, 100).stream().map(TVShowSearchResult::getEpisodeName).sorted().collect(Collectors.toList());
+	}
+
+	private static long commitBytes(Directory[] shards) throws IOException {
+		long bytes = 0;
+		for (Directory shard : shards) {
+			List<IndexCommit> commits = DirectoryReader.listCommits(shard);
+			IndexCommit commit = commits.get(commits.size() - 1);
+			for (String fileName : commit.getFileNames()) {
+				bytes += shard.fileLength(fileName);
+			}
+		}
+		return bytes;
+	}
+
+	public void testLocalReplicaReceivesOnlyNewFiles() throws Exception {
+		IndexReplica replica = new IndexReplica(newShards());
+
+		try (FixedListingLoader loader = new FixedListingLoader(shardedConfig())) {
+			loader.addReplica(new LocalReplicationTransport(replica));
+
+			long sent = Metrics.REPLICATED_BYTES.sum();
+			loader.load(listing(12, "Episode"));
+			assertEquals(commitBytes(loader.getShards()), Metrics.REPLICATED_BYTES.sum() - sent);
+
+			try (TVShowSearcher primary = newSearcher(loader.getShards(), loader);
+					TVShowSearcher searcher = newSearcher(replica.getShards(), loader)) {
+				replica.addListener(searcher::maybeRefresh);
+				assertEquals(48, episodeNames(searcher, "episodeName:episode").size());
+				assertEquals(episodeNames(primary, "jeopardy"), episodeNames(searcher, "jeopardy"));
+
+				//Change one episode: only the new segment, its shard's deletes and the segments files are sent
+				JSONArray changed = listing(12, "Episode");
+				changed.put(0, TVMazeShowLoaderTest.episode(100, "Wheel of Fortune", "Tournament of Champions"));
+				sent = Metrics.REPLICATED_BYTES.sum();
+				loader.load(changed);
+				assertTrue(Metrics.REPLICATED_BYTES.sum() - sent < commitBytes(loader.getShards()) / 2);
+
+				//The listener reopened the searcher, and the replica holds only the files of its current commits
+				assertEquals(Arrays.asList("Tournament of Champions"), episodeNames(searcher, "episodeName:champions"));
+				Directory[] shards = replica.getShards();
+				for (Directory shard : shards) {
+					List<IndexCommit> commits = DirectoryReader.listCommits(shard);
+					assertEquals(1, commits.size());
+					assertEquals(new HashSet<>(commits.get(0).getFileNames()), new HashSet<>(Arrays.asList(shard.listAll())));
+				}
+			}
+		}
+	}
+
+	public void testSocketReplicaReceivesCommits() throws Exception {
+		IndexReplica replica = new IndexReplica(newShards());
+
+		try (ReplicaServer server = new ReplicaServer(replica, 0);
+				FixedListingLoader loader = new FixedListingLoader(shardedConfig())) {
+			loader.addReplica(new SocketReplicationTransport("localhost", server.getPort()));
+			loader.load(listing(6, "Episode"));
+
+			try (TVShowSearcher searcher = newSearcher(replica.getShards(), loader)) {
+				IndexReplica.PublishListener refresh = searcher::maybeRefresh;
+				replica.addListener(refresh);
+				assertEquals(24, episodeNames(searcher, "episodeName:episode").size());
+
+				//Episodes dropped from the listing are dropped from the replica too
+				loader.load(listing(3, "Rerun"));
+				assertEquals(0, episodeNames(searcher, "episodeName:episode").size());
+				assertEquals(12, episodeNames(searcher, "episodeName:rerun").size());
+				replica.removeListener(refresh);
+			}
+
+			//A replica which joins late is brought up to date by replicating the current commits straight away
+			IndexReplica lateReplica = new IndexReplica(newShards());
+			loader.addReplica(new LocalReplicationTransport(lateReplica));
+			loader.replicate();
+			int numDocs = 0;
+			for (Directory shard : lateReplica.getShards()) {
+				try (DirectoryReader reader = DirectoryReader.open(shard)) {
+					numDocs += reader.numDocs();
+				}
+			}
+			assertEquals(12, numDocs);
+		}
+	}
+}
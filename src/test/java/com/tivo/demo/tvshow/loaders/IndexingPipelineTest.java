@@ -0,0 +1,148 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+
+import com.tivo.demo.util.Metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the multi-threaded indexing pipeline
+ */
+public class IndexingPipelineTest extends TestCase {
+
+	private Directory index;
+	private IndexWriter indexWriter;
+
+	@Override
+	protected void setUp() throws Exception {
+		index = new ByteBuffersDirectory();
+		indexWriter = new IndexWriter(index, new IndexWriterConfig(new StandardAnalyzer()));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		indexWriter.close();
+		index.close();
+	}
+
+	private static Document buildDocument(Integer i) {
+		if (i % 10 == 0) {
+			return null;
+		}
+		Document doc = new Document();
+		doc.add(new StringField("id", String.valueOf(i), Field.Store.YES));
+		return doc;
+	}
+
+	private int indexedDocumentCount() throws IOException {
+		indexWriter.commit();
+		try (DirectoryReader reader = DirectoryReader.open(index)) {
+			return reader.numDocs();
+		}
+	}
+
+	public void testInlineIndexing() throws IOException {
+		try (IndexingPipeline<Integer> pipeline = new IndexingPipeline<>(indexWriter, IndexingPipelineTest::buildDocument, 0, 10, 10)) {
+			for (int i = 0; i < 1000; i++) {
+				pipeline.add(i);
+			}
+			assertEquals(900, pipeline.getDocumentCount());
+		}
+		assertEquals(900, indexedDocumentCount());
+	}
+
+	public void testParallelIndexingWithSmallQueue() throws IOException {
+		IndexingPipeline<Integer> pipeline = new IndexingPipeline<>(indexWriter, IndexingPipelineTest::buildDocument, 4, 7, 2);
+		for (int i = 0; i < 10000; i++) {
+			pipeline.add(i);
+		}
+		pipeline.close();
+
+		assertEquals(9000, pipeline.getDocumentCount());
+		assertEquals(9000, indexedDocumentCount());
+	}
+
+	public void testReusedDocumentsAreStillBatched() throws IOException {
+		//Like the loaders' mappers: one Document and Field per slot of each thread, overwritten for each item
+		ThreadLocal<List<StringField>> slotFields = ThreadLocal.withInitial(ArrayList::new);
+		IndexingPipeline.DocumentBuilder<Integer> builder = new IndexingPipeline.DocumentBuilder<Integer>() {
+			@Override
+			public Document build(Integer i) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void buildAll(Integer i, int slot, List<Document> docs) {
+				if (i % 10 == 0) {
+					return;
+				}
+				List<StringField> fields = slotFields.get();
+				while (fields.size() <= slot) {
+					fields.add(new StringField("id", "", Field.Store.YES));
+				}
+				StringField id = fields.get(slot);
+				id.setStringValue(String.valueOf(i));
+				Document doc = new Document();
+				doc.add(id);
+				docs.add(doc);
+			}
+
+			@Override
+			public boolean reusesDocuments() {
+				return true;
+			}
+		};
+
+		long adds = Metrics.ADD_DOCUMENT.getCount();
+		try (IndexingPipeline<Integer> pipeline = new IndexingPipeline<>(indexWriter, builder, 4, 16, 8)) {
+			for (int i = 0; i < 1000; i++) {
+				pipeline.add(i);
+			}
+		}
+
+		//Every Document kept its own value, even though they were added to the index a batch at a time
+		assertEquals(900, indexedDocumentCount());
+		Set<String> ids = new HashSet<>();
+		try (DirectoryReader reader = DirectoryReader.open(index)) {
+			for (int doc = 0; doc < reader.maxDoc(); doc++) {
+				ids.add(reader.document(doc).get("id"));
+			}
+		}
+		assertEquals(900, ids.size());
+		assertTrue(Metrics.ADD_DOCUMENT.getCount() - adds <= 1000 / 16 + 4);
+	}
+
+	public void testWorkerFailureIsRethrown() {
+		IndexingPipeline<Integer> pipeline = new IndexingPipeline<>(indexWriter, i -> {
+			if (i == 500) {
+				throw new IllegalStateException("bad episode");
+			}
+			return buildDocument(i);
+		}, 2, 10, 10);
+
+		try {
+			for (int i = 0; i < 1000; i++) {
+				pipeline.add(i);
+			}
+			pipeline.close();
+			fail("Expected the worker failure to be rethrown");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.EOFException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for reading the objects of a JSON array as they are parsed
+ */
+public class JSONObjectStreamTest extends TestCase {
+
+	private static List<JSONObject> readAll(String json) {
+		List<JSONObject> objects = new ArrayList<>();
+		JSONObjectStream stream = new JSONObjectStream(new StringReader(json));
+		while (stream.hasNext()) {
+			objects.add(stream.next());
+		}
+		return objects;
+	}
+
+	public void testNestedObjectsAndBracketsInStrings() {
+		List<JSONObject> objects = readAll("[{\"id\": 1, \"show\": {\"name\": \"Jeopardy!\", \"network\": {\"name\": \"ABC\"}}},"
+				+ " 7, \"skipped\", {\"id\": 2, \"name\": \"Say \\\"]\\\" or [ and }{\"}]");
+
+		assertEquals(2, objects.size());
+		assertEquals("ABC", objects.get(0).getJSONObject("show").getJSONObject("network").getString("name"));
+		assertEquals("Say \"]\" or [ and }{", objects.get(1).getString("name"));
+	}
+
+	public void testEmptyArray() {
+		assertTrue(readAll("[]").isEmpty());
+		assertTrue(readAll("  [ ]\n").isEmpty());
+		//Nothing at all is an empty newline-delimited stream, such as an empty capture
+		assertTrue(readAll("").isEmpty());
+	}
+
+	public void testNewlineDelimited() {
+		List<JSONObject> objects = readAll("{\"id\": 1}\n{\"id\": 2}\n");
+		assertEquals(2, objects.size());
+		assertEquals(2, objects.get(1).getInt("id"));
+	}
+
+	public void testTruncatedStream() {
+		for (String truncated : new String[] { "[", "[{\"id\": 1}", "[{\"id\": 1},", "[{\"id\": 1}, {\"name\": \"Jeop" }) {
+			try {
+				readAll(truncated);
+				fail("Expected an EOFException reading " + truncated);
+			} catch (UncheckedIOException e) {
+				assertTrue(e.getCause() instanceof EOFException);
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.SegmentInfos;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tivo.demo.tvsearch.TVShowSearcher;
+import com.tivo.demo.tvsearch.TVShowSearcherConfig;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for conditional show listing requests, against a local stand-in for the TVMaze API
+ */
+public class ListingResponseCacheTest extends TestCase {
+
+	private HttpServer server;
+	private Path cacheDir;
+
+	//The schedule currently served, its ETag, and the status of responses which aren't 304s
+	private volatile String schedule;
+	private volatile String etag;
+	private volatile int status = 200;
+	private final AtomicInteger fullResponses = new AtomicInteger(), notModifiedResponses = new AtomicInteger();
+
+	/**
+	 * Loads the schedule from the local server
+	 */
+	private class LocalScheduleLoader extends TVMazeShowLoader {
+		LocalScheduleLoader(ShowLoaderConfig config) throws IOException {
+			super(config, false);
+		}
+
+		@Override
+		protected URL getScheduleURL() throws IOException {
+			return new URL("http://localhost:" + server.getAddress().getPort() + "/schedule");
+		}
+	}
+
+	@Override
+	protected void setUp() throws IOException {
+		cacheDir = Files.createTempDirectory("listing-cache");
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/schedule", this::handle);
+		server.start();
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		server.stop(0);
+		try (Stream<Path> walk = Files.walk(cacheDir)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			notModifiedResponses.incrementAndGet();
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+
+		fullResponses.incrementAndGet();
+		byte[] body = schedule.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("ETag", etag);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private ShowLoaderConfig cachingConfig() {
+		ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+		config.setResponseCachePath(cacheDir);
+		return config;
+	}
+
+	private static int numDocs(TVMazeShowLoader loader) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(loader.getIndex())) {
+			return reader.numDocs();
+		}
+	}
+
+	public void testNotModifiedSkipsLoad() throws IOException {
+		schedule = TVMazeShowLoaderTest.listing(5).toString();
+		etag = "\"v1\"";
+
+		ShowLoaderConfig config = cachingConfig();
+		config.setStreaming(true);
+
+		try (LocalScheduleLoader loader = new LocalScheduleLoader(config)) {
+			loader.load();
+			assertEquals(5, numDocs(loader));
+			long generation = SegmentInfos.getLastCommitGeneration(loader.getIndex());
+
+			//Unchanged: answered with a 304, and the index is not even committed
+			loader.load();
+			assertEquals(1, fullResponses.get());
+			assertEquals(1, notModifiedResponses.get());
+			assertEquals(generation, SegmentInfos.getLastCommitGeneration(loader.getIndex()));
+
+			//Changed: downloaded and loaded again
+			schedule = TVMazeShowLoaderTest.listing(8).toString();
+			etag = "\"v2\"";
+			loader.load();
+			assertEquals(2, fullResponses.get());
+			assertEquals(8, numDocs(loader));
+		}
+	}
+
+	public void testNotModifiedStillLoadsAnotherIndex() throws IOException {
+		schedule = TVMazeShowLoaderTest.listing(5).toString();
+		etag = "\"v1\"";
+
+		ShowLoaderConfig config = cachingConfig();
+		config.setStreaming(true);
+
+		try (LocalScheduleLoader loader = new LocalScheduleLoader(config)) {
+			loader.load();
+			assertEquals(5, numDocs(loader));
+		}
+
+		//A new in-memory index shares the cache, so its request is answered with a 304, but the cached listing is loaded
+		try (LocalScheduleLoader loader = new LocalScheduleLoader(config)) {
+			loader.load();
+			assertEquals(1, fullResponses.get());
+			assertEquals(1, notModifiedResponses.get());
+			assertEquals(5, numDocs(loader));
+
+			//Only now is the load skipped
+			long generation = SegmentInfos.getLastCommitGeneration(loader.getIndex());
+			loader.load();
+			assertEquals(2, notModifiedResponses.get());
+			assertEquals(generation, SegmentInfos.getLastCommitGeneration(loader.getIndex()));
+		}
+	}
+
+	public void testNonStreamingLoadReadsCachedListing() throws IOException {
+		schedule = TVMazeShowLoaderTest.listing(3).toString();
+		etag = "\"v1\"";
+
+		try (LocalScheduleLoader loader = new LocalScheduleLoader(cachingConfig())) {
+			loader.load();
+			assertEquals(3, numDocs(loader));
+			assertEquals(3, loader.getShowListing().length());
+			assertEquals(1, fullResponses.get());
+		}
+	}
+
+	public void testFailedStreamingRequestKeepsIndex() throws IOException {
+		schedule = TVMazeShowLoaderTest.listing(5).toString();
+		etag = "\"v1\"";
+
+		ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+		config.setStreaming(true);
+
+		try (LocalScheduleLoader loader = new LocalScheduleLoader(config)) {
+			loader.load();
+			assertEquals(5, numDocs(loader));
+
+			//The error response is neither indexed, nor taken for an empty listing
+			status = 503;
+			try {
+				loader.load();
+				fail("Expected the load to fail");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains("503"));
+			}
+			assertEquals(5, numDocs(loader));
+			assertEquals(0, TVMazeShowLoaderTest.count(loader, "id", "sample"));
+
+			//A body cut off part way through fails too
+			status = 200;
+			schedule = schedule.substring(0, schedule.length() / 2);
+			try {
+				loader.load();
+				fail("Expected the load to fail");
+			} catch (IOException e) {
+				//Expected
+			}
+			assertEquals(5, numDocs(loader));
+		}
+	}
+
+	public void testFailedStreamingLoadIntoOpenWritersKeepsIndex() throws Exception {
+		schedule = TVMazeShowLoaderTest.listing(6).toString();
+		etag = "\"v1\"";
+
+		ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+		config.setStreaming(true);
+		config.setKeepWriterOpen(true);
+
+		try (LocalScheduleLoader loader = new LocalScheduleLoader(config)) {
+			loader.load();
+
+			TVShowSearcherConfig searcherConfig = new TVShowSearcherConfig();
+			searcherConfig.setRefreshIntervalMillis(0);
+			try (TVShowSearcher searcher = new TVShowSearcher(loader.getShardWriters(), loader.getAnalyzer(), searcherConfig)) {
+				loader.addRebuildListener((shards, shardWriters) -> searcher.swapIndex(shardWriters));
+				assertEquals(3, searcher.search("jeopardy", 100).size());
+
+				//The body is cut off after the index was cleared, and some of the new listing indexed
+				schedule = TVMazeShowLoaderTest.listing(20).toString();
+				schedule = schedule.substring(0, schedule.length() * 3 / 4);
+				try {
+					loader.load();
+					fail("Expected the load to fail");
+				} catch (IOException e) {
+					//Expected
+				}
+
+				//None of it is left pending in the IndexWriters, for a near-real-time searcher to see
+				searcher.maybeRefresh();
+				assertEquals(3, searcher.search("jeopardy", 100).size());
+				try (DirectoryReader reader = DirectoryReader.open(loader.getShardWriters()[0])) {
+					assertEquals(6, reader.numDocs());
+				}
+
+				//Nor committed by the next load
+				schedule = TVMazeShowLoaderTest.listing(8).toString();
+				etag = "\"v2\"";
+				loader.load();
+				assertEquals(8, numDocs(loader));
+				searcher.maybeRefresh();
+				assertEquals(4, searcher.search("jeopardy", 100).size());
+			}
+		}
+	}
+
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		ListingResponseCache cache = new ListingResponseCache(cacheDir, 250);
+		byte[] body = new byte[100];
+
+		cache.store("http://example.com/a", null, null, new ByteArrayInputStream(body));
+		Thread.sleep(20);
+		cache.store("http://example.com/b", null, null, new ByteArrayInputStream(body));
+		Thread.sleep(20);
+		cache.store("http://example.com/c", null, null, new ByteArrayInputStream(body));
+
+		assertEquals(200, cache.size());
+		assertNull(cache.open("http://example.com/a"));
+		try (InputStream b = cache.open("http://example.com/b"); InputStream c = cache.open("http://example.com/c")) {
+			assertNotNull(b);
+			assertNotNull(c);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.json.JSONArray;
+
+import com.tivo.demo.tvsearch.TVShowSearcher;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for replaying captured schedule files of each supported format into an in-memory index
+ */
+public class ReplayShowLoaderTest extends TestCase {
+
+	private Path dir;
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = Files.createTempDirectory("replay");
+
+		//A plain JSON array, as returned by the /schedule API
+		Files.write(dir.resolve("2019-06-01.json"), TVMazeShowLoaderTest.listing(10).toString().getBytes(StandardCharsets.UTF_8));
+
+		//Gzipped newline-delimited JSON, in a subdirectory
+		Path month = Files.createDirectory(dir.resolve("2019-07"));
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(month.resolve("01.ndjson.gz")));
+				Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+			for (int i = 0; i < 5; i++) {
+				writer.write(TVMazeShowLoaderTest.episode(200 + i, "Rachael Ray", "Cooking " + i).toString());
+				writer.write('\n');
+			}
+		}
+
+		//An empty capture
+		Files.createFile(month.resolve("02.json"));
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		try (Stream<Path> walk = Files.walk(dir)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private static int count(ReplayShowLoader loader, String field, String text) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(loader.getIndex())) {
+			return new IndexSearcher(reader).count(new TermQuery(new Term(field, text)));
+		}
+	}
+
+	private static int numDocs(ReplayShowLoader loader) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(loader.getIndex())) {
+			return reader.numDocs();
+		}
+	}
+
+	public void testListingReadsEveryFormat() throws IOException {
+		try (ReplayShowLoader loader = new ReplayShowLoader(TVMazeShowLoaderTest.inMemoryConfig(), dir)) {
+			assertEquals(3, loader.listFiles().size());
+
+			JSONArray listing = loader.getShowListing();
+			assertEquals(15, listing.length());
+			assertEquals(15, numDocs(loader));
+		}
+	}
+
+	public void testStreamingReplay() throws IOException {
+		ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+		config.setStreaming(true);
+		config.setIndexingThreads(2);
+
+		try (ReplayShowLoader loader = new ReplayShowLoader(config, dir)) {
+			assertEquals(15, numDocs(loader));
+			assertEquals(5, count(loader, TVShowSearcher.showNameFieldName, "rachael"));
+			assertEquals(5, count(loader, TVShowSearcher.showNameFieldName, "jeopardy"));
+		}
+	}
+}
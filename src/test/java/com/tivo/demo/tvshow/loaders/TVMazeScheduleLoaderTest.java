@@ -0,0 +1,120 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.json.JSONArray;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for fetching a multi-date, multi-country schedule from a local stand-in for the TVMaze API
+ */
+public class TVMazeScheduleLoaderTest extends TestCase {
+
+	private static final int EPISODES_PER_PAGE = 3;
+
+	private HttpServer server;
+	private URI scheduleURI;
+
+	//Requests and page numbers per query string
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+	private final Map<String, Integer> pages = new ConcurrentHashMap<>();
+	private final AtomicInteger pageCount = new AtomicInteger();
+
+	@Override
+	protected void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/schedule", this::handle);
+		server.start();
+		scheduleURI = URI.create("http://localhost:" + server.getAddress().getPort() + "/schedule");
+	}
+
+	@Override
+	protected void tearDown() {
+		server.stop(0);
+	}
+
+	/**
+	 * Serve a page of distinct episodes for each date and country, failing the first request for GB on 2019-06-02
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		String query = exchange.getRequestURI().getQuery();
+		int request = requests.computeIfAbsent(query, q -> new AtomicInteger()).incrementAndGet();
+
+		if (query.equals("country=GB&date=2019-06-02") && request == 1) {
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+			return;
+		}
+
+		int page = pages.computeIfAbsent(query, q -> pageCount.incrementAndGet());
+		JSONArray episodes = new JSONArray();
+		for (int i = 0; i < EPISODES_PER_PAGE; i++) {
+			episodes.put(TVMazeShowLoaderTest.episode(page * 100 + i, query, "Episode " + i));
+		}
+
+		byte[] body = episodes.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static ShowLoaderConfig fetchConfig() {
+		ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+		config.setFetchConcurrency(4);
+		config.setFetchRequestsPerSecond(0);
+		config.setFetchRetryBackoffMillis(1);
+		return config;
+	}
+
+	private static int numDocs(TVMazeScheduleLoader loader) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(loader.getIndex())) {
+			return reader.numDocs();
+		}
+	}
+
+	public void testStreamsEveryPageAndRetries() throws IOException {
+		ShowLoaderConfig config = fetchConfig();
+		config.setStreaming(true);
+		config.setIndexingThreads(2);
+
+		try (TVMazeScheduleLoader loader = new TVMazeScheduleLoader(config, scheduleURI, LocalDate.of(2019, 6, 1), LocalDate.of(2019, 6, 3), "US", "GB")) {
+			assertEquals(6, requests.size());
+			assertEquals(2, requests.get("country=GB&date=2019-06-02").get());
+			assertEquals(6 * EPISODES_PER_PAGE, numDocs(loader));
+		}
+	}
+
+	public void testListingCollectsEveryPage() throws IOException {
+		try (TVMazeScheduleLoader loader = new TVMazeScheduleLoader(fetchConfig(), scheduleURI, LocalDate.of(2019, 6, 1), LocalDate.of(2019, 6, 2), "US", "GB", "CA")) {
+			assertEquals(6 * EPISODES_PER_PAGE, numDocs(loader));
+		}
+	}
+
+	public void testFailsOnceRetriesRunOut() throws IOException {
+		ShowLoaderConfig config = fetchConfig();
+		config.setFetchMaxRetries(0);
+
+		try (TVMazeScheduleFetcher fetcher = new TVMazeScheduleFetcher(scheduleURI, config)) {
+			fetcher.fetchAll(LocalDate.of(2019, 6, 2), LocalDate.of(2019, 6, 2), Arrays.asList("GB"), (date, country, episodes) -> { });
+			fail("Expected the 503 response to fail the fetch");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("503"));
+		}
+	}
+}
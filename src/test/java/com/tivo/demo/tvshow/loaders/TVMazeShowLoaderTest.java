@@ -0,0 +1,511 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.store.Directory;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.tivo.demo.tvsearch.TVShowFacetedResults;
+import com.tivo.demo.tvsearch.TVShowFilter;
+import com.tivo.demo.tvsearch.TVShowSearchResult;
+import com.tivo.demo.tvsearch.TVShowSearcher;
+import com.tivo.demo.tvsearch.TVShowSearcherConfig;
+import com.tivo.demo.tvsearch.TVShowSortOrder;
+import com.tivo.demo.util.Metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for loading a TVMaze schedule into an in-memory index, without the network
+ */
+public class TVMazeShowLoaderTest extends TestCase {
+
+	/**
+	 * Loads a fixed listing instead of querying api.tvmaze.com.  Also loads the index searched by the tests of other packages.
+	 */
+	public static class FixedListingLoader extends TVMazeShowLoader {
+		private JSONArray listing;
+
+		public FixedListingLoader(ShowLoaderConfig config) throws IOException {
+			super(config, false);
+		}
+
+		public void load(JSONArray listing) throws IOException {
+			this.listing = listing;
+			load();
+		}
+
+		@Override
+		public JSONArray getShowListing() {
+			return listing;
+		}
+	}
+
+	static JSONObject episode(int id, String showName, String episodeName) {
+		JSONObject show = new JSONObject();
+		show.put("id", id / 100);
+		show.put("name", showName);
+		show.put("type", "Game Show");
+		show.put("summary", "<p>The " + showName + " show</p>");
+		show.put("network", new JSONObject().put("name", id % 2 == 0 ? "ABC" : "NBC"));
+		show.put("genres", id % 2 == 0 ? new JSONArray().put("Quiz").put("Trivia") : new JSONArray().put("Quiz"));
+
+		JSONObject episode = new JSONObject();
+		episode.put("id", id);
+		episode.put("name", episodeName);
+		episode.put("number", id % 100);
+		episode.put("summary", "<p>" + episodeName + "</p>");
+		//Each id airs in its own half-hour slot, from midnight UTC on 2019-06-10
+		episode.put("airstamp", Instant.parse("2019-06-10T00:00:00Z").plus(Duration.ofMinutes(30L * (id % 100))).toString());
+		episode.put("airdate", "2019-06-10");
+		episode.put("runtime", 30);
+		episode.put("show", show);
+		return episode;
+	}
+
+	public static JSONArray listing(int episodes) {
+		JSONArray listing = new JSONArray();
+		for (int i = 0; i < episodes; i++) {
+			listing.put(episode(100 + i, i % 2 == 0 ? "Jeopardy!" : "Wheel of Fortune", "Episode " + i));
+		}
+		return listing;
+	}
+
+	public static ShowLoaderConfig inMemoryConfig() {
+		ShowLoaderConfig config = new ShowLoaderConfig();
+		config.setDirectoryType(IndexDirectoryType.MEMORY);
+		return config;
+	}
+
+	static int count(AbstractShowLoader loader, String field, String text) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(loader.getIndex())) {
+			return new IndexSearcher(reader).count(new TermQuery(new Term(field, text)));
+		}
+	}
+
+	private static int numDocs(FixedListingLoader loader) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(loader.getIndex())) {
+			return reader.numDocs();
+		}
+	}
+
+	public void testFullLoadWithWorkerThreads() throws IOException {
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setIndexingThreads(4);
+		config.setIndexingBatchSize(16);
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			long indexed = Metrics.DOCUMENTS_INDEXED.sum(), commits = Metrics.COMMIT.getCount();
+			loader.load(listing(500));
+			assertEquals(500, numDocs(loader));
+			assertTrue(Metrics.DOCUMENTS_INDEXED.sum() - indexed >= 500);
+			assertTrue(Metrics.COMMIT.getCount() > commits);
+			assertEquals(250, count(loader, TVShowSearcher.showNameFieldName, "jeopardy"));
+
+			//A full reload replaces everything
+			loader.load(listing(10));
+			assertEquals(10, numDocs(loader));
+		}
+	}
+
+	public void testEmptyListingLoadsSampleShow() throws IOException {
+		try (FixedListingLoader loader = new FixedListingLoader(inMemoryConfig())) {
+			loader.load(null);
+			assertEquals(1, count(loader, TVShowSearcher.showNameFieldName, "wheel"));
+		}
+	}
+
+	public void testFailedLoadKeepsCommittedIndex() throws IOException {
+		try (FixedListingLoader loader = new FixedListingLoader(inMemoryConfig())) {
+			loader.load(listing(10));
+
+			//The listing breaks off part way through indexing, after the old episodes were deleted
+			JSONArray broken = new JSONArray() {
+				@Override
+				public JSONObject optJSONObject(int index) {
+					if (index == 5) {
+						throw new IllegalStateException("Connection reset");
+					}
+					return super.optJSONObject(index);
+				}
+			};
+			JSONArray replacement = listing(20);
+			for (int i = 0; i < replacement.length(); i++) {
+				broken.put(replacement.get(i));
+			}
+			try {
+				loader.load(broken);
+				fail("Expected the load to fail");
+			} catch (IllegalStateException e) {
+				//Expected
+			}
+
+			//Neither the deletes nor the first few episodes were committed
+			assertEquals(10, numDocs(loader));
+		}
+	}
+
+	public void testIncrementalLoadUpdatesOnlyChanges() throws IOException {
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setIncremental(true);
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			loader.load(listing(20));
+			assertEquals(20, numDocs(loader));
+
+			JSONArray changed = listing(19);
+			changed.put(0, episode(100, "Jeopardy!", "Tournament of Champions"));
+			loader.load(changed);
+
+			assertEquals(19, numDocs(loader));
+			assertEquals(1, count(loader, TVShowSearcher.episodeNameFieldName, "champions"));
+			assertEquals(0, count(loader, TVShowSearcher.episodeIdFieldName, "119"));
+		}
+	}
+
+	public void testIncrementalLoadOfEmptyListingAddsNoSample() throws IOException {
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setIncremental(true);
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			loader.load(listing(10));
+			loader.load(new JSONArray());
+
+			assertEquals(10, numDocs(loader));
+			assertEquals(0, count(loader, TVShowSearcher.episodeIdFieldName, "sample"));
+		}
+	}
+
+	public void testEpisodesWithoutIdsAreNotDuplicated() throws IOException {
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setIncremental(true);
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			JSONArray withoutIds = listing(10);
+			for (int i = 0; i < withoutIds.length(); i++) {
+				withoutIds.getJSONObject(i).remove("id");
+			}
+			loader.load(withoutIds);
+			loader.load(withoutIds);
+			assertEquals(10, numDocs(loader));
+
+			//Once dropped from the listing, they are deleted like any other episode
+			withoutIds.remove(9);
+			loader.load(withoutIds);
+			assertEquals(9, numDocs(loader));
+		}
+	}
+
+	public void testSearchProjectsDocValueFields() throws Exception {
+		try (FixedListingLoader loader = new FixedListingLoader(inMemoryConfig())) {
+			loader.load(listing(30));
+
+			try (TVShowSearcher searcher = new TVShowSearcher(loader.getIndex(), loader.getAnalyzer())) {
+				List<TVShowSearchResult> summaries = searcher.search("episodeName:\"Episode 3\"", 1, TVShowSearchResult.SUMMARY_FIELDS);
+				assertEquals("Wheel of Fortune", summaries.get(0).getShowName());
+				assertEquals("Episode 3", summaries.get(0).getEpisodeName());
+				assertEquals(Integer.valueOf(3), summaries.get(0).getEpisodeNumber());
+				assertNull(summaries.get(0).getEpisodeDescription());
+
+				List<TVShowSearchResult> full = searcher.search("episodeName:\"Episode 3\"", 1);
+				assertEquals("<p>Episode 3</p>", full.get(0).getEpisodeDescription());
+			}
+		}
+	}
+
+	public void testNormalizedIndexJoinsShowFields() throws Exception {
+		JSONArray listing = new JSONArray();
+		for (int i = 0; i < 10; i++) {
+			listing.put(episode(100 + i, "Jeopardy!", "Episode " + i));
+			listing.put(episode(200 + i, "Wheel of Fortune", "Spin " + i));
+		}
+
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setNormalized(true);
+		config.setIncremental(true);
+		config.setIndexingThreads(2);
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			loader.load(listing);
+
+			//Each show is indexed once, and its episodes don't copy its fields
+			assertEquals(22, numDocs(loader));
+			assertEquals(1, count(loader, TVShowSearcher.showDescriptionFieldName, "wheel"));
+
+			try (TVShowSearcher searcher = new TVShowSearcher(loader.getIndex(), loader.getAnalyzer())) {
+				List<TVShowSearchResult> results = searcher.search("summary:wheel", 20);
+				assertEquals(10, results.size());
+				for (TVShowSearchResult result : results) {
+					assertEquals("Wheel of Fortune", result.getShowName());
+					assertTrue(result.getEpisodeName().startsWith("Spin"));
+				}
+
+				assertEquals(10, searcher.search("Jeopardy", 20).size());
+				assertEquals(1, searcher.search("name:jeopardy AND episodeName:\"Episode 3\"", 20).size());
+			}
+
+			//Dropping every episode of a show drops the show too
+			JSONArray jeopardyOnly = new JSONArray();
+			for (int i = 0; i < 10; i++) {
+				jeopardyOnly.put(episode(100 + i, "Jeopardy!", "Episode " + i));
+			}
+			loader.load(jeopardyOnly);
+			assertEquals(11, numDocs(loader));
+			assertEquals(0, count(loader, TVShowSearcher.showDescriptionFieldName, "wheel"));
+		}
+	}
+
+	public void testTypeaheadSuggestsMostAiredFirst() throws Exception {
+		JSONArray listing = new JSONArray();
+		for (int i = 0; i < 3; i++) {
+			listing.put(episode(100 + i, "Wheel of Fortune", "Spin " + i));
+		}
+		listing.put(episode(200, "Whose Line Is It Anyway?", "Pilot"));
+
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setTypeahead(true);
+		config.setNormalized(true);
+		config.setIncremental(true);
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			loader.load(listing);
+			assertEquals(Arrays.asList("Wheel of Fortune", "Whose Line Is It Anyway?"), loader.getSuggester().suggest("wh", 5));
+			assertEquals(Arrays.asList("Whose Line Is It Anyway?"), loader.getSuggester().suggest("line", 5));
+			assertEquals(Arrays.asList("Spin 2"), loader.getSuggester().suggest("spin 2", 5));
+
+			//Reweighted and dropped names are updated in place
+			listing = new JSONArray();
+			for (int i = 0; i < 4; i++) {
+				listing.put(episode(200 + i, "Whose Line Is It Anyway?", "Improv " + i));
+			}
+			listing.put(episode(100, "Wheel of Fortune", "Spin 0"));
+			loader.load(listing);
+			assertEquals(Arrays.asList("Whose Line Is It Anyway?", "Wheel of Fortune"), loader.getSuggester().suggest("wh", 5));
+			assertTrue(loader.getSuggester().suggest("spin 2", 5).isEmpty());
+		}
+	}
+
+	public void testFilterByTimeSlotAndNetwork() throws Exception {
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setNormalized(true);
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			loader.load(listing(40));
+
+			try (TVShowSearcher searcher = new TVShowSearcher(loader.getIndex(), loader.getAnalyzer())) {
+				//The last of the 40 episodes airs at 19:30 UTC
+				long from = Instant.parse("2019-06-10T20:00:00Z").toEpochMilli();
+				long until = Instant.parse("2019-06-10T22:00:00Z").toEpochMilli();
+				TVShowFilter evening = new TVShowFilter.Builder().airingBetween(from, until).build();
+				assertEquals(0, searcher.search(null, 20, TVShowSearchResult.SUMMARY_FIELDS, evening).size());
+
+				from = Instant.parse("2019-06-10T05:00:00Z").toEpochMilli();
+				until = Instant.parse("2019-06-10T07:00:00Z").toEpochMilli();
+				TVShowFilter morning = new TVShowFilter.Builder().airingBetween(from, until).build();
+				assertEquals(4, searcher.search(null, 20, TVShowSearchResult.SUMMARY_FIELDS, morning).size());
+
+				//Ids 110 to 113 air in that window, and the even ones, the Jeopardy! episodes, on ABC
+				TVShowFilter morningOnABC = new TVShowFilter.Builder().airingBetween(from, until).onNetwork("ABC").build();
+				List<TVShowSearchResult> results = searcher.search(null, 20, TVShowSearchResult.SUMMARY_FIELDS, morningOnABC);
+				assertEquals(2, results.size());
+				for (TVShowSearchResult result : results) {
+					assertEquals("ABC", result.getNetwork());
+					assertTrue(result.getAirtime() >= from && result.getAirtime() < until);
+				}
+
+				//Filters restrict a text query without scoring
+				assertEquals(2, searcher.search("Jeopardy", 20, TVShowSearchResult.SUMMARY_FIELDS, morningOnABC).size());
+				assertEquals(0, searcher.search("Wheel", 20, TVShowSearchResult.SUMMARY_FIELDS, morningOnABC).size());
+
+				TVShowFilter allDayOnNBC = new TVShowFilter.Builder().airingOn("2019-06-10").onNetwork("NBC").runtimeBetween(30, 60).build();
+				assertEquals(20, searcher.search(null, 40, TVShowSearchResult.SUMMARY_FIELDS, allDayOnNBC).size());
+			}
+		}
+	}
+
+	public void testAirtimeSortedIndexTerminatesEarly() throws Exception {
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setKeepWriterOpen(true);
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			loader.load(listing(10));
+
+			//An index written without the sort is recreated sorted, by the IndexWriter the next load opens
+			config.setSortedByAirtime(true);
+			loader.getIndexWriter().close();
+			loader.load(listing(1500));
+			assertEquals(1500, numDocs(loader));
+			assertEquals(TVShowSearcher.AIRTIME_SORT, loader.getIndexWriter().getConfig().getIndexSort());
+
+			try (DirectoryReader reader = DirectoryReader.open(loader.getIndex())) {
+				TopDocs next = new IndexSearcher(reader).search(new MatchAllDocsQuery(), 5, TVShowSearcher.AIRTIME_SORT);
+				assertEquals(TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO, next.totalHits.relation);
+			}
+
+			try (TVShowSearcher searcher = new TVShowSearcher(loader.getIndex(), loader.getAnalyzer())) {
+				long from = Instant.parse("2019-06-10T12:00:00Z").toEpochMilli();
+				TVShowFilter upcoming = new TVShowFilter.Builder().airingAfter(from).build();
+				List<TVShowSearchResult> results = searcher.search("Wheel", 10, TVShowSearchResult.SUMMARY_FIELDS, upcoming, TVShowSortOrder.AIRTIME);
+				assertEquals(10, results.size());
+				long previous = from;
+				for (TVShowSearchResult result : results) {
+					assertEquals("Wheel of Fortune", result.getShowName());
+					assertTrue(result.getAirtime() >= previous);
+					previous = result.getAirtime();
+				}
+				//The first Wheel of Fortune slot from noon is id x25, at 12:30
+				assertEquals(from + 30 * 60 * 1000, results.get(0).getAirtime().longValue());
+			}
+		}
+	}
+
+	public void testFieldAnalysis() throws Exception {
+		Path synonyms = Files.createTempFile("synonyms", ".txt");
+		Files.write(synonyms, Arrays.asList("fortune, luck"));
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setSynonymsPath(synonyms);
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			loader.load(listing(20));
+
+			//The summaries' <p> tags are stripped before tokenizing
+			assertEquals(0, count(loader, TVShowSearcher.showDescriptionFieldName, "p"));
+			assertEquals(10, count(loader, TVShowSearcher.showDescriptionFieldName, "jeopardy"));
+
+			//Every prefix of each name word is a term, up to the longest prefix indexed
+			assertEquals(10, count(loader, TVShowSearcher.showNamePrefixFieldName, "jeop"));
+			assertEquals(20, count(loader, TVShowSearcher.episodeNamePrefixFieldName, "e"));
+
+			try (TVShowSearcher searcher = new TVShowSearcher(loader.getIndex(), loader.getAnalyzer())) {
+				assertEquals(10, searcher.search("name:Jeop*", 100).size());
+				assertEquals(10, searcher.search("name:whe* AND episodeName:epis*", 100).size());
+				assertEquals(0, searcher.search("name:jeopardyjeopardyjeopardy*", 100).size());
+
+				//Synonyms are indexed along with the words, so the query needs no expanding
+				assertEquals(10, searcher.search("summary:luck", 100).size());
+			}
+		} finally {
+			Files.delete(synonyms);
+		}
+	}
+
+	public void testFacetCountsWithHits() throws Exception {
+		ShowLoaderConfig config = inMemoryConfig();
+		config.setNormalized(true);
+
+		JSONArray listing = new JSONArray();
+		for (int i = 0; i < 15; i++) {
+			listing.put(episode(100 + i, "Jeopardy!", "Episode " + i));
+			listing.put(episode(200 + i, "Wheel of Fortune", "Spin " + i));
+		}
+
+		try (FixedListingLoader loader = new FixedListingLoader(config)) {
+			loader.load(listing);
+
+			try (TVShowSearcher searcher = new TVShowSearcher(loader.getIndex(), loader.getAnalyzer())) {
+				TVShowFacetedResults all = searcher.searchWithFacets(null, 5, TVShowSearchResult.SUMMARY_FIELDS, null, TVShowSortOrder.RELEVANCE, 10);
+				assertEquals(5, all.getResults().size());
+				assertEquals(30, all.getTotalHits());
+				assertEquals(Integer.valueOf(30), all.getFacetCounts(TVShowSearcher.typeFacetName).get("Game Show"));
+				assertEquals(Integer.valueOf(14), all.getFacetCounts(TVShowSearcher.networkFacetName).get("NBC"));
+				assertEquals(Arrays.asList("Quiz", "Trivia"), new ArrayList<>(all.getFacetCounts(TVShowSearcher.genreFacetName).keySet()));
+
+				//Counted over the matches of a joined show field query, not just the top hits
+				TVShowFacetedResults jeopardy = searcher.searchWithFacets("summary:jeopardy", 5, TVShowSearchResult.SUMMARY_FIELDS, null, TVShowSortOrder.RELEVANCE, 10);
+				assertEquals(15, jeopardy.getTotalHits());
+				assertEquals(Arrays.asList("ABC", "NBC"), new ArrayList<>(jeopardy.getFacetCounts(TVShowSearcher.networkFacetName).keySet()));
+				assertEquals(Integer.valueOf(8), jeopardy.getFacetCounts(TVShowSearcher.genreFacetName).get("Trivia"));
+				assertEquals(Integer.valueOf(15), jeopardy.getFacetCounts(TVShowSearcher.genreFacetName).get("Quiz"));
+			}
+		}
+	}
+
+	private static List<String> scoredResults(List<TVShowSearchResult> results) {
+		//Equally scored hits may be in a different order, so compare them sorted
+		return results.stream()
+				.map(result -> result.getShowName() + "/" + result.getEpisodeName() + "/" + result.getScore())
+				.sorted()
+				.collect(Collectors.toList());
+	}
+
+	public void testShardedIndexScoresLikeUnsharded() throws Exception {
+		String[] showNames = { "Jeopardy!", "Wheel of Fortune", "Family Feud", "Jeopardy! Masters" };
+		JSONArray listing = new JSONArray();
+		for (int show = 1; show <= 24; show++) {
+			for (int i = 0; i < 5; i++) {
+				listing.put(episode(show * 100 + i, showNames[show % showNames.length], "Episode " + (show + i)));
+			}
+		}
+
+		for (boolean normalized : new boolean[] { false, true }) {
+			ShowLoaderConfig config = inMemoryConfig();
+			config.setNormalized(normalized);
+			ShowLoaderConfig shardedConfig = inMemoryConfig();
+			shardedConfig.setNormalized(normalized);
+			shardedConfig.setShardCount(3);
+			shardedConfig.setIndexingThreads(2);
+
+			try (FixedListingLoader loader = new FixedListingLoader(config);
+					FixedListingLoader shardedLoader = new FixedListingLoader(shardedConfig)) {
+				loader.load(listing);
+				shardedLoader.load(listing);
+
+				//Every show's episodes are all in the same shard, and every shard has some
+				Directory[] shards = shardedLoader.getShards();
+				assertEquals(3, shards.length);
+				int total = 0;
+				for (Directory shard : shards) {
+					try (DirectoryReader reader = DirectoryReader.open(shard)) {
+						assertTrue(reader.numDocs() > 0);
+						total += reader.numDocs();
+						for (int show = 1; show <= 24; show++) {
+							int episodes = new IndexSearcher(reader).count(new TermQuery(new Term(TVShowSearcher.showIdFieldName, String.valueOf(show))));
+							assertTrue(episodes == 0 || episodes == (normalized ? 6 : 5));
+						}
+					}
+				}
+				assertEquals(numDocs(loader), total);
+
+				TVShowSearcherConfig searcherConfig = new TVShowSearcherConfig();
+				try (TVShowSearcher searcher = new TVShowSearcher(loader.getIndex(), loader.getAnalyzer());
+						TVShowSearcher shardedSearcher = new TVShowSearcher(shards, shardedLoader.getAnalyzer(), searcherConfig)) {
+					for (String q : new String[] { "Jeopardy", "name:Wheel OR summary:feud", "episodeName:\"episode 7\"", "name:Jeop*", "summary:jeopardy -name:masters" }) {
+						List<TVShowSearchResult> expected = searcher.search(q, 200, TVShowSearchResult.SUMMARY_FIELDS);
+						List<TVShowSearchResult> results = shardedSearcher.search(q, 200, TVShowSearchResult.SUMMARY_FIELDS);
+						assertFalse(q, expected.isEmpty());
+						assertEquals(q, scoredResults(expected), scoredResults(results));
+
+						//The merged top hits are the best of every shard
+						assertEquals(q, expected.get(0).getScore(), shardedSearcher.search(q, 3).get(0).getScore());
+					}
+
+					List<TVShowSearchResult> soonest = shardedSearcher.search(null, 10, TVShowSearchResult.SUMMARY_FIELDS, null, TVShowSortOrder.AIRTIME);
+					assertEquals(10, soonest.size());
+					for (int i = 1; i < soonest.size(); i++) {
+						assertTrue(soonest.get(i).getAirtime() >= soonest.get(i - 1).getAirtime());
+					}
+
+					TVShowFacetedResults facets = shardedSearcher.searchWithFacets("Jeopardy", 5, TVShowSearchResult.SUMMARY_FIELDS, null, TVShowSortOrder.RELEVANCE, 10);
+					assertEquals(searcher.searchWithFacets("Jeopardy", 5, TVShowSearchResult.SUMMARY_FIELDS, null, TVShowSortOrder.RELEVANCE, 10).getFacetCounts(),
+							facets.getFacetCounts());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.tivo.demo.tvshow.loaders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for fetching signed channel screen pages from a local stand-in for the TiVo API
+ */
+public class TivoShowLoaderTest extends TestCase {
+
+	private static final int ITEM_COUNT = 2 * TivoShowLoader.PAGE_SIZE + 50;
+
+	private HttpServer server;
+	private URI screenURI;
+
+	//Requests per query string, and every Authorization header received
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+	private final Set<String> authorizations = ConcurrentHashMap.newKeySet();
+
+	@Override
+	protected void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/screen", this::handle);
+		server.start();
+		screenURI = URI.create("http://localhost:" + server.getAddress().getPort() + "/screen");
+	}
+
+	@Override
+	protected void tearDown() {
+		server.stop(0);
+	}
+
+	/**
+	 * Serve the page of items at the requested offset, failing the first request for the second page
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		String query = exchange.getRequestURI().getQuery();
+		int request = requests.computeIfAbsent(query, q -> new AtomicInteger()).incrementAndGet();
+
+		String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		if (authorization == null || !authorization.startsWith("OAuth oauth_consumer_key=key,")) {
+			exchange.sendResponseHeaders(401, -1);
+			exchange.close();
+			return;
+		}
+		authorizations.add(authorization);
+
+		int offset = 0, count = 0;
+		for (String param : query.split("&")) {
+			if (param.startsWith("offset=")) {
+				offset = Integer.parseInt(param.substring("offset=".length()));
+			}
+			else if (param.startsWith("count=")) {
+				count = Integer.parseInt(param.substring("count=".length()));
+			}
+		}
+
+		if (offset == TivoShowLoader.PAGE_SIZE && request == 1) {
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+			return;
+		}
+
+		JSONArray items = new JSONArray();
+		for (int i = offset; i < Math.min(offset + count, ITEM_COUNT); i++) {
+			items.put(new JSONObject().put("id", "channel" + i).put("title", "Channel " + i).put("callSign", "CH" + i));
+		}
+
+		byte[] body = items.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static ShowLoaderConfig fetchConfig() {
+		ShowLoaderConfig config = TVMazeShowLoaderTest.inMemoryConfig();
+		config.setFetchConcurrency(4);
+		config.setFetchRequestsPerSecond(0);
+		config.setFetchRetryBackoffMillis(1);
+		return config;
+	}
+
+	private static int numDocs(TivoShowLoader loader) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(loader.getIndex())) {
+			return reader.numDocs();
+		}
+	}
+
+	public void testSignsAndFetchesEveryPage() throws IOException {
+		try (TivoShowLoader loader = new TivoShowLoader(fetchConfig(), screenURI, "1", "key", "secret")) {
+			assertEquals(ITEM_COUNT, numDocs(loader));
+			assertEquals(2, requests.get("id=1&offset=" + TivoShowLoader.PAGE_SIZE + "&count=" + TivoShowLoader.PAGE_SIZE).get());
+
+			//Every request, including the retry, was signed with its own nonce
+			int requestCount = requests.values().stream().mapToInt(AtomicInteger::get).sum();
+			assertEquals(requestCount, authorizations.size());
+		}
+	}
+
+	public void testStreamsEveryPage() throws IOException {
+		ShowLoaderConfig config = fetchConfig();
+		config.setStreaming(true);
+		config.setIndexingThreads(2);
+
+		try (TivoShowLoader loader = new TivoShowLoader(config, screenURI, "1", "key", "secret")) {
+			assertEquals(ITEM_COUNT, numDocs(loader));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.tivo.demo.tvshow.loaders.oauth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for signing requests with a shared signer, against the signatures of {@link OAuthSignatureGenerator}
+ */
+public class OAuthSignerTest extends TestCase {
+
+	private static final String KEY = "key", SECRET = "secret";
+	private static final String TIMESTAMP = "1458478319", NONCE = "78834590";
+
+	private static String expectedHeader(String url, String key, String secret) throws Exception {
+		OAuthSignatureGenerator oauth = new OAuthSignatureGenerator();
+		oauth.setTimestamp(TIMESTAMP);
+		oauth.setNonce(NONCE);
+		return oauth.buildAuthorizationHeader(key, oauth.generateSignature("GET", url, key, secret));
+	}
+
+	public void testMatchesSignatureGenerator() throws Exception {
+		OAuthSigner signer = new OAuthSigner();
+		String[] urls = {
+				"https://developers.tivo.com/api/v1/resolve/3/data_service_channels/screen?id=4068858495&offset=0&count=100",
+				"http://sample.url.com/query?samplequery=sample value",
+				"http://sample.url.com/query?b=2&a=1&c=3",
+				"http://sample.url.com/query?name=caf%C3%A9+cr%C3%A8me",
+				"http://sample.url.com/noquery"
+		};
+
+		for (String url : urls) {
+			assertEquals(url, expectedHeader(url, KEY, SECRET), signer.sign("GET", url, KEY, SECRET, NONCE, TIMESTAMP));
+		}
+		//A second secret on the same thread gets its own Mac
+		assertEquals(expectedHeader(urls[0], KEY, "other"), signer.sign("GET", urls[0], KEY, "other", NONCE, TIMESTAMP));
+		assertEquals(expectedHeader(urls[0], KEY, SECRET), signer.sign("GET", urls[0], KEY, SECRET, NONCE, TIMESTAMP));
+	}
+
+	public void testPercentEncodesAllButUnreserved() {
+		StringBuilder encoded = new StringBuilder();
+		//Unlike URLEncoder, which OAuthSignatureGenerator relies on, '*' is encoded and '~' is not
+		OAuthSigner.percentEncode("a-b.c_d~e*f g+h/\u00e9", encoded);
+		assertEquals("a-b.c_d~e%2Af%20g%2Bh%2F%C3%A9", encoded.toString());
+		assertEquals("caf\u00e9 cr\u00e8me", OAuthSigner.decode("x=caf%C3%A9+cr%C3%A8me", 2, 22));
+	}
+
+	public void testFreshNonceForEveryRequestOnEveryThread() throws Exception {
+		OAuthSigner signer = new OAuthSigner();
+		String url = "https://developers.tivo.com/api/v1/resolve/3/data_service_channels/screen?id=4068858495&offset=0&count=100";
+		Set<String> headers = ConcurrentHashMap.newKeySet();
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 250; i++) {
+						headers.add(signer.sign("GET", url, KEY, SECRET));
+						//Signatures made on other threads at the same time must still be correct
+						assertEquals(expectedHeader(url, KEY, SECRET), signer.sign("GET", url, KEY, SECRET, NONCE, TIMESTAMP));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(1000, headers.size());
+	}
+}
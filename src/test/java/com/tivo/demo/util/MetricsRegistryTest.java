@@ -0,0 +1,61 @@
+package com.tivo.demo.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the latency histograms, and their Prometheus and JMX views
+ */
+public class MetricsRegistryTest extends TestCase {
+
+	public void testHistogramPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long micros = 1; micros <= 1000; micros++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+		//Every bucket is within 1/16th of its values
+		long p50 = histogram.getValueAtPercentile(50), p99 = histogram.getValueAtPercentile(99);
+		assertTrue(p50 >= 500_000 && p50 <= 500_000 * 17 / 16);
+		assertTrue(p99 >= 990_000 && p99 <= 1_000_000);
+		assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+
+		for (long value : new long[] { 0, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE }) {
+			int bucket = LatencyHistogram.bucketOf(value);
+			assertTrue(LatencyHistogram.highestValueIn(bucket) >= value);
+			assertTrue(bucket == 0 || LatencyHistogram.highestValueIn(bucket - 1) < value);
+		}
+	}
+
+	public void testPrometheusTextAndJmx() throws Exception {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.histogram("test_search_seconds", "Search time").record(TimeUnit.MILLISECONDS.toNanos(2));
+		registry.counter("test_documents_total", "Documents").add(42);
+		assertSame(registry.counter("test_documents_total", "Documents"), registry.counter("test_documents_total", "Again"));
+
+		String text = registry.toPrometheusText();
+		assertTrue(text.contains("# TYPE test_search_seconds summary\n"));
+		assertTrue(text.contains("test_search_seconds_count 1\n"));
+		assertTrue(text.contains("test_search_seconds_sum 0.002000000\n"));
+		assertTrue(text.contains("# TYPE test_documents_total counter\ntest_documents_total 42\n"));
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.tivo.demo:type=MetricsRegistryTest");
+		registry.registerMBean(name.toString());
+		try {
+			assertEquals(42L, server.getAttribute(name, "test_documents_total"));
+			assertEquals(1L, server.getAttribute(name, "test_search_seconds.count"));
+			assertEquals(0.002, (Double) server.getAttribute(name, "test_search_seconds.max"), 1e-9);
+			assertEquals(7 + 1, server.getMBeanInfo(name).getAttributes().length);
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+}